@@ -17,6 +17,11 @@ java {
     }
 }
 
+// The SIMD luminance kernel is built against the incubating Vector API, at runtime it's only used when the module is added to the JVM
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
 dependencies {
     implementation("org.apache.pdfbox:pdfbox:3.0.5")
 
@@ -47,4 +52,5 @@ tasks.shadowJar {
 // Configuration for running tests
 tasks.test {
     useJUnitPlatform() // Ensures JUnit 5 tests are run correctly
+    jvmArgs("--add-modules", "jdk.incubator.vector")
 }
\ No newline at end of file
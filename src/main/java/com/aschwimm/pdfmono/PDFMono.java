@@ -1,149 +1,298 @@
 package com.aschwimm.pdfmono;
 
+import com.aschwimm.pdfmono.service.ConversionEstimate;
+import com.aschwimm.pdfmono.service.ConversionEstimator;
+import com.aschwimm.pdfmono.service.ConversionOptions;
 import com.aschwimm.pdfmono.service.PDFConversionService;
 import com.aschwimm.pdfmono.service.PDFPageToImageToGrayscale;
+import com.aschwimm.pdfmono.service.PageImageCodec;
+import com.aschwimm.pdfmono.service.SaveMode;
+import com.aschwimm.pdfmono.util.BinarizationMethod;
+import com.aschwimm.pdfmono.util.LuminanceModel;
 import com.aschwimm.pdfmono.util.PDFDocumentIO;
 import com.aschwimm.pdfmono.util.PDFInspector;
+import com.aschwimm.pdfmono.util.ReportFormat;
 
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
-
-import static java.lang.Float.parseFloat;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class PDFMono {
 
-    // Set default DPI if arg isn't provided
-    private static final float DEFAULT_DPI = 150.0f;
-
-    // Conversion usage reminder message
-    private static final String CONVERSION_USAGE =
-            "Usage: java -jar PDFMono.jar <input-pdf-path> <output-pdf-path> --grayscale [--dpi <value>]";
+    // Usage reminder messages of the conversions, a command accepts exactly the options its usage lists
+    private static final String GRAYSCALE_USAGE =
+            "Usage: java -jar PDFMono.jar <input-pdf-path> <output-pdf-path> --grayscale [--dpi <value>] [--no-gamma] [--luminance 601|709|linear] [--codec jpeg|flate] [--jpeg-quality <0-1>] [--threads <count>] [--max-in-flight <pages>] [--streaming] [--rasterize-all] [--band-height <pixels>] [--stats <json-path>]";
+    private static final String MONO_USAGE =
+            "Usage: java -jar PDFMono.jar <input-pdf-path> <output-pdf-path> --mono [--dither threshold|otsu|floyd-steinberg] [--threshold <0-255>] [--dpi <value>] [--no-gamma] [--luminance 601|709|linear] [--threads <count>] [--max-in-flight <pages>] [--streaming] [--band-height <pixels>] [--stats <json-path>]";
+    private static final String IN_PLACE_USAGE =
+            "Usage: java -jar PDFMono.jar <input-pdf-path> <output-pdf-path> --in-place [--threads <count>] [--save compressed|full|incremental]";
+    private static final String HYBRID_USAGE =
+            "Usage: java -jar PDFMono.jar <input-pdf-path> <output-pdf-path> --hybrid [--dpi <value>] [--no-gamma] [--luminance 601|709|linear] [--codec jpeg|flate] [--jpeg-quality <0-1>] [--band-height <pixels>] [--save compressed|full|incremental]";
     // Inspection usage reminder message
     private static final String INSPECTION_USAGE =
-            "Usage: java -jar PDFMono.jar <input-pdf-path> <output-Markdown-report-path>";
+            "Usage: java -jar PDFMono.jar <input-pdf-path> <output-report-path> --inspect [--threads <count>] [--format markdown|jsonl]";
+
+    // Estimate usage reminder message
+    private static final String ESTIMATE_USAGE =
+            "Usage: java -jar PDFMono.jar <input-pdf-path> <output-json-path> --estimate [--dpi <value>] [--codec jpeg|flate] [--jpeg-quality <0-1>] [--mono] [--no-gamma] [--threads <count>] [--max-in-flight <pages>] [--rasterize-all] [--band-height <pixels>] [--save compressed|full|incremental]";
+
+    private static final List<String> COMMANDS = List.of("--grayscale", "--mono", "--in-place", "--hybrid", "--inspect", "--estimate");
+    // An option in a usage message, e.g. [--dpi <value>]
+    private static final Pattern USAGE_OPTION = Pattern.compile("\\[(--[a-z-]+)");
 
     public static void main(String[] args) {
         String inputPath = null;
         String outputPath = null;
-        float dpi = DEFAULT_DPI;
+        String command = null;
+        ConversionOptions options = new ConversionOptions();
+        // Only used by --inspect
+        ReportFormat reportFormat = ReportFormat.MARKDOWN;
 
         // Parse cmd line arguments
         if (args.length < 2) {
-            System.err.println("Error: Missing input and/or output file paths.");
-            System.out.println(CONVERSION_USAGE);
-            System.exit(1);
+            exitWithUsageError("Missing input and/or output file paths.", null);
         }
         inputPath = args[0];
         outputPath = args[1];
-        // Process optional arguments from the third argument onwards
-        for (int i = 2; i < args.length; i++) {
-            String arg = args[i];
-            // Check for arg to convert to grayscale
-            if(arg.equals("--grayscale")) {
-                // Check for option --dpi arg
-                if(i+1 < args.length) {
-                    String dpiArg =  args[i+1];
-                    if(dpiArg.equals("--dpi")) {
-                        if (i + 2 < args.length) {
-                            try {
-                                // Increment i to consume the value
-                                ++i;
-                                dpi = Float.parseFloat(args[++i]);
-                                if (dpi <= 0) {
-                                    System.err.println("Error: DPI value must be a positive number.");
-                                    System.out.println(CONVERSION_USAGE);
-                                    System.exit(1);
-                                }
-                            } catch (NumberFormatException e) {
-                                System.err.println("Error: Invalid DPI value. Please provide an integer or float.");
-                                System.out.println(CONVERSION_USAGE);
-                                System.exit(1);
-                            }
-                        } else {
-                            System.err.println("Error: --dpi option requires a value.");
-                            System.out.println(CONVERSION_USAGE);
-                            System.exit(1);
-                        }
-                        try {
-                            Paths.get(inputPath);
-                            Paths.get(outputPath);
-                        } catch (InvalidPathException e) {
-                            System.err.println("Error: Invalid file path provided. " + e.getMessage());
-                            System.out.println(CONVERSION_USAGE);
-                            System.exit(1);
-                        }
-
-                        PDFDocumentIO pdfDocumentIO = new PDFDocumentIO();
-                        PDFPageToImageToGrayscale converter = new PDFPageToImageToGrayscale(pdfDocumentIO);
-                        System.out.println("Converting '" + inputPath + "' to grayscale with DPI " + dpi + "...");
-                        try {
-                            // Call the method without the gamma boolean
-                            converter.convertToGrayscalePDF(inputPath, outputPath, dpi);
-                        } catch (IllegalArgumentException e) {
-                            System.err.println("\nInput Error: " + e.getMessage());
-                            System.out.println(CONVERSION_USAGE);
-                            System.exit(1);
-                        } catch (IOException e) {
-                            System.err.println("\nI/O Error during PDF conversion: " + e.getMessage());
-                            e.printStackTrace();
-                            System.exit(1);
-                        } catch (Exception e) {
-                            System.err.println("\nAn unexpected error occurred during PDF conversion: " + e.getMessage());
-                            e.printStackTrace();
-                            System.exit(1);
-                        } finally {
-                            System.out.println("Conversion complete! Output saved to: " + outputPath);
-                            System.exit(0);
-                        }
-                    }
+        // Process the command and optional arguments from the third argument onwards, options may appear in any order after the paths
+        // The command is found first, every error after that is shown with the usage of that command
+        try {
+            command = findCommand(args);
+            Set<String> knownOptions = usageOptions(usageOf(null));
+            Set<String> allowedOptions = usageOptions(usageOf(command));
+            for (int i = 2; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.equals(command) && knownOptions.contains(arg) && !allowedOptions.contains(arg)) {
+                    throw new IllegalArgumentException(arg + " doesn't apply to " + command + ".");
                 }
-                PDFDocumentIO pdfDocumentIO = new PDFDocumentIO();
-                PDFPageToImageToGrayscale converter = new PDFPageToImageToGrayscale(pdfDocumentIO);
-                System.out.println("Converting '" + inputPath + "' to grayscale with Default DPI: " + dpi + "...");
-                try {
-                    // Call the method without the gamma boolean
-                    converter.convertToGrayscalePDF(inputPath, outputPath, dpi);
-                    System.out.println("Conversion complete! Output saved to: " + outputPath);
-                } catch (IllegalArgumentException e) {
-                    System.err.println("\nInput Error: " + e.getMessage());
-                    System.out.println(CONVERSION_USAGE);
-                    System.exit(1);
-                } catch (IOException e) {
-                    System.err.println("\nI/O Error during PDF conversion: " + e.getMessage());
-                    e.printStackTrace();
-                    System.exit(1);
-                } catch (Exception e) {
-                    System.err.println("\nAn unexpected error occurred during PDF conversion: " + e.getMessage());
-                    e.printStackTrace();
-                    System.exit(1);
+                switch (arg) {
+                    case "--grayscale", "--in-place", "--hybrid", "--inspect", "--estimate" -> {
+                        // Already found by findCommand
+                    }
+                    // --mono is also how an estimate is asked for monochrome output
+                    case "--mono" -> options.setMonochrome(true);
+                    case "--dither" -> options.setBinarizationMethod(BinarizationMethod.fromName(requireValue(args, ++i, arg)));
+                    case "--threshold" -> options.setThreshold(parseIntValue(args, ++i, arg));
+                    case "--dpi" -> options.setDpi(parseFloatValue(args, ++i, arg));
+                    case "--no-gamma" -> options.setGammaCorrection(false);
+                    case "--luminance" -> options.setLuminanceModel(LuminanceModel.fromName(requireValue(args, ++i, arg)));
+                    case "--codec" -> options.setCodec(PageImageCodec.fromName(requireValue(args, ++i, arg)));
+                    case "--jpeg-quality" -> options.setJpegQuality(parseFloatValue(args, ++i, arg));
+                    case "--threads" -> options.setThreads(parseIntValue(args, ++i, arg));
+                    case "--max-in-flight" -> options.setMaxPagesInFlight(parseIntValue(args, ++i, arg));
+                    case "--streaming" -> options.setStreaming(true);
+                    case "--rasterize-all" -> options.setPassThroughGrayPages(false);
+                    case "--band-height" -> options.setBandHeight(parseIntValue(args, ++i, arg));
+                    case "--stats" -> options.setStatsFile(requireValue(args, ++i, arg));
+                    case "--save" -> options.setSaveMode(SaveMode.fromName(requireValue(args, ++i, arg)));
+                    case "--format" -> reportFormat = ReportFormat.fromName(requireValue(args, ++i, arg));
+                    default -> throw new IllegalArgumentException("Unknown option '" + arg + "'");
                 }
             }
+        } catch (IllegalArgumentException e) {
+            // Option setters reject out of range values, e.g. a DPI that isn't positive
+            exitWithUsageError(e.getMessage(), command);
+        }
 
-            else if (arg.equals("--inspect")) {
-                PDFDocumentIO pdfDocumentIO = new PDFDocumentIO();
-                PDFInspector inspector = new PDFInspector(pdfDocumentIO);
-                System.out.println("Inspecting " + inputPath + "...");
-                try {
-                    inspector.inspect(inputPath, outputPath);
-                    System.out.println("Inspection complete! Report saved to: " + outputPath);
-                } catch (IllegalArgumentException e) {
-                    System.err.println("\nInput Error: " + e.getMessage());
-                    System.out.println(CONVERSION_USAGE);
-                    System.exit(1);
-                } catch (Exception e) {
-                    System.err.println("\nAn unexpected error occurred during PDF inspection: " + e.getMessage());
-                    e.printStackTrace();
-                    System.exit(1);
-                }
+        try {
+            Paths.get(inputPath);
+            Paths.get(outputPath);
+        } catch (InvalidPathException e) {
+            exitWithUsageError("Invalid file path provided. " + e.getMessage(), command);
+        }
+
+        if (command.equals("--grayscale")) {
+            convertToGrayscale(inputPath, outputPath, options);
+        } else if (command.equals("--mono")) {
+            options.setMonochrome(true);
+            convertToGrayscale(inputPath, outputPath, options);
+        } else if (command.equals("--in-place")) {
+            convertInPlace(inputPath, outputPath, options);
+        } else if (command.equals("--hybrid")) {
+            convertHybrid(inputPath, outputPath, options);
+        } else if (command.equals("--estimate")) {
+            estimate(inputPath, outputPath, options);
+        } else {
+            inspect(inputPath, outputPath, options, reportFormat);
+        }
+    }
+
+    private static void convertToGrayscale(String inputPath, String outputPath, ConversionOptions options) {
+        PDFDocumentIO pdfDocumentIO = new PDFDocumentIO();
+        PDFPageToImageToGrayscale converter = new PDFPageToImageToGrayscale(pdfDocumentIO);
+        System.out.println("Converting '" + inputPath + "' to " + (options.isMonochrome() ? "monochrome" : "grayscale") + " with DPI " + options.getDpi()
+                + (options.getThreads() > 1 ? " using " + options.getThreads() + " threads" : "") + "...");
+        try {
+            converter.convertToGrayscalePDF(inputPath, outputPath, options);
+            System.out.println("Conversion complete! Output saved to: " + outputPath);
+        } catch (IllegalArgumentException e) {
+            System.err.println("\nInput Error: " + e.getMessage());
+            System.out.println(options.isMonochrome() ? MONO_USAGE : GRAYSCALE_USAGE);
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("\nI/O Error during PDF conversion: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println("\nAn unexpected error occurred during PDF conversion: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /*
+    Converts colors inside the document instead of rendering pages, text stays searchable and vector content stays sharp
+    Only the thread count and save mode apply to this conversion, the rendering options are ignored
+     */
+    private static void convertInPlace(String inputPath, String outputPath, ConversionOptions options) {
+        PDFConversionService conversionService = new PDFConversionService(new PDFDocumentIO());
+        System.out.println("Converting '" + inputPath + "' to grayscale in place"
+                + (options.getThreads() > 1 ? " using " + options.getThreads() + " threads" : "") + "...");
+        if (conversionService.convertToBlackAndWhite(inputPath, outputPath, options.getThreads(), options.getSaveMode())) {
+            System.out.println("Conversion complete! Output saved to: " + outputPath);
+        } else {
+            System.exit(1);
+        }
+    }
+
+    /*
+    Converts pages in place and renders only the pages in-place conversion can't handle, with the rendering options of --grayscale
+    Pages are converted one at a time, the thread count doesn't apply
+     */
+    private static void convertHybrid(String inputPath, String outputPath, ConversionOptions options) {
+        PDFConversionService conversionService = new PDFConversionService(new PDFDocumentIO());
+        System.out.println("Converting '" + inputPath + "' to grayscale in place, rendering unsupported pages with DPI " + options.getDpi() + "...");
+        if (conversionService.convertHybrid(inputPath, outputPath, options)) {
+            System.out.println("Conversion complete! Output saved to: " + outputPath);
+        } else {
+            System.exit(1);
+        }
+    }
+
+    /*
+    Predicts the cost of converting the document with each engine and writes the estimate as JSON, nothing is converted
+    The options are those the conversion would be run with
+     */
+    private static void estimate(String inputPath, String outputPath, ConversionOptions options) {
+        ConversionEstimator estimator = new ConversionEstimator(new PDFDocumentIO());
+        System.out.println("Estimating conversion cost of " + inputPath + "...");
+        try {
+            ConversionEstimate estimate = estimator.estimate(inputPath, options);
+            estimate.writeJson(outputPath);
+            estimate.print();
+            System.out.println("Estimate saved to: " + outputPath);
+        } catch (IllegalArgumentException e) {
+            System.err.println("\nInput Error: " + e.getMessage());
+            System.out.println(ESTIMATE_USAGE);
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("\nI/O Error during estimation: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    // Only the thread count applies to the inspection, the report is written to outputPath plus the extension of its format
+    private static void inspect(String inputPath, String outputPath, ConversionOptions options, ReportFormat reportFormat) {
+        PDFDocumentIO pdfDocumentIO = new PDFDocumentIO();
+        PDFInspector inspector = new PDFInspector(pdfDocumentIO);
+        System.out.println("Inspecting " + inputPath + (options.getThreads() > 1 ? " using " + options.getThreads() + " threads" : "") + "...");
+        try {
+            inspector.inspect(inputPath, outputPath, options.getThreads(), reportFormat);
+            System.out.println("Inspection complete! Report saved to: " + outputPath + reportFormat.getExtension());
+        } catch (IllegalArgumentException e) {
+            System.err.println("\nInput Error: " + e.getMessage());
+            System.out.println(INSPECTION_USAGE);
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println("\nAn unexpected error occurred during PDF inspection: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /*
+    The command among the arguments. --mono next to --estimate asks for an estimate of monochrome output, in either order,
+    any other pair of commands is an error
+     */
+    private static String findCommand(String[] args) {
+        String command = null;
+        for (int i = 2; i < args.length; i++) {
+            String arg = args[i];
+            if (!COMMANDS.contains(arg) || arg.equals(command)) {
+                continue;
             }
-            else {
-                System.err.println("Error: Unknown option '" + arg + "'");
-                System.out.println(CONVERSION_USAGE);
-                System.exit(1);
+            if (command == null || (command.equals("--mono") && arg.equals("--estimate"))) {
+                command = arg;
+            } else if (!(command.equals("--estimate") && arg.equals("--mono"))) {
+                throw new IllegalArgumentException("Only one of --grayscale, --mono, --in-place, --hybrid, --inspect or --estimate can be used at a time.");
             }
         }
+        if (command == null) {
+            throw new IllegalArgumentException("Missing command, expected --grayscale, --mono, --in-place, --hybrid, --inspect or --estimate.");
+        }
+        return command;
+    }
 
+    // Usage of a command, or of all of them when no command was found
+    private static String usageOf(String command) {
+        if (command == null) {
+            return String.join("\n", GRAYSCALE_USAGE, MONO_USAGE, IN_PLACE_USAGE, HYBRID_USAGE, INSPECTION_USAGE, ESTIMATE_USAGE);
+        }
+        return switch (command) {
+            case "--grayscale" -> GRAYSCALE_USAGE;
+            case "--mono" -> MONO_USAGE;
+            case "--in-place" -> IN_PLACE_USAGE;
+            case "--hybrid" -> HYBRID_USAGE;
+            case "--inspect" -> INSPECTION_USAGE;
+            default -> ESTIMATE_USAGE;
+        };
+    }
+
+    private static Set<String> usageOptions(String usage) {
+        Set<String> options = new HashSet<>();
+        Matcher matcher = USAGE_OPTION.matcher(usage);
+        while (matcher.find()) {
+            options.add(matcher.group(1));
+        }
+        return options;
+    }
+
+    // Returns the value following an option, rejecting the option when it's the last argument
+    private static String requireValue(String[] args, int valueIndex, String option) {
+        if (valueIndex >= args.length) {
+            throw new IllegalArgumentException(option + " option requires a value.");
+        }
+        return args[valueIndex];
+    }
+
+    private static float parseFloatValue(String[] args, int valueIndex, String option) {
+        String value = requireValue(args, valueIndex, option);
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' for " + option + ". Please provide an integer or float.");
+        }
+    }
+
+    private static int parseIntValue(String[] args, int valueIndex, String option) {
+        String value = requireValue(args, valueIndex, option);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' for " + option + ". Please provide an integer.");
+        }
+    }
 
+    // Shows the usage of the command the error belongs to, or of every command when there's none
+    private static void exitWithUsageError(String message, String command) {
+        System.err.println("Error: " + message);
+        System.out.println(usageOf(command));
+        System.exit(1);
     }
 }
@@ -0,0 +1,211 @@
+package com.aschwimm.pdfmono.service;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+CCITT Group 4 (T.6) encoder for 1 bit TYPE_BYTE_BINARY images, white is bit 1 as in the default TYPE_BYTE_BINARY palette
+Every row is coded against the row above it, which the encoder keeps between calls, so an image can be written in several
+calls to writeRows from top to bottom and still come out as one continuous G4 stream. The output matches /K -1 with the
+default /BlackIs1 false and /EncodedByteAlign false, and ends with an EOFB
+ */
+class CcittGroup4Encoder {
+
+    // Mode codes as {code, length in bits}
+    private static final int[] PASS = {0b0001, 4};
+    private static final int[] HORIZONTAL = {0b001, 3};
+    // Vertical modes indexed by a1 - b1 + 3, from VL3 to VR3
+    private static final int[][] VERTICAL = {
+            {0b0000010, 7}, {0b000010, 6}, {0b010, 3}, {0b1, 1}, {0b011, 3}, {0b000011, 6}, {0b0000011, 7}
+    };
+    private static final int END_OF_LINE = 0b000000000001;
+
+    // Terminating codes for runs of 0 to 63 pixels
+    private static final int[][] WHITE_TERMINATING = {
+            {0b00110101, 8}, {0b000111, 6}, {0b0111, 4}, {0b1000, 4}, {0b1011, 4}, {0b1100, 4}, {0b1110, 4}, {0b1111, 4},
+            {0b10011, 5}, {0b10100, 5}, {0b00111, 5}, {0b01000, 5}, {0b001000, 6}, {0b000011, 6}, {0b110100, 6}, {0b110101, 6},
+            {0b101010, 6}, {0b101011, 6}, {0b0100111, 7}, {0b0001100, 7}, {0b0001000, 7}, {0b0010111, 7}, {0b0000011, 7}, {0b0000100, 7},
+            {0b0101000, 7}, {0b0101011, 7}, {0b0010011, 7}, {0b0100100, 7}, {0b0011000, 7}, {0b00000010, 8}, {0b00000011, 8}, {0b00011010, 8},
+            {0b00011011, 8}, {0b00010010, 8}, {0b00010011, 8}, {0b00010100, 8}, {0b00010101, 8}, {0b00010110, 8}, {0b00010111, 8}, {0b00101000, 8},
+            {0b00101001, 8}, {0b00101010, 8}, {0b00101011, 8}, {0b00101100, 8}, {0b00101101, 8}, {0b00000100, 8}, {0b00000101, 8}, {0b00001010, 8},
+            {0b00001011, 8}, {0b01010010, 8}, {0b01010011, 8}, {0b01010100, 8}, {0b01010101, 8}, {0b00100100, 8}, {0b00100101, 8}, {0b01011000, 8},
+            {0b01011001, 8}, {0b01011010, 8}, {0b01011011, 8}, {0b01001010, 8}, {0b01001011, 8}, {0b00110010, 8}, {0b00110011, 8}, {0b00110100, 8}
+    };
+    private static final int[][] BLACK_TERMINATING = {
+            {0b0000110111, 10}, {0b010, 3}, {0b11, 2}, {0b10, 2}, {0b011, 3}, {0b0011, 4}, {0b0010, 4}, {0b00011, 5},
+            {0b000101, 6}, {0b000100, 6}, {0b0000100, 7}, {0b0000101, 7}, {0b0000111, 7}, {0b00000100, 8}, {0b00000111, 8}, {0b000011000, 9},
+            {0b0000010111, 10}, {0b0000011000, 10}, {0b0000001000, 10}, {0b00001100111, 11}, {0b00001101000, 11}, {0b00001101100, 11}, {0b00000110111, 11}, {0b00000101000, 11},
+            {0b00000010111, 11}, {0b00000011000, 11}, {0b000011001010, 12}, {0b000011001011, 12}, {0b000011001100, 12}, {0b000011001101, 12}, {0b000001101000, 12}, {0b000001101001, 12},
+            {0b000001101010, 12}, {0b000001101011, 12}, {0b000011010010, 12}, {0b000011010011, 12}, {0b000011010100, 12}, {0b000011010101, 12}, {0b000011010110, 12}, {0b000011010111, 12},
+            {0b000001101100, 12}, {0b000001101101, 12}, {0b000011011010, 12}, {0b000011011011, 12}, {0b000001010100, 12}, {0b000001010101, 12}, {0b000001010110, 12}, {0b000001010111, 12},
+            {0b000001100100, 12}, {0b000001100101, 12}, {0b000001010010, 12}, {0b000001010011, 12}, {0b000000100100, 12}, {0b000000110111, 12}, {0b000000111000, 12}, {0b000000100111, 12},
+            {0b000000101000, 12}, {0b000001011000, 12}, {0b000001011001, 12}, {0b000000101011, 12}, {0b000000101100, 12}, {0b000001011010, 12}, {0b000001100110, 12}, {0b000001100111, 12}
+    };
+    // Make-up codes for runs of 64 to 1728 pixels in steps of 64, index run / 64 - 1
+    private static final int[][] WHITE_MAKE_UP = {
+            {0b11011, 5}, {0b10010, 5}, {0b010111, 6}, {0b0110111, 7}, {0b00110110, 8}, {0b00110111, 8}, {0b01100100, 8}, {0b01100101, 8},
+            {0b01101000, 8}, {0b01100111, 8}, {0b011001100, 9}, {0b011001101, 9}, {0b011010010, 9}, {0b011010011, 9}, {0b011010100, 9}, {0b011010101, 9},
+            {0b011010110, 9}, {0b011010111, 9}, {0b011011000, 9}, {0b011011001, 9}, {0b011011010, 9}, {0b011011011, 9}, {0b010011000, 9}, {0b010011001, 9},
+            {0b010011010, 9}, {0b011000, 6}, {0b010011011, 9}
+    };
+    private static final int[][] BLACK_MAKE_UP = {
+            {0b0000001111, 10}, {0b000011001000, 12}, {0b000011001001, 12}, {0b000001011011, 12}, {0b000000110011, 12}, {0b000000110100, 12}, {0b000000110101, 12}, {0b0000001101100, 13},
+            {0b0000001101101, 13}, {0b0000001001010, 13}, {0b0000001001011, 13}, {0b0000001001100, 13}, {0b0000001001101, 13}, {0b0000001110010, 13}, {0b0000001110011, 13}, {0b0000001110100, 13},
+            {0b0000001110101, 13}, {0b0000001110110, 13}, {0b0000001110111, 13}, {0b0000001010010, 13}, {0b0000001010011, 13}, {0b0000001010100, 13}, {0b0000001010101, 13}, {0b0000001011010, 13},
+            {0b0000001011011, 13}, {0b0000001100100, 13}, {0b0000001100101, 13}
+    };
+    // Make-up codes shared by both colors for runs of 1792 to 2560 pixels, index run / 64 - 28
+    private static final int[][] EXTENDED_MAKE_UP = {
+            {0b00000001000, 11}, {0b00000001100, 11}, {0b00000001101, 11}, {0b000000010010, 12}, {0b000000010011, 12}, {0b000000010100, 12}, {0b000000010101, 12},
+            {0b000000010110, 12}, {0b000000010111, 12}, {0b000000011100, 12}, {0b000000011101, 12}, {0b000000011110, 12}, {0b000000011111, 12}
+    };
+    private static final int LONGEST_MAKE_UP = 2560;
+
+    private final int width;
+    private final OutputStream out;
+    // Changing elements of the reference and coding line, positions where the color differs from the pixel to the left,
+    // starting from an imaginary white pixel before the row. Both end with width twice so b1, b2 and a2 never run off the end
+    private int[] referenceChanges;
+    private int[] codingChanges;
+    private int bitBuffer;
+    private int bitCount;
+
+    CcittGroup4Encoder(int width, OutputStream out) {
+        if (width < 1) {
+            throw new IllegalArgumentException("Image width must be at least 1 pixel.");
+        }
+        this.width = width;
+        this.out = out;
+        // The line above the first row is an imaginary all white line
+        this.referenceChanges = new int[width + 2];
+        this.codingChanges = new int[width + 2];
+        referenceChanges[0] = width;
+        referenceChanges[1] = width;
+    }
+
+    /*
+    Codes every row of image below the rows written so far, image must be a 1 bit TYPE_BYTE_BINARY image as wide as the encoder
+     */
+    void writeRows(BufferedImage image) throws IOException {
+        if (image.getType() != BufferedImage.TYPE_BYTE_BINARY || image.getColorModel().getPixelSize() != 1 || image.getWidth() != width) {
+            throw new IllegalArgumentException("CCITT Group 4 images must be 1 bit TYPE_BYTE_BINARY and " + width + " pixels wide.");
+        }
+        byte[] bits = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = ((MultiPixelPackedSampleModel) image.getRaster().getSampleModel()).getScanlineStride();
+        for (int y = 0; y < image.getHeight(); y++) {
+            findChanges(bits, y * stride);
+            codeLine();
+            int[] swap = referenceChanges;
+            referenceChanges = codingChanges;
+            codingChanges = swap;
+        }
+    }
+
+    /*
+    Writes the end of facsimile block and pads the last byte, the caller closes the stream underneath
+     */
+    void finish() throws IOException {
+        writeBits(END_OF_LINE, 12);
+        writeBits(END_OF_LINE, 12);
+        if (bitCount > 0) {
+            out.write(bitBuffer << (8 - bitCount));
+            bitBuffer = 0;
+            bitCount = 0;
+        }
+    }
+
+    // Fills codingChanges from one packed row, bytes that are all the current color are skipped whole
+    private void findChanges(byte[] bits, int rowStart) {
+        int count = 0;
+        int white = 1;
+        int x = 0;
+        while (x < width) {
+            if ((x & 7) == 0 && x + 8 <= width) {
+                int packed = bits[rowStart + (x >> 3)] & 0xFF;
+                if (packed == (white == 1 ? 0xFF : 0x00)) {
+                    x += 8;
+                    continue;
+                }
+            }
+            int bit = (bits[rowStart + (x >> 3)] >> (7 - (x & 7))) & 1;
+            if (bit != white) {
+                codingChanges[count++] = x;
+                white = bit;
+            }
+            x++;
+        }
+        codingChanges[count] = width;
+        codingChanges[count + 1] = width;
+    }
+
+    /*
+    Two-dimensional coding of one line against the reference line, T.6 section 2.2
+    Even entries of a changes array switch to black and odd entries back to white
+     */
+    private void codeLine() throws IOException {
+        int a0 = -1;
+        boolean a0White = true;
+        int codingIndex = 0;
+        int referenceIndex = 0;
+        while (a0 < width) {
+            while (codingChanges[codingIndex] <= a0 && codingChanges[codingIndex] < width) {
+                codingIndex++;
+            }
+            int a1 = codingChanges[codingIndex];
+            // b1 is the first change to the right of a0 that switches to the color opposite a0, so it sits at an even index when a0 is white
+            while (referenceChanges[referenceIndex] <= a0 && referenceChanges[referenceIndex] < width) {
+                referenceIndex++;
+            }
+            int b1Index = referenceIndex;
+            if (((b1Index & 1) == 0) != a0White && referenceChanges[b1Index] < width) {
+                b1Index++;
+            }
+            int b1 = referenceChanges[b1Index];
+            int b2 = b1 < width ? referenceChanges[b1Index + 1] : width;
+            if (b2 < a1) {
+                writeCode(PASS);
+                a0 = b2;
+            } else if (Math.abs(a1 - b1) <= 3) {
+                writeCode(VERTICAL[a1 - b1 + 3]);
+                a0 = a1;
+                a0White = !a0White;
+            } else {
+                int a2 = a1 < width ? codingChanges[codingIndex + 1] : width;
+                writeCode(HORIZONTAL);
+                writeRun(a1 - Math.max(a0, 0), a0White);
+                writeRun(a2 - a1, !a0White);
+                a0 = a2;
+            }
+        }
+    }
+
+    private void writeRun(int run, boolean white) throws IOException {
+        while (run >= LONGEST_MAKE_UP) {
+            writeCode(EXTENDED_MAKE_UP[EXTENDED_MAKE_UP.length - 1]);
+            run -= LONGEST_MAKE_UP;
+        }
+        if (run >= 64) {
+            int makeUp = run / 64;
+            writeCode(makeUp >= 28 ? EXTENDED_MAKE_UP[makeUp - 28] : (white ? WHITE_MAKE_UP : BLACK_MAKE_UP)[makeUp - 1]);
+            run -= makeUp * 64;
+        }
+        writeCode((white ? WHITE_TERMINATING : BLACK_TERMINATING)[run]);
+    }
+
+    private void writeCode(int[] code) throws IOException {
+        writeBits(code[0], code[1]);
+    }
+
+    private void writeBits(int code, int length) throws IOException {
+        bitBuffer = (bitBuffer << length) | code;
+        bitCount += length;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            out.write(bitBuffer >>> bitCount);
+            bitBuffer &= (1 << bitCount) - 1;
+        }
+    }
+}
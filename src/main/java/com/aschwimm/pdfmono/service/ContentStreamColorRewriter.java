@@ -0,0 +1,131 @@
+package com.aschwimm.pdfmono.service;
+
+import com.aschwimm.pdfmono.util.ColorConverter;
+import com.aschwimm.pdfmono.util.GrayColorCache;
+import org.apache.pdfbox.contentstream.PDContentStream;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdfwriter.ContentStreamWriter;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/*
+Rewrites the RGB and CMYK color operators of a content stream as gray operators in a single streaming pass
+Tokens are pulled from the parser one at a time and only the operands of the current operator are held, each operator is written to the output
+as soon as it's read, so memory depends on the longest operand list rather than the size of the page
+CMYK colors are looked up in a GrayColorCache, which can be shared with the rest of the document's conversion
+ */
+public class ContentStreamColorRewriter {
+    // No operator takes more than a handful of operands, older operands in a longer run can't belong to a color operator and are written out right away
+    private static final int MAX_OPERANDS = 32;
+
+    private final GrayColorCache colorCache;
+
+    public ContentStreamColorRewriter() {
+        this(new GrayColorCache());
+    }
+
+    public ContentStreamColorRewriter(GrayColorCache colorCache) {
+        this.colorCache = colorCache;
+    }
+
+    /*
+    Rewrites the content of a page, form or pattern into out, returns the number of color operators that were replaced
+     */
+    public int rewrite(PDContentStream contentStream, OutputStream out) throws IOException {
+        return rewrite(new PDFStreamParser(contentStream), out);
+    }
+
+    // Same as above for content that has already been read into memory
+    public int rewrite(byte[] content, OutputStream out) throws IOException {
+        return rewrite(new PDFStreamParser(content), out);
+    }
+
+    private int rewrite(PDFStreamParser parser, OutputStream out) throws IOException {
+        ContentStreamWriter writer = new ContentStreamWriter(out);
+        Deque<COSBase> operands = new ArrayDeque<>();
+        int rewritten = 0;
+        Object token;
+        while ((token = parser.parseNextToken()) != null) {
+            if (!(token instanceof Operator operator)) {
+                if (operands.size() == MAX_OPERANDS) {
+                    writer.writeToken(operands.removeFirst());
+                }
+                operands.addLast((COSBase) token);
+                continue;
+            }
+            if (rewriteColorOperator(operator, operands, writer)) {
+                rewritten++;
+            } else {
+                for (COSBase operand : operands) {
+                    writer.writeToken(operand);
+                }
+                writer.writeToken(operator);
+            }
+            operands.clear();
+        }
+        // Operands left without an operator at the end of the stream are kept as they were
+        for (COSBase operand : operands) {
+            writer.writeToken(operand);
+        }
+        return rewritten;
+    }
+
+    /*
+    Writes the gray equivalent of an rg/RG or k/K operator, returns false without writing anything for every other operator
+    and for color operators whose operands aren't plain numbers
+     */
+    private boolean rewriteColorOperator(Operator operator, Deque<COSBase> operands, ContentStreamWriter writer) throws IOException {
+        String name = operator.getName();
+        float gray;
+        switch (name) {
+            case "rg", "RG" -> {
+                float[] rgb = lastNumbers(operands, 3);
+                if (rgb == null) {
+                    return false;
+                }
+                gray = ColorConverter.rgbToGray(rgb);
+            }
+            case "k", "K" -> {
+                float[] cmyk = lastNumbers(operands, 4);
+                if (cmyk == null) {
+                    return false;
+                }
+                // Colors very close to white are left as CMYK, the profile based conversion would otherwise turn them a light gray
+                if (cmyk[0] <= 0.001f && cmyk[1] <= 0.001f && cmyk[2] <= 0.001f && cmyk[3] <= 0.001f) {
+                    return false;
+                }
+                gray = colorCache.toGray(PDDeviceCMYK.INSTANCE, cmyk);
+            }
+            default -> {
+                return false;
+            }
+        }
+        boolean stroking = Character.isUpperCase(name.charAt(0));
+        writer.writeTokens(new COSFloat(gray), Operator.getOperator(stroking ? "G" : "g"));
+        return true;
+    }
+
+    // Values of the operands when there are exactly count of them and all are numbers, otherwise null
+    private static float[] lastNumbers(Deque<COSBase> operands, int count) {
+        if (operands.size() != count) {
+            return null;
+        }
+        float[] values = new float[count];
+        int i = 0;
+        for (COSBase operand : operands) {
+            if (!(operand instanceof COSNumber number)) {
+                return null;
+            }
+            values[i++] = number.floatValue();
+        }
+        return values;
+    }
+}
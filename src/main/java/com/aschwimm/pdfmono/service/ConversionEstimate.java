@@ -0,0 +1,231 @@
+package com.aschwimm.pdfmono.service;
+
+import com.aschwimm.pdfmono.util.JsonWriter;
+import com.aschwimm.pdfmono.util.PageFeatures;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.TreeSet;
+
+/*
+What ConversionEstimator predicts for one document, for every page and in total for each engine
+Totals add what the page costs leave out: the baseline heap of the JVM and PDFBox, the loaded input document (one copy per raster worker)
+and the thread count of the options. The raster engine skips pages the pre-scan finds gray and the hybrid engine only renders pages with
+a raster reason. The in-place engine leaves those pages partly in color, which unsupportedPages counts
+ */
+public class ConversionEstimate {
+    // Heap in use before any document is loaded, and heap taken by a loaded document per byte of its file
+    private static final long BASE_MEMORY_BYTES = 64L << 20;
+    private static final double DOCUMENT_MEMORY_PER_FILE_BYTE = 1.5;
+
+    // Time, peak heap and bytes written for a page or a whole document
+    public record Cost(double millis, long peakMemoryBytes, long outputBytes) {
+    }
+
+    // rasterReason is what keeps the page from being converted in place, null when in-place conversion handles all of it
+    public record PageEstimate(PageFeatures features, boolean alreadyGray, String rasterReason, Cost raster, Cost inPlace) {
+        public PageEngine hybridEngine() {
+            return rasterReason == null ? PageEngine.IN_PLACE : PageEngine.RASTER;
+        }
+    }
+
+    private final String source;
+    private final long inputBytes;
+    private final ConversionOptions options;
+    private final List<PageEstimate> pages;
+    private final Cost raster;
+    private final Cost inPlace;
+    private final Cost hybrid;
+    private final int renderedPages;
+    private final int unsupportedPages;
+
+    ConversionEstimate(String source, long inputBytes, ConversionOptions options, List<PageEstimate> pages) {
+        this.source = source;
+        this.inputBytes = inputBytes;
+        this.options = options;
+        this.pages = List.copyOf(pages);
+        this.renderedPages = (int) this.pages.stream().filter(page -> !page.alreadyGray()).count();
+        this.unsupportedPages = (int) this.pages.stream().filter(page -> page.hybridEngine() == PageEngine.RASTER).count();
+        // The totals only read the pages and the counts above, their order doesn't matter
+        this.raster = rasterTotal();
+        this.inPlace = inPlaceTotal();
+        this.hybrid = hybridTotal();
+    }
+
+    public List<PageEstimate> getPages() {
+        return pages;
+    }
+
+    public Cost getRaster() {
+        return raster;
+    }
+
+    public Cost getInPlace() {
+        return inPlace;
+    }
+
+    public Cost getHybrid() {
+        return hybrid;
+    }
+
+    // Pages the raster engine renders, the others are already gray and copied as they are
+    public int getRenderedPages() {
+        return renderedPages;
+    }
+
+    // Pages the in-place engine can't turn fully gray, the hybrid engine renders them
+    public int getUnsupportedPages() {
+        return unsupportedPages;
+    }
+
+    /*
+    The fastest engine whose output is fully gray, in-place conversion only qualifies when it handles every page
+     */
+    public String getRecommendedEngine() {
+        if (unsupportedPages == 0 && inPlace.millis() <= raster.millis()) {
+            return "in-place";
+        }
+        return hybrid.millis() <= raster.millis() ? "hybrid" : "raster";
+    }
+
+    /*
+    Rendered pages run on the worker pool, each worker holds its own copy of the document, its page and up to maxPagesInFlight encoded pages
+    wait to be appended. Gray pages are copied, they're estimated at their share of the input file
+     */
+    private Cost rasterTotal() {
+        double millis = 0;
+        long maxPagePeak = 0;
+        long maxOutput = 0;
+        long outputBytes = 0;
+        for (PageEstimate page : pages) {
+            if (page.alreadyGray()) {
+                outputBytes += inputBytes / pages.size();
+                continue;
+            }
+            millis += page.raster().millis();
+            maxPagePeak = Math.max(maxPagePeak, page.raster().peakMemoryBytes());
+            maxOutput = Math.max(maxOutput, page.raster().outputBytes());
+            outputBytes += page.raster().outputBytes();
+        }
+        int workers = Math.max(1, Math.min(options.getThreads(), renderedPages));
+        long documentCopies = workers > 1 ? workers + 1 : 1;
+        long peakMemory = BASE_MEMORY_BYTES + documentCopies * documentMemory() + workers * maxPagePeak
+                + (workers > 1 ? options.getMaxPagesInFlight() * maxOutput : 0);
+        return new Cost(millis / workers, peakMemory, outputBytes);
+    }
+
+    /*
+    Page content is rewritten on the worker pool, everything else happens on one thread against the single loaded document
+    The output keeps the input file, an incremental save appends what the pages write to it
+     */
+    private Cost inPlaceTotal() {
+        double millis = 0;
+        long maxPagePeak = 0;
+        long writtenBytes = 0;
+        for (PageEstimate page : pages) {
+            millis += page.inPlace().millis();
+            maxPagePeak = Math.max(maxPagePeak, page.inPlace().peakMemoryBytes());
+            writtenBytes += page.inPlace().outputBytes();
+        }
+        int workers = Math.max(1, Math.min(options.getThreads(), pages.size()));
+        long outputBytes = inputBytes + (options.getSaveMode() == SaveMode.INCREMENTAL ? writtenBytes : 0);
+        return new Cost(millis / workers, BASE_MEMORY_BYTES + documentMemory() + maxPagePeak, outputBytes);
+    }
+
+    // One page at a time in the same document, rendered pages add their images to the kept file
+    private Cost hybridTotal() {
+        double millis = 0;
+        long maxPagePeak = 0;
+        long outputBytes = inputBytes;
+        for (PageEstimate page : pages) {
+            Cost cost = page.hybridEngine() == PageEngine.RASTER ? page.raster() : page.inPlace();
+            millis += cost.millis();
+            maxPagePeak = Math.max(maxPagePeak, cost.peakMemoryBytes());
+            if (page.hybridEngine() == PageEngine.RASTER || options.getSaveMode() == SaveMode.INCREMENTAL) {
+                outputBytes += cost.outputBytes();
+            }
+        }
+        return new Cost(millis, BASE_MEMORY_BYTES + documentMemory() + maxPagePeak, outputBytes);
+    }
+
+    private long documentMemory() {
+        return Math.round(inputBytes * DOCUMENT_MEMORY_PER_FILE_BYTE);
+    }
+
+    public void print() {
+        System.out.println("Estimate for " + pages.size() + " pages (" + inputBytes + " bytes):");
+        printCost("Raster at " + options.getDpi() + " DPI", raster, renderedPages + " pages rendered");
+        printCost("In place", inPlace, unsupportedPages + " pages left partly in color");
+        printCost("Hybrid", hybrid, unsupportedPages + " pages rendered");
+        System.out.println("Recommended engine: " + getRecommendedEngine());
+    }
+
+    private static void printCost(String engine, Cost cost, String note) {
+        System.out.println("  " + engine + ": " + Math.round(cost.millis()) + " ms, " + (cost.peakMemoryBytes() >> 20) + " MB peak heap, "
+                + cost.outputBytes() + " bytes output, " + note + ".");
+    }
+
+    public void writeJson(String outputPath) throws IOException {
+        try (JsonWriter json = new JsonWriter(Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8))) {
+            json.beginObject()
+                    .name("source").value(source)
+                    .name("inputBytes").value(inputBytes)
+                    .name("pages").value(pages.size());
+            json.name("options").beginObject()
+                    .name("dpi").value(options.getDpi())
+                    .name("codec").value(options.isMonochrome() ? "ccitt" : options.getCodec().name().toLowerCase())
+                    .name("jpegQuality").value(options.getJpegQuality())
+                    .name("threads").value(options.getThreads())
+                    .name("bandHeight").value(options.getBandHeight())
+                    .name("saveMode").value(options.getSaveMode().name().toLowerCase())
+                    .endObject();
+
+            json.name("engines").beginObject();
+            writeCost(json.name("raster"), raster).name("renderedPages").value(renderedPages).endObject();
+            writeCost(json.name("inPlace"), inPlace).name("unsupportedPages").value(unsupportedPages).endObject();
+            writeCost(json.name("hybrid"), hybrid).name("renderedPages").value(unsupportedPages).endObject();
+            json.endObject();
+            json.name("recommendedEngine").value(getRecommendedEngine());
+
+            json.name("perPage").beginArray();
+            for (PageEstimate page : pages) {
+                PageFeatures features = page.features();
+                json.beginObject()
+                        .name("page").value(features.pageIndex() + 1)
+                        .name("width").value(features.width())
+                        .name("height").value(features.height())
+                        .name("operators").value(features.operators())
+                        .name("pathOperators").value(features.pathOperators())
+                        .name("paths").value(features.paths())
+                        .name("colorOperators").value(features.colorOperators())
+                        .name("images").value(features.images())
+                        .name("imagePixels").value(features.imagePixels())
+                        .name("colorImagePixels").value(features.colorImagePixels());
+                json.name("colorSpaces").beginArray();
+                for (String colorSpace : new TreeSet<>(features.colorSpaces())) {
+                    json.value(colorSpace);
+                }
+                json.endArray()
+                        .name("alreadyGray").value(page.alreadyGray())
+                        .name("hybridEngine").value(page.hybridEngine() == PageEngine.RASTER ? "raster" : "in-place")
+                        .name("rasterReason").value(page.rasterReason());
+                writeCost(json.name("raster"), page.raster()).endObject();
+                writeCost(json.name("inPlace"), page.inPlace()).endObject();
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        }
+    }
+
+    // Leaves the object open so callers can add their own members
+    private static JsonWriter writeCost(JsonWriter json, Cost cost) throws IOException {
+        return json.beginObject()
+                .name("millis").value(Math.round(cost.millis() * 1000) / 1000.0)
+                .name("peakMemoryBytes").value(cost.peakMemoryBytes())
+                .name("outputBytes").value(cost.outputBytes());
+    }
+}
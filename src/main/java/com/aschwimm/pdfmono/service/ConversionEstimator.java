@@ -0,0 +1,133 @@
+package com.aschwimm.pdfmono.service;
+
+import com.aschwimm.pdfmono.util.PDFDocumentIO;
+import com.aschwimm.pdfmono.util.PDFInspector;
+import com.aschwimm.pdfmono.util.PageFeatures;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Predicts the time, peak memory and output size of converting a document with the raster engine at the options' DPI and codec, in place,
+and with the hybrid conversion, without converting anything
+Costs come from the page features PDFInspector measures in its single content parse and resource walk, run through a linear model
+whose coefficients are below. They are starting values sized for a current desktop core, recalibrate them against --stats output of
+representative jobs on the hardware the jobs run on
+ */
+public class ConversionEstimator {
+    // Raster engine: filling the page raster, interpreting operators, rasterizing paths and decoding the images drawn
+    private static final double RENDER_NANOS_PER_PIXEL = 12;
+    private static final double RENDER_NANOS_PER_OPERATOR = 400;
+    private static final double RENDER_NANOS_PER_PATH = 4_000;
+    private static final double DECODE_NANOS_PER_IMAGE_PIXEL = 15;
+    // Encoding a page pixel, and the encoded size of one, JPEG output grows with its quality
+    private static final double JPEG_NANOS_PER_PIXEL = 10;
+    private static final double FLATE_NANOS_PER_PIXEL = 25;
+    private static final double CCITT_NANOS_PER_PIXEL = 10;
+    private static final double JPEG_BYTES_PER_PIXEL_BASE = 0.03;
+    private static final double JPEG_BYTES_PER_PIXEL_PER_QUALITY = 0.15;
+    private static final double FLATE_BYTES_PER_PIXEL = 0.35;
+    private static final double CCITT_BYTES_PER_PIXEL = 0.02;
+    // Decoded images are held as 4 byte ARGB while the page renders
+    private static final int DECODED_BYTES_PER_IMAGE_PIXEL = 4;
+    // In-place engine: rewriting an operator, converting a color image pixel, and the sizes of what it writes
+    private static final double REWRITE_NANOS_PER_OPERATOR = 250;
+    private static final double IMAGE_CONVERT_NANOS_PER_PIXEL = 20;
+    private static final int CONTENT_BYTES_PER_OPERATOR = 24;
+    private static final double FLATE_CONTENT_RATIO = 0.25;
+    private static final double GRAY_IMAGE_BYTES_PER_PIXEL = 0.35;
+    // Raw samples, the gray target and the encode buffer of an image converted in place
+    private static final int CONVERTED_BYTES_PER_IMAGE_PIXEL = 6;
+
+    private final PDFDocumentIO pdfDocumentIO;
+
+    // Constructor injection of document loader dependency
+    public ConversionEstimator(PDFDocumentIO pdfDocumentIO) {
+        this.pdfDocumentIO = pdfDocumentIO;
+    }
+
+    /*
+    Measures every page in one pass over the document. The inspector's parse of a page's content also takes the gray pre-scan the raster engine
+    uses when gray pages are passed through, and feeds InPlaceSupportScanner, which decides the engine the hybrid conversion would pick
+     */
+    public ConversionEstimate estimate(String inputPath, ConversionOptions options) throws IOException {
+        Path input = Paths.get(inputPath);
+        if (!Files.isRegularFile(input)) {
+            throw new IllegalArgumentException("Input file not found: " + inputPath);
+        }
+        InPlaceSupportScanner scanner = new InPlaceSupportScanner();
+        // Filled on the inspector's workers, every page's scan is done by the time measurePages returns
+        Map<Integer, InPlaceSupportScanner.PageScan> scans = new ConcurrentHashMap<>();
+        List<PageFeatures> features = new PDFInspector(pdfDocumentIO).measurePages(inputPath, options.getThreads(), (page, pageIndex) -> {
+            InPlaceSupportScanner.PageScan scan = scanner.scanPage(page);
+            scans.put(pageIndex, scan);
+            return scan;
+        });
+        List<ConversionEstimate.PageEstimate> pages = new ArrayList<>(features.size());
+        for (PageFeatures page : features) {
+            String rasterReason = scans.get(page.pageIndex()).getReason();
+            boolean alreadyGray = options.isPassThroughGrayPages() && page.gray();
+            pages.add(new ConversionEstimate.PageEstimate(page, alreadyGray, rasterReason, rasterCost(page, options), inPlaceCost(page)));
+        }
+        return new ConversionEstimate(inputPath, Files.size(input), options, pages);
+    }
+
+    /*
+    Rendering time grows with the page's pixels at the chosen DPI and with its content, memory is the page raster, or one band of it,
+    plus the encoded page and the images it decodes
+     */
+    private static ConversionEstimate.Cost rasterCost(PageFeatures page, ConversionOptions options) {
+        double scale = options.getDpi() / 72.0;
+        long widthPx = Math.max((long) Math.floor(page.width() * scale), 1);
+        long heightPx = Math.max((long) Math.floor(page.height() * scale), 1);
+        long pixels = widthPx * heightPx;
+        long bandRows = options.getBandHeight() > 0 ? Math.min(options.getBandHeight(), heightPx) : heightPx;
+        // RGB rasters take 4 bytes a pixel plus 1 for the gray target, --no-gamma renders gray directly
+        int rasterBytesPerPixel = options.isGammaCorrection() ? 5 : 1;
+        double nanos = pixels * (RENDER_NANOS_PER_PIXEL + encodeNanosPerPixel(options))
+                + page.operators() * RENDER_NANOS_PER_OPERATOR
+                + page.paths() * RENDER_NANOS_PER_PATH
+                + page.imagePixels() * DECODE_NANOS_PER_IMAGE_PIXEL;
+        long outputBytes = Math.round(pixels * encodedBytesPerPixel(options));
+        long peakMemory = widthPx * bandRows * rasterBytesPerPixel + outputBytes + page.imagePixels() * DECODED_BYTES_PER_IMAGE_PIXEL;
+        // JPEG can't be written band by band, a tiled page is gathered in one gray raster before it's encoded
+        if (bandRows < heightPx && !options.isMonochrome() && options.getCodec() == PageImageCodec.JPEG) {
+            peakMemory += pixels;
+        }
+        return new ConversionEstimate.Cost(nanos / 1e6, peakMemory, outputBytes);
+    }
+
+    /*
+    The in-place conversion pays per operator and per pixel of the color images it converts, output is the bytes it writes for the page,
+    everything else of the page is kept as it is
+     */
+    private static ConversionEstimate.Cost inPlaceCost(PageFeatures page) {
+        double nanos = page.operators() * REWRITE_NANOS_PER_OPERATOR + page.colorImagePixels() * IMAGE_CONVERT_NANOS_PER_PIXEL;
+        long contentBytes = (long) page.operators() * CONTENT_BYTES_PER_OPERATOR;
+        long peakMemory = 2 * contentBytes + page.colorImagePixels() * CONVERTED_BYTES_PER_IMAGE_PIXEL;
+        long outputBytes = Math.round(contentBytes * FLATE_CONTENT_RATIO + page.colorImagePixels() * GRAY_IMAGE_BYTES_PER_PIXEL);
+        return new ConversionEstimate.Cost(nanos / 1e6, peakMemory, outputBytes);
+    }
+
+    private static double encodeNanosPerPixel(ConversionOptions options) {
+        if (options.isMonochrome()) {
+            return CCITT_NANOS_PER_PIXEL;
+        }
+        return options.getCodec() == PageImageCodec.JPEG ? JPEG_NANOS_PER_PIXEL : FLATE_NANOS_PER_PIXEL;
+    }
+
+    private static double encodedBytesPerPixel(ConversionOptions options) {
+        if (options.isMonochrome()) {
+            return CCITT_BYTES_PER_PIXEL;
+        }
+        return options.getCodec() == PageImageCodec.JPEG
+                ? JPEG_BYTES_PER_PIXEL_BASE + JPEG_BYTES_PER_PIXEL_PER_QUALITY * options.getJpegQuality()
+                : FLATE_BYTES_PER_PIXEL;
+    }
+}
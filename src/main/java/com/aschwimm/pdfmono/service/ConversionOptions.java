@@ -0,0 +1,156 @@
+package com.aschwimm.pdfmono.service;
+
+import com.aschwimm.pdfmono.util.BilevelConverter;
+import com.aschwimm.pdfmono.util.BinarizationMethod;
+import com.aschwimm.pdfmono.util.LuminanceModel;
+
+/*
+Settings for a page-to-image grayscale conversion, populated from command line arguments in PDFMono
+and passed to PDFPageToImageToGrayscale so new options don't keep growing the method signatures
+ */
+public class ConversionOptions {
+    // Default DPI used when the --dpi arg isn't provided
+    public static final float DEFAULT_DPI = 150.0f;
+
+    private float dpi = DEFAULT_DPI;
+    // Number of render workers, 1 keeps the original sequential behavior
+    private int threads = 1;
+    // Upper bound on pages rendered but not yet appended to the output document, 0 picks a default based on thread count
+    private int maxPagesInFlight = 0;
+    // Gamma corrected conversion of an RGB render, when disabled pages are rendered directly as gray images
+    private boolean gammaCorrection = true;
+    // Weights used to turn rendered RGB into luminance
+    private LuminanceModel luminanceModel = LuminanceModel.REC_601;
+    // Compression of the page images, quality only applies to JPEG and matches ImageIO's default
+    private PageImageCodec codec = PageImageCodec.JPEG;
+    private float jpegQuality = 0.75f;
+    // 1 bit output compressed with CCITT Group 4 instead of 8 bit gray, the codec setting is ignored in this mode
+    private boolean monochrome = false;
+    private BinarizationMethod binarizationMethod = BinarizationMethod.THRESHOLD;
+    private int threshold = BilevelConverter.DEFAULT_THRESHOLD;
+    // Keeps heap use flat on very large documents by caching document streams in scratch files, peak heap is reported at the end
+    private boolean streaming = false;
+    // Pages that are already grayscale are copied into the output as they are, keeping their vector content and text
+    private boolean passThroughGrayPages = true;
+    // Rows rendered at a time in tiled mode, the bands are encoded one after another into a single page image, 0 renders whole pages
+    private int bandHeight = 0;
+    // Path of the JSON timing summary, null when statistics aren't requested
+    private String statsFile = null;
+    // How the in-place conversion writes its output, the page-to-image conversion always writes a new compressed document
+    private SaveMode saveMode = SaveMode.COMPRESSED;
+
+    public float getDpi() {
+        return dpi;
+    }
+    public void setDpi(float dpi) {
+        if (dpi <= 0) {
+            throw new IllegalArgumentException("DPI value must be a positive number.");
+        }
+        this.dpi = dpi;
+    }
+    public int getThreads() {
+        return threads;
+    }
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1.");
+        }
+        this.threads = threads;
+    }
+    /*
+    Two pages per worker keeps every worker busy while the page order is restored, without holding more than a few rasters at once
+     */
+    public int getMaxPagesInFlight() {
+        return maxPagesInFlight > 0 ? maxPagesInFlight : threads * 2;
+    }
+    public void setMaxPagesInFlight(int maxPagesInFlight) {
+        if (maxPagesInFlight < 1) {
+            throw new IllegalArgumentException("Maximum pages in flight must be at least 1.");
+        }
+        this.maxPagesInFlight = maxPagesInFlight;
+    }
+    public boolean isGammaCorrection() {
+        return gammaCorrection;
+    }
+    public void setGammaCorrection(boolean gammaCorrection) {
+        this.gammaCorrection = gammaCorrection;
+    }
+    public LuminanceModel getLuminanceModel() {
+        return luminanceModel;
+    }
+    public void setLuminanceModel(LuminanceModel luminanceModel) {
+        this.luminanceModel = luminanceModel;
+    }
+    public PageImageCodec getCodec() {
+        return codec;
+    }
+    public void setCodec(PageImageCodec codec) {
+        this.codec = codec;
+    }
+    public float getJpegQuality() {
+        return jpegQuality;
+    }
+    public void setJpegQuality(float jpegQuality) {
+        if (jpegQuality < 0f || jpegQuality > 1f) {
+            throw new IllegalArgumentException("JPEG quality must be between 0 and 1.");
+        }
+        this.jpegQuality = jpegQuality;
+    }
+    public boolean isMonochrome() {
+        return monochrome;
+    }
+    public void setMonochrome(boolean monochrome) {
+        this.monochrome = monochrome;
+    }
+    public BinarizationMethod getBinarizationMethod() {
+        return binarizationMethod;
+    }
+    public void setBinarizationMethod(BinarizationMethod binarizationMethod) {
+        this.binarizationMethod = binarizationMethod;
+    }
+    public int getThreshold() {
+        return threshold;
+    }
+    public void setThreshold(int threshold) {
+        if (threshold < 0 || threshold > 255) {
+            throw new IllegalArgumentException("Threshold must be between 0 and 255.");
+        }
+        this.threshold = threshold;
+    }
+    public boolean isStreaming() {
+        return streaming;
+    }
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+    public boolean isPassThroughGrayPages() {
+        return passThroughGrayPages;
+    }
+    public void setPassThroughGrayPages(boolean passThroughGrayPages) {
+        this.passThroughGrayPages = passThroughGrayPages;
+    }
+    public int getBandHeight() {
+        return bandHeight;
+    }
+    public void setBandHeight(int bandHeight) {
+        if (bandHeight < 1) {
+            throw new IllegalArgumentException("Band height must be at least 1 pixel.");
+        }
+        this.bandHeight = bandHeight;
+    }
+    public String getStatsFile() {
+        return statsFile;
+    }
+    public void setStatsFile(String statsFile) {
+        this.statsFile = statsFile;
+    }
+    public SaveMode getSaveMode() {
+        return saveMode;
+    }
+    public void setSaveMode(SaveMode saveMode) {
+        if (saveMode == null) {
+            throw new IllegalArgumentException("Save mode must not be null.");
+        }
+        this.saveMode = saveMode;
+    }
+}
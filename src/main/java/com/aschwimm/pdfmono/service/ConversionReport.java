@@ -0,0 +1,160 @@
+package com.aschwimm.pdfmono.service;
+
+import com.aschwimm.pdfmono.util.GrayColorCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+Counters collected by PDFConversionService while converting a document in place, printed once the document is saved
+ */
+public class ConversionReport {
+    // Image XObjects found in page and form resources that had already been converted, and those converted for the first time
+    private int imageCacheHits;
+    private int imageCacheMisses;
+    // Pages whose content stream was rewritten, pages left with their original stream, and color operators replaced in page content
+    private int pagesRewritten;
+    private int pagesUnchanged;
+    private long colorOperatorsRewritten;
+    // Form, tiling pattern and annotation appearance streams rewritten, and those without a color operator left as they were
+    private int nestedStreamsRewritten;
+    private int nestedStreamsUnchanged;
+    // Separation and DeviceN color spaces pointed at DeviceGray
+    private int separationColorSpaces;
+    private int deviceNColorSpaces;
+    // Engine of every page in the hybrid mode, in page order, and what made each rendered page fall back, by page index
+    private final List<PageEngine> pageEngines = new ArrayList<>();
+    private final Map<Integer, String> rasterReasons = new TreeMap<>();
+    // How the output was written and how long that took
+    private SaveMode saveMode;
+    private long saveMillis;
+    // Colors converted through the document's color cache
+    private final GrayColorCache colorCache;
+
+    ConversionReport(GrayColorCache colorCache) {
+        this.colorCache = colorCache;
+    }
+
+    void recordImageCacheHit() {
+        imageCacheHits++;
+    }
+
+    void recordImageCacheMiss() {
+        imageCacheMisses++;
+    }
+
+    void recordSpotColorSpaces(int separations, int deviceNs) {
+        separationColorSpaces = separations;
+        deviceNColorSpaces = deviceNs;
+    }
+
+    void recordContentRewritten(int colorOperators) {
+        pagesRewritten++;
+        colorOperatorsRewritten += colorOperators;
+    }
+
+    void recordContentUnchanged() {
+        pagesUnchanged++;
+    }
+
+    public int getPagesRewritten() {
+        return pagesRewritten;
+    }
+
+    public int getPagesUnchanged() {
+        return pagesUnchanged;
+    }
+
+    public long getColorOperatorsRewritten() {
+        return colorOperatorsRewritten;
+    }
+
+    void recordNestedContent(int colorOperators) {
+        if (colorOperators > 0) {
+            nestedStreamsRewritten++;
+        } else {
+            nestedStreamsUnchanged++;
+        }
+    }
+
+    public int getNestedStreamsRewritten() {
+        return nestedStreamsRewritten;
+    }
+
+    public int getNestedStreamsUnchanged() {
+        return nestedStreamsUnchanged;
+    }
+
+    void recordPageEngine(int pageIndex, PageEngine engine, String reason) {
+        pageEngines.add(engine);
+        if (engine == PageEngine.RASTER) {
+            rasterReasons.put(pageIndex, reason);
+        }
+    }
+
+    // Empty unless the document went through the hybrid mode
+    public List<PageEngine> getPageEngines() {
+        return Collections.unmodifiableList(pageEngines);
+    }
+
+    // What kept a rendered page from being converted in place, null for pages converted in place
+    public String getRasterReason(int pageIndex) {
+        return rasterReasons.get(pageIndex);
+    }
+
+    void recordSave(SaveMode saveMode, long saveMillis) {
+        this.saveMode = saveMode;
+        this.saveMillis = saveMillis;
+    }
+
+    public SaveMode getSaveMode() {
+        return saveMode;
+    }
+
+    public long getSaveMillis() {
+        return saveMillis;
+    }
+
+    public int getSeparationColorSpaces() {
+        return separationColorSpaces;
+    }
+
+    public int getDeviceNColorSpaces() {
+        return deviceNColorSpaces;
+    }
+
+    public int getImageCacheHits() {
+        return imageCacheHits;
+    }
+
+    public int getImageCacheMisses() {
+        return imageCacheMisses;
+    }
+
+    public long getColorCacheHits() {
+        return colorCache.getHits();
+    }
+
+    public long getColorCacheMisses() {
+        return colorCache.getMisses();
+    }
+
+    public void print() {
+        System.out.println("Content streams: " + pagesRewritten + " rewritten (" + colorOperatorsRewritten + " color operators), "
+                + pagesUnchanged + " left unchanged.");
+        System.out.println("Forms, patterns and appearances: " + nestedStreamsRewritten + " rewritten, " + nestedStreamsUnchanged + " left unchanged.");
+        System.out.println("Images: " + imageCacheMisses + " converted, " + imageCacheHits + " references reused an earlier conversion.");
+        System.out.println("Spot colors: " + separationColorSpaces + " Separation and " + deviceNColorSpaces + " DeviceN color spaces converted to gray.");
+        System.out.println("Colors: " + colorCache.getMisses() + " converted, " + colorCache.getHits() + " lookups reused an earlier conversion.");
+        if (!pageEngines.isEmpty()) {
+            System.out.println("Hybrid: " + (pageEngines.size() - rasterReasons.size()) + " pages converted in place, " + rasterReasons.size() + " rendered.");
+            for (Map.Entry<Integer, String> entry : rasterReasons.entrySet()) {
+                System.out.println("  Page " + (entry.getKey() + 1) + ": rendered (" + entry.getValue() + ")");
+            }
+        }
+        System.out.println("Saved (" + saveMode.name().toLowerCase() + ") in " + saveMillis + " ms.");
+    }
+}
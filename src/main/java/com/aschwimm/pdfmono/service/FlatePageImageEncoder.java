@@ -0,0 +1,65 @@
+package com.aschwimm.pdfmono.service;
+
+import org.apache.pdfbox.cos.COSName;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/*
+Losslessly compresses 8 bit gray page images into FlateDecode streams, rows are deflated straight out of the raster's byte array
+ */
+class FlatePageImageEncoder implements PageImageEncoder {
+
+    // One deflate stream for the whole image, each band's rows are appended to it
+    @Override
+    public BandEncoder start(int width, int height, OutputStream out) {
+        // Zlib wrapped deflate is what FlateDecode expects, finish() completes it and the caller closes the stream underneath
+        Deflater deflater = new Deflater();
+        DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, 64 * 1024);
+        return new BandEncoder() {
+            @Override
+            public void writeBand(BufferedImage band) throws IOException {
+                deflateRows(band, width, deflaterOut);
+            }
+
+            @Override
+            public void finish() throws IOException {
+                try {
+                    deflaterOut.finish();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public int getBitsPerComponent() {
+        return 8;
+    }
+
+    @Override
+    public COSName getFilter() {
+        return COSName.FLATE_DECODE;
+    }
+
+    private static void deflateRows(BufferedImage image, int width, DeflaterOutputStream deflaterOut) throws IOException {
+        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY || image.getWidth() != width) {
+            throw new IllegalArgumentException("Flate page images must be TYPE_BYTE_GRAY and " + width + " pixels wide.");
+        }
+        Raster raster = image.getRaster();
+        byte[] gray = ((DataBufferByte) raster.getDataBuffer()).getData();
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        int stride = sampleModel.getScanlineStride();
+        int offset = sampleModel.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+        for (int y = 0; y < image.getHeight(); y++) {
+            deflaterOut.write(gray, offset + y * stride, width);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.aschwimm.pdfmono.service;
+
+import com.aschwimm.pdfmono.util.GrayColorCache;
+import com.aschwimm.pdfmono.util.LuminanceModel;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.color.PDCalGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.color.PDIndexed;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/*
+Converts image XObjects to DeviceGray while keeping their compression
+Indexed images only get their palette rewritten, the sample data is left untouched. 8 bit RGB, CMYK and ICC based images are converted from
+their raw samples, JPEG sources are written back as JPEG and everything else as Flate. Soft masks, optional content and structure entries are
+carried over. Anything else still goes through the original decode, redraw and lossless re-encode
+ */
+class ImageGrayscaleEngine {
+    // Same quality ImageIO uses by default, and the page conversion's default
+    private static final float JPEG_QUALITY = 0.75f;
+    // Entries of the original image dictionary that still apply to the gray image, Mask is only carried over as an explicit mask image
+    // since color key masks never take the raw sample path
+    private static final List<COSName> PRESERVED_ENTRIES = List.of(
+            COSName.SMASK, COSName.MASK, COSName.INTERPOLATE, COSName.OC, COSName.STRUCT_PARENT, COSName.METADATA);
+
+    private final PageImageEncoder jpegEncoder = PageImageEncoder.forCodec(PageImageCodec.JPEG, JPEG_QUALITY);
+    private final PageImageEncoder flateEncoder = PageImageEncoder.forCodec(PageImageCodec.FLATE, JPEG_QUALITY);
+    private final GrayColorCache colorCache;
+
+    ImageGrayscaleEngine(GrayColorCache colorCache) {
+        this.colorCache = colorCache;
+    }
+
+    /*
+    Returns the gray version of image, which is image itself when it's already gray, a stencil mask, or an indexed image whose palette was rewritten
+     */
+    PDImageXObject convert(PDDocument document, PDImageXObject image) throws IOException {
+        // Stencil masks paint with the current fill color, which the content stream rewriter takes care of
+        if (image.isStencil()) {
+            return image;
+        }
+        PDColorSpace colorSpace = image.getColorSpace();
+        if (isGray(colorSpace)) {
+            return image;
+        }
+        if (colorSpace instanceof PDIndexed indexed) {
+            if (!isGray(indexed.getBaseColorSpace())) {
+                rewritePalette(image, indexed);
+            }
+            return image;
+        }
+        if (canConvertSamples(image, colorSpace)) {
+            return convertSamples(document, image, colorSpace);
+        }
+        return convertRendered(document, image);
+    }
+
+    /*
+    Replaces the color space with an Indexed DeviceGray space of the same size, the samples keep pointing at the same entries
+    so the work is proportional to the palette and the image data is never decoded
+    Palette entries are looked up in the document's color cache, palettes of a document tend to share most of their colors
+     */
+    private void rewritePalette(PDImageXObject image, PDIndexed indexed) throws IOException {
+        COSArray indexedArray = (COSArray) indexed.getCOSObject();
+        int hival = ((COSNumber) indexedArray.getObject(2)).intValue();
+        PDColorSpace base = indexed.getBaseColorSpace();
+        int components = base.getNumberOfComponents();
+        byte[] lookup = readLookup(indexedArray.getObject(3));
+        byte[] grayLookup = new byte[hival + 1];
+        float[] entry = new float[components];
+        for (int i = 0; i <= hival; i++) {
+            if (lookup != null && lookup.length >= (i + 1) * components) {
+                for (int c = 0; c < components; c++) {
+                    entry[c] = (lookup[i * components + c] & 0xFF) / 255f;
+                }
+                grayLookup[i] = (byte) Math.round(colorCache.toGrayNormalized(base, entry) * 255f);
+            } else {
+                // Short or unreadable lookup tables are left to PDFBox, which pads them the way a viewer would
+                float[] rgb = indexed.toRGB(new float[]{i});
+                grayLookup[i] = (byte) toGrayLevel(Math.round(rgb[0] * 255f), Math.round(rgb[1] * 255f), Math.round(rgb[2] * 255f));
+            }
+        }
+        COSArray grayIndexed = new COSArray();
+        grayIndexed.add(COSName.INDEXED);
+        grayIndexed.add(COSName.DEVICEGRAY);
+        grayIndexed.add(COSInteger.get(hival));
+        grayIndexed.add(new COSString(grayLookup));
+        image.getCOSObject().setItem(COSName.COLORSPACE, grayIndexed);
+        // The image keeps its place in the document, an incremental save has to be told it changed
+        image.getCOSObject().setNeedToBeUpdated(true);
+    }
+
+    // The lookup table of an Indexed space is either a string or a stream of hival + 1 entries, null when it's neither
+    private static byte[] readLookup(COSBase lookup) throws IOException {
+        if (lookup instanceof COSString string) {
+            return string.getBytes();
+        }
+        if (lookup instanceof COSStream stream) {
+            try (InputStream in = stream.createInputStream()) {
+                return in.readAllBytes();
+            }
+        }
+        return null;
+    }
+
+    /*
+    Raw samples are only used when each one maps straight to a color component, a Decode array, other bit depths or a color key mask
+    (whose ranges are given in the original components) go through the rendered fallback
+     */
+    private static boolean canConvertSamples(PDImageXObject image, PDColorSpace colorSpace) {
+        boolean supportedColorSpace = colorSpace instanceof PDDeviceRGB || colorSpace instanceof PDDeviceCMYK
+                || (colorSpace instanceof PDICCBased && (colorSpace.getNumberOfComponents() == 3 || colorSpace.getNumberOfComponents() == 4));
+        List<COSName> filters = image.getStream().getFilters();
+        return supportedColorSpace
+                && image.getBitsPerComponent() == 8
+                && image.getDecode() == null
+                && !(image.getCOSObject().getDictionaryObject(COSName.MASK) instanceof COSArray)
+                && !filters.contains(COSName.JPX_DECODE);
+    }
+
+    private PDImageXObject convertSamples(PDDocument document, PDImageXObject image, PDColorSpace colorSpace) throws IOException {
+        WritableRaster raw = image.getRawRaster();
+        int width = raw.getWidth();
+        int height = raw.getHeight();
+        BufferedImage grayImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] gray = ((DataBufferByte) grayImage.getRaster().getDataBuffer()).getData();
+        if (colorSpace instanceof PDDeviceRGB) {
+            // DeviceRGB samples are the RGB values themselves
+            int[] samples = new int[width * 3];
+            for (int y = 0; y < height; y++) {
+                raw.getPixels(0, y, width, 1, samples);
+                for (int x = 0, s = 0; x < width; x++, s += 3) {
+                    gray[y * width + x] = (byte) toGrayLevel(samples[s], samples[s + 1], samples[s + 2]);
+                }
+            }
+        } else {
+            // CMYK and ICC samples go through the color space's own conversion to RGB, which PDFBox does for the whole raster at once
+            BufferedImage rgbImage = colorSpace.toRGBImage(raw);
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                rgbImage.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    int rgb = row[x];
+                    gray[y * width + x] = (byte) toGrayLevel((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+                }
+            }
+        }
+        boolean jpegSource = image.getStream().getFilters().contains(COSName.DCT_DECODE);
+        PDImageXObject grayImageXObject = (jpegSource ? jpegEncoder : flateEncoder).createImage(document, grayImage);
+        COSDictionary original = image.getCOSObject();
+        for (COSName entry : PRESERVED_ENTRIES) {
+            COSBase value = original.getItem(entry);
+            if (value != null) {
+                grayImageXObject.getCOSObject().setItem(entry, value);
+            }
+        }
+        return grayImageXObject;
+    }
+
+    // Original conversion, decodes the image, draws it into a gray image and stores it losslessly
+    private static PDImageXObject convertRendered(PDDocument document, PDImageXObject image) throws IOException {
+        BufferedImage colorImage = image.getImage();
+        BufferedImage grayImage = new BufferedImage(
+                colorImage.getWidth(),
+                colorImage.getHeight(),
+                BufferedImage.TYPE_BYTE_GRAY
+        );
+        Graphics2D graphics = grayImage.createGraphics();
+        graphics.drawImage(colorImage, 0, 0, null);
+        graphics.dispose();
+
+        return LosslessFactory.createFromImage(document, grayImage);
+    }
+
+    private static boolean isGray(PDColorSpace colorSpace) {
+        return colorSpace instanceof PDDeviceGray || colorSpace instanceof PDCalGray
+                || (colorSpace instanceof PDICCBased && colorSpace.getNumberOfComponents() == 1);
+    }
+
+    // Rec.601 luminance of 0-255 components, rounded to the nearest gray level
+    private static int toGrayLevel(int red, int green, int blue) {
+        return Math.min(255, Math.round(LuminanceModel.REC_601.luminance(red, green, blue)));
+    }
+}
@@ -0,0 +1,286 @@
+package com.aschwimm.pdfmono.service;
+
+import com.aschwimm.pdfmono.util.PageContentListener;
+import org.apache.pdfbox.contentstream.PDContentStream;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDType3CharProc;
+import org.apache.pdfbox.pdmodel.font.PDType3Font;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDCalGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceN;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.color.PDIndexed;
+import org.apache.pdfbox.pdmodel.graphics.color.PDPattern;
+import org.apache.pdfbox.pdmodel.graphics.color.PDSeparation;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDAbstractPattern;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDShadingPattern;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDTilingPattern;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/*
+Decides for the hybrid conversion whether the in-place conversion can turn a page gray on its own
+Walks the page content, the forms, tiling patterns, soft mask groups and Type3 glyphs it draws and its annotation appearances looking for what
+the operator rewriter leaves in color: shadings, color spaces other than gray, spot and device ones picked by their operators, color inline images,
+and the non-separable blend modes, which mix the hue and saturation of colors and come out differently once those colors are gray.
+Images drawn with Do are fine, the image engine converts every one of them. Transparency groups are fine too, the conversion points their
+blending space at DeviceGray
+ */
+class InPlaceSupportScanner {
+    private static final Set<String> NON_SEPARABLE_BLEND_MODES = Set.of("Hue", "Saturation", "Color", "Luminosity");
+
+    /*
+    Returns what keeps the page from being converted in place, or null when in-place conversion covers all of it
+     */
+    String findUnsupportedConstruct(PDPage page) throws IOException {
+        // Forms, patterns, soft mask groups and glyphs drawn more than once, or drawing themselves, are only walked the first time
+        Set<COSStream> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        String reason = scan(page, page.getResources(), visited);
+        return reason != null ? reason : scanAppearances(page, visited);
+    }
+
+    /*
+    Same check as findUnsupportedConstruct for a caller that parses the page content anyway, e.g. PDFInspector measuring the page for the estimate
+    The listener gets the page's operators from that parse, only what the page draws is parsed again, and holds the result once the page ended
+     */
+    PageScan scanPage(PDPage page) {
+        return new PageScan(page);
+    }
+
+    final class PageScan implements PageContentListener {
+        private final PDPage page;
+        private final PDResources resources;
+        private final Set<COSStream> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        private String reason;
+
+        private PageScan(PDPage page) {
+            this.page = page;
+            this.resources = page.getResources();
+        }
+
+        @Override
+        public void operator(Operator operator, List<Object> operands) throws IOException {
+            if (reason == null) {
+                int size = operands.size();
+                reason = checkOperator(operator, size > 1 ? operands.get(size - 2) : null, size > 0 ? operands.get(size - 1) : null, resources, visited);
+            }
+        }
+
+        @Override
+        public void endPage() throws IOException {
+            if (reason == null) {
+                reason = scanAppearances(page, visited);
+            }
+        }
+
+        // What keeps the page from being converted in place, null when in-place conversion covers all of it
+        String getReason() {
+            return reason;
+        }
+    }
+
+    private String scanAppearances(PDPage page, Set<COSStream> visited) throws IOException {
+        for (PDAnnotation annotation : page.getAnnotations()) {
+            PDAppearanceStream appearance = annotation.getNormalAppearanceStream();
+            if (appearance != null && visited.add(appearance.getCOSObject())) {
+                String reason = scan(appearance, appearance.getResources(), visited);
+                if (reason != null) {
+                    return reason;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Only the last two operands matter to the operators checked here, Tf takes the font name before the size, so nothing else is kept
+    private String scan(PDContentStream contentStream, PDResources resources, Set<COSStream> visited) throws IOException {
+        PDFStreamParser parser = new PDFStreamParser(contentStream);
+        Object previousOperand = null;
+        Object lastOperand = null;
+        Object token;
+        while ((token = parser.parseNextToken()) != null) {
+            if (!(token instanceof Operator operator)) {
+                previousOperand = lastOperand;
+                lastOperand = token;
+                continue;
+            }
+            String reason = checkOperator(operator, previousOperand, lastOperand, resources, visited);
+            if (reason != null) {
+                return reason;
+            }
+            previousOperand = null;
+            lastOperand = null;
+        }
+        return null;
+    }
+
+    private String checkOperator(Operator operator, Object previousOperand, Object lastOperand, PDResources resources, Set<COSStream> visited)
+            throws IOException {
+        COSName name = lastOperand instanceof COSName operandName ? operandName : null;
+        return switch (operator.getName()) {
+            case "sh" -> "shading";
+            case "cs", "CS" -> name != null ? checkColorSpace(name, resources) : null;
+            case "scn", "SCN" -> name != null ? checkPattern(name, resources, visited) : null;
+            case "gs" -> name != null ? checkGraphicsState(name, resources, visited) : null;
+            case "Do" -> name != null ? checkXObject(name, resources, visited) : null;
+            case "Tf" -> previousOperand instanceof COSName fontName ? checkFont(fontName, resources, visited) : null;
+            case "BI" -> checkInlineImage(operator.getImageParameters(), resources);
+            default -> null;
+        };
+    }
+
+    private String checkColorSpace(COSName name, PDResources resources) throws IOException {
+        if (COSName.DEVICEGRAY.equals(name) || COSName.PATTERN.equals(name)) {
+            return null;
+        }
+        // rg and k are rewritten, colors set through sc and scn after selecting a device space are not
+        if (COSName.DEVICERGB.equals(name) || COSName.DEVICECMYK.equals(name) || resources == null) {
+            return "color space " + name.getName();
+        }
+        PDColorSpace colorSpace = resources.getColorSpace(name);
+        return isSupported(colorSpace) ? null : "color space " + colorSpace.getName();
+    }
+
+    // Gray spaces need nothing, spot spaces are pointed at gray by SpotColorConverter, patterns are checked when they're painted
+    private static boolean isSupported(PDColorSpace colorSpace) {
+        if (colorSpace instanceof PDDeviceGray || colorSpace instanceof PDCalGray
+                || (colorSpace instanceof PDICCBased && colorSpace.getNumberOfComponents() == 1)
+                || colorSpace instanceof PDSeparation) {
+            return true;
+        }
+        if (colorSpace instanceof PDDeviceN) {
+            return colorSpace.getNumberOfComponents() <= SpotColorConverter.MAX_DEVICEN_COLORANTS;
+        }
+        if (colorSpace instanceof PDIndexed indexed) {
+            return isSupported(indexed.getBaseColorSpace());
+        }
+        if (colorSpace instanceof PDPattern pattern) {
+            // Uncolored tiling patterns take their color from the components given with scn, in the underlying space
+            return pattern.getUnderlyingColorSpace() == null || isSupported(pattern.getUnderlyingColorSpace());
+        }
+        return false;
+    }
+
+    private String checkPattern(COSName name, PDResources resources, Set<COSStream> visited) throws IOException {
+        if (resources == null) {
+            return null;
+        }
+        PDAbstractPattern pattern = resources.getPattern(name);
+        if (pattern instanceof PDShadingPattern) {
+            return "shading pattern";
+        }
+        if (pattern instanceof PDTilingPattern tiling && tiling.getCOSObject() instanceof COSStream stream && visited.add(stream)) {
+            return scan(tiling, tiling.getResources() != null ? tiling.getResources() : resources, visited);
+        }
+        return null;
+    }
+
+    /*
+    A soft mask's group is converted like a form, so it's walked like one. The mask takes its values from the luminosity of the colors the group
+    paints, the gray they are rewritten to is that same luminosity
+     */
+    private String checkGraphicsState(COSName name, PDResources resources, Set<COSStream> visited) throws IOException {
+        PDExtendedGraphicsState graphicsState = resources != null ? resources.getExtGState(name) : null;
+        if (graphicsState == null) {
+            return null;
+        }
+        COSDictionary state = graphicsState.getCOSObject();
+        COSBase blendMode = state.getDictionaryObject(COSName.BM);
+        // An array lists blend modes in order of preference, a viewer may pick any of them
+        if (blendMode instanceof COSArray blendModes) {
+            for (COSBase mode : blendModes) {
+                if (mode instanceof COSName modeName && NON_SEPARABLE_BLEND_MODES.contains(modeName.getName())) {
+                    return "blend mode " + modeName.getName();
+                }
+            }
+        } else if (blendMode instanceof COSName modeName && NON_SEPARABLE_BLEND_MODES.contains(modeName.getName())) {
+            return "blend mode " + modeName.getName();
+        }
+        if (state.getDictionaryObject(COSName.SMASK) instanceof COSDictionary softMask
+                && softMask.getDictionaryObject(COSName.G) instanceof COSStream group && visited.add(group)) {
+            PDFormXObject form = new PDFormXObject(group);
+            return scan(form, form.getResources() != null ? form.getResources() : resources, visited);
+        }
+        return null;
+    }
+
+    /*
+    Glyphs of a Type3 font are content streams of their own, a d0 glyph paints in whatever colors it sets. Every glyph of the font is walked
+    the first time the font is selected. Other fonts are recognized from their dictionary without being loaded
+     */
+    private String checkFont(COSName name, PDResources resources, Set<COSStream> visited) throws IOException {
+        COSDictionary fonts = resources != null ? resources.getCOSObject().getCOSDictionary(COSName.FONT) : null;
+        if (fonts == null || !(fonts.getDictionaryObject(name) instanceof COSDictionary fontDictionary)
+                || !COSName.TYPE3.equals(fontDictionary.getCOSName(COSName.SUBTYPE))) {
+            return null;
+        }
+        PDType3Font font = new PDType3Font(fontDictionary);
+        COSDictionary charProcs = font.getCharProcs();
+        if (charProcs == null) {
+            return null;
+        }
+        PDResources glyphResources = font.getResources() != null ? font.getResources() : resources;
+        for (COSName glyphName : charProcs.keySet()) {
+            if (charProcs.getDictionaryObject(glyphName) instanceof COSStream glyph && visited.add(glyph)) {
+                String reason = scan(new PDType3CharProc(font, glyph), glyphResources, visited);
+                if (reason != null) {
+                    return reason;
+                }
+            }
+        }
+        return null;
+    }
+
+    private String checkXObject(COSName name, PDResources resources, Set<COSStream> visited) throws IOException {
+        if (resources == null) {
+            return null;
+        }
+        PDXObject xObject = resources.getXObject(name);
+        if (!(xObject instanceof PDFormXObject form) || !visited.add(form.getCOSObject())) {
+            return null;
+        }
+        return scan(form, form.getResources() != null ? form.getResources() : resources, visited);
+    }
+
+    private static String checkInlineImage(COSDictionary parameters, PDResources resources) throws IOException {
+        if (parameters == null || parameters.getBoolean(COSName.IM, false) || parameters.getBoolean(COSName.IMAGE_MASK, false)) {
+            return null;
+        }
+        COSBase colorSpace = parameters.getDictionaryObject(COSName.CS, COSName.COLORSPACE);
+        if (colorSpace instanceof COSName name && isSupportedInlineColorSpace(name, resources)) {
+            return null;
+        }
+        return "color inline image";
+    }
+
+    // Abbreviated names are only allowed in inline images, nothing rewrites the samples of an inline image so only gray and spot spaces pass
+    private static boolean isSupportedInlineColorSpace(COSName name, PDResources resources) throws IOException {
+        String value = name.getName();
+        if (value.equals("G") || COSName.DEVICEGRAY.equals(name)) {
+            return true;
+        }
+        if (value.equals("RGB") || value.equals("CMYK") || value.equals("I") || COSName.DEVICERGB.equals(name)
+                || COSName.DEVICECMYK.equals(name) || resources == null || !resources.hasColorSpace(name)) {
+            return false;
+        }
+        return isSupported(resources.getColorSpace(name));
+    }
+}
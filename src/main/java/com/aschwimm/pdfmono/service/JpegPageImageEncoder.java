@@ -0,0 +1,140 @@
+package com.aschwimm.pdfmono.service;
+
+import org.apache.pdfbox.cos.COSName;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/*
+Encodes gray page images as baseline JPEG into DCTDecode streams, the ImageIO writer outputs straight into the stream's raw output
+without a cache in between. Tiled pages still need one gray raster of the whole page, see start()
+ */
+class JpegPageImageEncoder implements PageImageEncoder {
+    private final float quality;
+
+    JpegPageImageEncoder(float quality) {
+        if (quality < 0f || quality > 1f) {
+            throw new IllegalArgumentException("JPEG quality must be between 0 and 1.");
+        }
+        this.quality = quality;
+    }
+
+    /*
+    The ImageIO writer needs the whole image at once, so a page that arrives in several bands is first copied into one gray raster
+    That raster takes a byte per pixel, a quarter of the RGB render it replaces, and the page still becomes a single JPEG without
+    block edges at band boundaries. An image that arrives as one band is written without the copy
+     */
+    @Override
+    public BandEncoder start(int width, int height, OutputStream out) {
+        return new BandEncoder() {
+            private BufferedImage pageImage;
+            private int rows;
+
+            @Override
+            public void writeBand(BufferedImage band) throws IOException {
+                if (rows == 0 && band.getHeight() == height) {
+                    writeJpeg(band, out);
+                    rows = height;
+                    return;
+                }
+                if (band.getWidth() != width || rows + band.getHeight() > height) {
+                    throw new IllegalArgumentException("Band doesn't fit a " + width + "x" + height + " image below row " + rows);
+                }
+                if (pageImage == null) {
+                    pageImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+                }
+                pageImage.getRaster().setRect(0, rows, band.getRaster());
+                rows += band.getHeight();
+                if (rows == height) {
+                    writeJpeg(pageImage, out);
+                    pageImage = null;
+                }
+            }
+
+            @Override
+            public void finish() {
+                if (rows != height) {
+                    throw new IllegalStateException("Only " + rows + " of " + height + " rows were written.");
+                }
+            }
+        };
+    }
+
+    @Override
+    public int getBitsPerComponent() {
+        return 8;
+    }
+
+    @Override
+    public COSName getFilter() {
+        return COSName.DCT_DECODE;
+    }
+
+    private void writeJpeg(BufferedImage image, OutputStream out) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("No JPEG ImageWriter is available.");
+        }
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream imageOut = new DirectImageOutputStream(out)) {
+            writer.setOutput(imageOut);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /*
+    Passes every byte on to out as it is written. ImageIO's cached streams keep the whole encoded image in memory or a temporary file
+    until they are closed, the JPEG writer only ever appends so it doesn't need them. Reads and seeks away from the end fail, out is left open
+     */
+    private static final class DirectImageOutputStream extends ImageOutputStreamImpl {
+        private final OutputStream out;
+
+        DirectImageOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            out.write(b);
+            streamPos++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            out.write(b, off, len);
+            streamPos += len;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new IOException("The JPEG output stream can't be read.");
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            throw new IOException("The JPEG output stream can't be read.");
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            if (pos != streamPos) {
+                throw new IOException("The JPEG output stream can't seek from " + streamPos + " to " + pos + ".");
+            }
+        }
+    }
+}
@@ -1,64 +1,89 @@
 package com.aschwimm.pdfmono.service;
 
-import com.aschwimm.pdfmono.util.ColorConverter;
+import com.aschwimm.pdfmono.util.GrayColorCache;
+import com.aschwimm.pdfmono.util.ImageBufferPool;
 import com.aschwimm.pdfmono.util.PDFDocumentIO;
-import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.PDContentStream;
 import org.apache.pdfbox.cos.*;
-import org.apache.pdfbox.pdfparser.PDFStreamParser;
-import org.apache.pdfbox.pdfwriter.ContentStreamWriter;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.common.PDStream;
-import org.apache.pdfbox.pdmodel.common.function.PDFunctionType4;
+import org.apache.pdfbox.pdmodel.font.PDType3CharProc;
+import org.apache.pdfbox.pdmodel.font.PDType3Font;
 import org.apache.pdfbox.pdmodel.graphics.PDXObject;
-import org.apache.pdfbox.pdmodel.graphics.color.*;
 import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
-import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDTilingPattern;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+import org.apache.pdfbox.rendering.PDFRenderer;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 /*
-This class is a work in progress and not currently implemented. It's a much more robust solution to the grayscale conversion problem, modifying each page's color in-place instead of "flattening" the pages by
-converting them to images then converting to grayscale. When this class is implemented it would convert to grayscale while preserving the ability to search for text within the document as well as preserving accessibility features
-such as alternate text for images.
+In-place grayscale conversion behind --in-place and --hybrid. Instead of "flattening" the pages by converting them to images, each page's colors
+are rewritten in the document itself: color operators of page content, forms, tiling patterns and annotation appearances, images and spot color spaces.
+Text stays searchable and accessibility features such as alternate text for images are preserved
  */
 public class PDFConversionService {
-    private Stack<PDColorSpace> nonStrokingColorSpaceStack;
-    private Stack<PDColorSpace> strokingColorSpaceStack;
-    int csCount = 0;
+    private static final COSName TRANSPARENCY = COSName.getPDFName("Transparency");
     private final PDFDocumentIO pdfDocumentIO;
+    // Replaced for every document so the color cache they share is scoped to one document
+    private GrayColorCache colorCache = new GrayColorCache();
+    private ContentStreamColorRewriter colorRewriter = new ContentStreamColorRewriter(colorCache);
+    private ImageGrayscaleEngine imageEngine = new ImageGrayscaleEngine(colorCache);
+    private SpotColorConverter spotColorConverter = new SpotColorConverter();
+    private ConversionReport report = new ConversionReport(colorCache);
+    // Converted images by the identity of the original's stream, shared logos and letterheads are converted once for the whole document
+    private Map<COSStream, PDImageXObject> convertedImages = new IdentityHashMap<>();
+    // Form, pattern and appearance streams already converted. PDFBox resolves an object key to a single COSStream per document,
+    // so the identity of the stream stands for its key and also covers streams created during the conversion, which have none
+    private Set<COSStream> visitedContentStreams = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Type3 fonts whose glyphs and resources were already converted, by the identity of the font dictionary
+    private Set<COSDictionary> visitedType3Fonts = Collections.newSetFromMap(new IdentityHashMap<>());
 
     public PDFConversionService(PDFDocumentIO pdfDocumentIO) {
         this.pdfDocumentIO = pdfDocumentIO;
     }
     public boolean convertToBlackAndWhite(String inputFile, String outputFile) {
-        File input = new File(inputFile);
-        File output = new File(outputFile);
+        return convertToBlackAndWhite(inputFile, outputFile, 1);
+    }
 
-        if (!input.exists() || !input.isFile()) {
-            System.err.println("Input file does not exist or is not a valid file.");
-            return false;
-        }
+    /*
+    Same conversion, with more than one thread the content streams of several pages are parsed and rewritten at the same time
+     */
+    public boolean convertToBlackAndWhite(String inputFile, String outputFile, int threads) {
+        return convertToBlackAndWhite(inputFile, outputFile, threads, SaveMode.COMPRESSED);
+    }
 
-        if (!output.getParentFile().exists()) {
-            System.err.println("Output directory does not exist.");
+    /*
+    Same conversion, saveMode chooses between rewriting the whole file and appending only the changed objects to a copy of the original
+     */
+    public boolean convertToBlackAndWhite(String inputFile, String outputFile, int threads, SaveMode saveMode) {
+        if (!validatePaths(inputFile, outputFile, saveMode)) {
             return false;
         }
 
+        startRun();
         try (PDDocument document = pdfDocumentIO.loadDocument(inputFile)) {
-            for(PDPage page : document.getPages()) {
-                convertPageToGrayscale(document, page);
-                convertEmbeddedImagesToGrayscale(document, page);
-                convertSeparationColorSpaceToGray(document, page);
+            if (threads > 1 && document.getNumberOfPages() > 1) {
+                convertPagesInParallel(document, threads);
+            } else {
+                for (PDPage page : document.getPages()) {
+                    convertPageToGrayscale(document, page);
+                    convertPageResources(document, page);
+                }
             }
 
-            document.save(outputFile);
+            finishRun(document, outputFile, saveMode);
             return true;
         } catch (IOException e) {
             System.err.println("Error during conversion: " + e.getMessage());
@@ -67,178 +92,397 @@ public class PDFConversionService {
 
     }
 
-    // This will only convert vector-based content like text, not inline vector paths like vector images in the content stream
-   private void convertPageToGrayscale(PDDocument document, PDPage page) throws IOException {
-        PDFStreamParser parser = new PDFStreamParser(page);
-        List<Object> tokens = parser.parse();
-        List<Object> newTokens = convertInlineColorsToGray(tokens, page);
-        PDStream newStream = new PDStream(document);
-        try (OutputStream out = newStream.createOutputStream()) {
-            ContentStreamWriter writer = new ContentStreamWriter(out);
-            writer.writeTokens(newTokens);
+    /*
+    Hybrid conversion, every page goes through the in-place conversion unless it draws something the operator rewriter can't turn gray,
+    as InPlaceSupportScanner finds it: shadings, color spaces picked with cs or CS that aren't gray or spot colors, color inline images and
+    the non-separable blend modes. Those pages are rendered to gray images with the page-to-image conversion's settings and spliced into the
+    same document in place of their content, so most pages skip rendering and encoding entirely. Transparency groups and soft masks stay in place
+    Annotations of rendered pages stay live and are converted in place. The report lists the engine that handled each page
+     */
+    public boolean convertHybrid(String inputFile, String outputFile, ConversionOptions options) {
+        if (!validatePaths(inputFile, outputFile, options.getSaveMode())) {
+            return false;
         }
-        page.setContents(newStream);
 
-   }
-   /*
-   Work in progress. The method works by converting alternate colorspaces for /Separation type colorspace objects
-   into DeviceGray
-    */
-   private void convertSeparationColorSpaceToGray(PDDocument document, PDPage page) throws IOException {
-        PDResources resources = page.getResources();
-        Iterable<COSName> csNames = resources.getColorSpaceNames();
-        List<COSName> toDelete = new ArrayList<>();
-        Map<COSName, PDColorSpace> colorSpaceMap = new HashMap<>();
-        for (COSName csName : csNames) {
-            PDColorSpace colorSpace = resources.getColorSpace(csName);
-            colorSpaceMap.put(csName, colorSpace);
-            toDelete.add(csName);
+        startRun();
+        try (PDDocument document = pdfDocumentIO.loadDocument(inputFile)) {
+            InPlaceSupportScanner scanner = new InPlaceSupportScanner();
+            // Created on the first page that needs it, annotations are left out of the render since they stay on the page
+            PDFRenderer renderer = null;
+            ImageBufferPool pool = new ImageBufferPool(1, 1);
+            int pageCount = document.getNumberOfPages();
+            for (int i = 0; i < pageCount; i++) {
+                System.out.printf("\rProcessing page %d of %d...          ", (i + 1), pageCount);
+                System.out.flush();
+                PDPage page = document.getPage(i);
+                // Checked before anything is converted, a form shared with an earlier page still shows what it draws
+                String unsupported = scanner.findUnsupportedConstruct(page);
+                if (unsupported == null) {
+                    convertPageToGrayscale(document, page);
+                    convertPageResources(document, page);
+                    report.recordPageEngine(i, PageEngine.IN_PLACE, null);
+                    continue;
+                }
+                if (renderer == null) {
+                    renderer = new PDFRenderer(document);
+                    renderer.setAnnotationsFilter(annotation -> false);
+                }
+                PDFPageToImageToGrayscale.rasterizePageInPlace(renderer, document, i, options, pool);
+                markUpdated(page.getCOSObject());
+                for (PDAnnotation annotation : page.getAnnotations()) {
+                    convertAppearances(document, annotation);
+                }
+                report.recordPageEngine(i, PageEngine.RASTER, unsupported);
+            }
+            System.out.println();
+
+            finishRun(document, outputFile, options.getSaveMode());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error during conversion: " + e.getMessage());
+            return false;
         }
+    }
 
-       for (Map.Entry<COSName, PDColorSpace> entry : colorSpaceMap.entrySet()) {
-           COSName name = entry.getKey();
-           String strName = name.getName();
-           System.out.println(strName);
-           PDColorSpace cs = entry.getValue();
+    private static boolean validatePaths(String inputFile, String outputFile, SaveMode saveMode) {
+        File input = new File(inputFile);
+        File output = new File(outputFile);
 
+        if (!input.exists() || !input.isFile()) {
+            System.err.println("Input file does not exist or is not a valid file.");
+            return false;
+        }
 
-           if (cs instanceof PDSeparation) {
-               PDSeparation sep = (PDSeparation) cs;
+        if (!output.getParentFile().exists()) {
+            System.err.println("Output directory does not exist.");
+            return false;
+        }
 
+        try {
+            // The incremental save copies the original while writing, it can't overwrite the file it reads from
+            if (saveMode == SaveMode.INCREMENTAL && input.getCanonicalFile().equals(output.getCanonicalFile())) {
+                System.err.println("Incremental save needs an output file different from the input file.");
+                return false;
+            }
+        } catch (IOException e) {
+            System.err.println("Error resolving file paths: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
 
-               sep.setAlternateColorSpace(PDDeviceGray.INSTANCE);
+    // Every document gets its own caches, so nothing converted for one document leaks into the next
+    private void startRun() {
+        colorCache = new GrayColorCache();
+        colorRewriter = new ContentStreamColorRewriter(colorCache);
+        imageEngine = new ImageGrayscaleEngine(colorCache);
+        spotColorConverter = new SpotColorConverter();
+        report = new ConversionReport(colorCache);
+        convertedImages = new IdentityHashMap<>();
+        visitedContentStreams = Collections.newSetFromMap(new IdentityHashMap<>());
+        visitedType3Fonts = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
 
+    private void finishRun(PDDocument document, String outputFile, SaveMode saveMode) throws IOException {
+        long saveStart = System.nanoTime();
+        save(document, outputFile, saveMode);
+        report.recordSave(saveMode, (System.nanoTime() - saveStart) / 1_000_000);
+        report.recordSpotColorSpaces(spotColorConverter.getSeparationCount(), spotColorConverter.getDeviceNCount());
+        report.print();
+    }
 
-               COSDictionary functionDict = new COSDictionary();
-               functionDict.setInt(COSName.FUNCTION_TYPE, 4);
+    private static void save(PDDocument document, String outputFile, SaveMode saveMode) throws IOException {
+        switch (saveMode) {
+            case COMPRESSED -> document.save(outputFile, CompressParameters.DEFAULT_COMPRESSION);
+            case FULL -> document.save(outputFile, CompressParameters.NO_COMPRESSION);
+            case INCREMENTAL -> {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                    document.saveIncremental(out);
+                }
+            }
+        }
+    }
 
-               COSArray domain = new COSArray();
-               domain.add(COSInteger.ZERO);
-               domain.add(COSInteger.ONE);
-               functionDict.setItem(COSName.DOMAIN, domain);
+    /*
+    An incremental save writes the objects flagged as updated together with the new objects they reference. The conversion flags every
+    dictionary it edits in place, a direct dictionary is written as part of the object that holds it, so the holders are flagged as well
+     */
+    private static void markUpdated(COSUpdateInfo... objects) {
+        for (COSUpdateInfo object : objects) {
+            if (object != null) {
+                object.setNeedToBeUpdated(true);
+            }
+        }
+    }
 
-               COSArray range = new COSArray();
-               range.add(COSInteger.ZERO);
-               range.add(COSInteger.ONE);
-               functionDict.setItem(COSName.RANGE, range);
+    // This will only convert vector-based content like text, not inline vector paths like vector images in the content stream
+    // The page's content is rewritten token by token into an uncompressed buffer, the parsed page is never held as a token list
+    // Pages without an RGB or CMYK operator keep their original content stream, the buffer is dropped without ever being compressed
+   private void convertPageToGrayscale(PDDocument document, PDPage page) throws IOException {
+        ByteArrayOutputStream rewrittenContent = new ByteArrayOutputStream();
+        int rewritten = colorRewriter.rewrite(page, rewrittenContent);
+        commitContent(document, page, rewrittenContent, rewritten);
+   }
 
+    // Only a page whose colors actually changed gets a new, Flate compressed, content stream
+    private void commitContent(PDDocument document, PDPage page, ByteArrayOutputStream rewrittenContent, int rewritten) throws IOException {
+        if (rewritten == 0) {
+            report.recordContentUnchanged();
+            return;
+        }
+        PDStream newStream = new PDStream(document);
+        try (OutputStream out = newStream.createOutputStream(COSName.FLATE_DECODE)) {
+            rewrittenContent.writeTo(out);
+        }
+        page.setContents(newStream);
+        markUpdated(page.getCOSObject());
+        report.recordContentRewritten(rewritten);
+    }
+    /*
+    PDFBox's object model isn't thread-safe, so workers never touch the document. The main thread reads a page's decoded content into a byte array
+    and hands it to a worker, which parses and rewrites it into a new byte array. Finished pages are committed on the main thread in page order,
+    setting the new content and converting resources and annotations, while at most twice the thread count of pages are in flight
+     */
+    private void convertPagesInParallel(PDDocument document, int threads) throws IOException {
+        List<PDPage> pages = new ArrayList<>(document.getNumberOfPages());
+        document.getPages().forEach(pages::add);
+        int maxPagesInFlight = threads * 2;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<RewrittenContent>> inFlight = new ArrayDeque<>();
+            int nextPage = 0;
+            for (PDPage page : pages) {
+                while (nextPage < pages.size() && inFlight.size() < maxPagesInFlight) {
+                    byte[] content;
+                    try (InputStream in = pages.get(nextPage++).getContents()) {
+                        content = in.readAllBytes();
+                    }
+                    inFlight.addLast(executor.submit(() -> {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+                        int rewritten = colorRewriter.rewrite(content, out);
+                        // Unchanged pages keep their original stream, their copy isn't needed
+                        return new RewrittenContent(rewritten == 0 ? null : out, rewritten);
+                    }));
+                }
+                RewrittenContent rewrittenContent = awaitContent(inFlight.removeFirst());
+                commitContent(document, page, rewrittenContent.content(), rewrittenContent.rewritten());
+                convertPageResources(document, page);
+            }
+        } finally {
+            // Workers only read their byte arrays, but the document must not be saved or closed while any of them is still running
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-               String psCode = "{ 0.755 mul 1 exch sub }";
-               byte[] psBytes = psCode.getBytes(StandardCharsets.US_ASCII);
-               functionDict.setItem(COSName.LENGTH, COSInteger.get(psBytes.length));
+    // Rewritten content of a page and the number of color operators replaced in it, content is null when nothing was replaced
+    private record RewrittenContent(ByteArrayOutputStream content, int rewritten) {
+    }
 
-               COSStream stream = document.getDocument().createCOSStream();
-               stream.addAll(functionDict);
-               try (OutputStream os = stream.createOutputStream(COSName.FLATE_DECODE)) {
-                   os.write(psBytes);
-               }
+    private static RewrittenContent awaitContent(Future<RewrittenContent> rewrittenContent) throws IOException {
+        try {
+            return rewrittenContent.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a page to be rewritten.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("Failed to rewrite page content: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
 
-               PDFunctionType4 tintTransform = new PDFunctionType4(stream);
-               sep.setTintTransform(tintTransform);
-           }
+    // Counters of the most recent convertToBlackAndWhite run
+    public ConversionReport getReport() {
+        return report;
+    }
 
-       }
-   }
-    private void convertEmbeddedImagesToGrayscale(PDDocument document, PDPage page) throws IOException {
-        PDResources resources = page.getResources();
-        if(resources != null) {
-            processResourcesForImages(resources, document);
+    /*
+    Converts everything a page draws besides its own content stream: images, forms and tiling patterns at any depth, Type3 glyphs,
+    soft mask groups, spot color spaces, and the appearance streams of its annotations
+     */
+    private void convertPageResources(PDDocument document, PDPage page) throws IOException {
+        if (convertResources(document, page.getResources()) | convertGroupColorSpace(page.getCOSObject())) {
+            // Page resources are often a direct dictionary of the page
+            markUpdated(page.getCOSObject());
+        }
+        for (PDAnnotation annotation : page.getAnnotations()) {
+            convertAppearances(document, annotation);
         }
     }
 
-    private void processResourcesForImages(PDResources resources, PDDocument document) throws IOException {
+    /*
+    Converts the images, forms, tiling patterns, Type3 fonts, soft mask groups and spot color spaces of a resource dictionary
+    Returns whether the dictionary itself changed, i.e. an image reference was replaced or a color space rewritten
+     */
+    private boolean convertResources(PDDocument document, PDResources resources) throws IOException {
+        if (resources == null) {
+            return false;
+        }
+        // Spot color spaces are pointed at DeviceGray through tint transforms shared by the whole document
+        boolean changed = spotColorConverter.convert(document, resources);
         for (COSName xObjectName : resources.getXObjectNames()) {
             PDXObject xObject = resources.getXObject(xObjectName);
 
             if(xObject instanceof PDImageXObject imageXObject) {
-                BufferedImage colorImage = imageXObject.getImage();
-                BufferedImage grayImage = new BufferedImage(
-                        colorImage.getWidth(),
-                        colorImage.getHeight(),
-                        BufferedImage.TYPE_BYTE_GRAY
-                );
-                Graphics2D graphics = grayImage.createGraphics();
-                graphics.drawImage(colorImage, 0, 0, null);
-                graphics.dispose();
-
-                PDImageXObject grayImageXObject = LosslessFactory.createFromImage(document,grayImage);
-                resources.put(xObjectName, grayImageXObject);
+                COSStream original = imageXObject.getCOSObject();
+                PDImageXObject grayImageXObject = convertedImages.get(original);
+                if (grayImageXObject != null) {
+                    report.recordImageCacheHit();
+                } else {
+                    report.recordImageCacheMiss();
+                    grayImageXObject = imageEngine.convert(document, imageXObject);
+                    convertedImages.put(original, grayImageXObject);
+                    // Resources shared between pages already point at the converted image the next time they're visited
+                    convertedImages.put(grayImageXObject.getCOSObject(), grayImageXObject);
+                }
+                if (grayImageXObject.getCOSObject() != original) {
+                    resources.put(xObjectName, grayImageXObject);
+                    markUpdated(resources.getCOSObject(), resources.getCOSObject().getCOSDictionary(COSName.XOBJECT));
+                    changed = true;
+                }
             }
             if(xObject instanceof PDFormXObject formXObject) {
-                PDResources nestedResources = formXObject.getResources();
-                if(nestedResources != null) {
-                    processResourcesForImages(nestedResources, document);
+                convertNestedContent(document, formXObject.getCOSObject(), formXObject, formXObject.getResources());
+                convertGroupColorSpace(formXObject.getCOSObject());
+            }
+        }
+        for (COSName patternName : resources.getPatternNames()) {
+            // Shading patterns have no content stream, their colors come from the shading's color space
+            if (resources.getPattern(patternName) instanceof PDTilingPattern pattern && pattern.getCOSObject() instanceof COSStream stream) {
+                convertNestedContent(document, stream, pattern, pattern.getResources());
+            }
+        }
+        // Fonts and graphics states are read from the COS dictionaries, loading every font just to find the Type3 ones would parse their font files
+        COSDictionary fonts = resources.getCOSObject().getCOSDictionary(COSName.FONT);
+        if (fonts != null) {
+            for (COSBase font : fonts.getValues()) {
+                if (dereference(font) instanceof COSDictionary fontDictionary && COSName.TYPE3.equals(fontDictionary.getCOSName(COSName.SUBTYPE))) {
+                    convertType3Font(document, fontDictionary);
+                }
+            }
+        }
+        COSDictionary graphicsStates = resources.getCOSObject().getCOSDictionary(COSName.EXT_G_STATE);
+        if (graphicsStates != null) {
+            for (COSBase graphicsState : graphicsStates.getValues()) {
+                // A soft mask's group is a form, a luminosity mask takes its values from the colors the group paints
+                if (dereference(graphicsState) instanceof COSDictionary state && state.getDictionaryObject(COSName.SMASK) instanceof COSDictionary softMask
+                        && softMask.getDictionaryObject(COSName.G) instanceof COSStream group) {
+                    PDFormXObject form = new PDFormXObject(group);
+                    convertNestedContent(document, group, form, form.getResources());
                 }
-
             }
         }
+        return changed;
     }
-    private List<Object> convertInlineColorsToGray(List<Object> tokens, PDPage page) throws IOException {
-        List<Object> newTokens = new ArrayList<>();
-        for (int i = 0; i < tokens.size(); i++) {
-            Object token = tokens.get(i);
-            if(token instanceof Operator operator) {
-                String name = operator.getName();
 
-                if(name.equals("rg") || name.equals("RG")) {
-                    int r = ((COSNumber) newTokens.remove(newTokens.size() - 3)).intValue();
-                    int g = ((COSNumber) newTokens.remove(newTokens.size() - 2)).intValue();
-                    int b = ((COSNumber) newTokens.remove(newTokens.size() - 1)).intValue();
+    /*
+    Every glyph of a Type3 font is a content stream of its own, glyphs starting with d0 paint in their own colors and get the same rewrite
+    as a form. The font's resources are shared by all its glyphs and converted once
+     */
+    private void convertType3Font(PDDocument document, COSDictionary fontDictionary) throws IOException {
+        if (!visitedType3Fonts.add(fontDictionary)) {
+            return;
+        }
+        PDType3Font font = new PDType3Font(fontDictionary);
+        COSDictionary charProcs = font.getCharProcs();
+        if (charProcs != null) {
+            for (COSBase charProc : charProcs.getValues()) {
+                if (dereference(charProc) instanceof COSStream stream) {
+                    convertNestedContent(document, stream, new PDType3CharProc(font, stream), null);
+                }
+            }
+        }
+        if (convertResources(document, font.getResources())) {
+            markUpdated(fontDictionary);
+        }
+    }
 
-                    float gray = ColorConverter.rgbToGray(r,g,b);
+    private static COSBase dereference(COSBase value) {
+        return value instanceof COSObject object ? object.getObject() : value;
+    }
 
-                    newTokens.add(COSFloat.get(String.valueOf(gray)));
-                    newTokens.add(Operator.getOperator(name.equals("rg") ? "g" : "G"));
-                }
-                else if (name.equals("k") || name.equals("K")) {
-                    if (i >= 4 &&
-                            tokens.get(i - 4) instanceof COSNumber c &&
-                            tokens.get(i - 3) instanceof COSNumber m &&
-                            tokens.get(i - 2) instanceof COSNumber y &&
-                            tokens.get(i - 1) instanceof COSNumber k) {
-
-                        newTokens.remove(newTokens.size() - 1); // k
-                        newTokens.remove(newTokens.size() - 1); // y
-                        newTokens.remove(newTokens.size() - 1); // m
-                        newTokens.remove(newTokens.size() - 1); // c
-
-                        float cVal = c.floatValue();
-                        float mVal = m.floatValue();
-                        float yVal = y.floatValue();
-                        float kVal = k.floatValue();
-
-                        boolean isWhite = cVal <= 0.001f && mVal <= 0.001f && yVal <= 0.001f && kVal <= 0.001f;
-
-                        if (isWhite) {
-                            newTokens.addAll(List.of(c, m, y, k));
-                            newTokens.add(operator);
-                            continue;
-                        }
-
-                        float[] rgb = PDDeviceCMYK.INSTANCE.toRGB(new float[] { cVal, mVal, yVal, kVal });
-                        float gray = ColorConverter.rgbToGray(rgb);
-
-                        newTokens.add(COSFloat.get(String.valueOf(gray)));
-                        newTokens.add(Operator.getOperator(name.equals("k") ? "g" : "G"));
+    // Normal, rollover and down appearances, each either a single stream or a dictionary of streams by appearance state
+    private void convertAppearances(PDDocument document, PDAnnotation annotation) throws IOException {
+        COSDictionary appearances = annotation.getCOSObject().getCOSDictionary(COSName.AP);
+        if (appearances == null) {
+            return;
+        }
+        for (COSBase appearance : appearances.getValues()) {
+            COSBase resolved = dereference(appearance);
+            if (resolved instanceof COSStream stream) {
+                convertAppearanceStream(document, stream);
+            } else if (resolved instanceof COSDictionary states) {
+                for (COSBase state : states.getValues()) {
+                    if (dereference(state) instanceof COSStream stream) {
+                        convertAppearanceStream(document, stream);
                     }
                 }
-                else if (name.equals("scn") && tokens.get(i - 1) instanceof COSNumber tint) {
-                    newTokens.remove(newTokens.size() - 1);
-                    float tintVal = tint.floatValue();
-//                    if(tintVal == 0) {
-//                        tintVal = 1f;
-//
-//                    }
-                    newTokens.add(COSInteger.get(String.valueOf(tintVal)));
-                    newTokens.add(Operator.getOperator("scn"));
-                }
-                else {
-                    newTokens.add(token);
-                }
-            } else {
-                newTokens.add(token);
             }
         }
-        return newTokens;
+    }
+
+    private void convertAppearanceStream(PDDocument document, COSStream stream) throws IOException {
+        PDAppearanceStream appearanceStream = new PDAppearanceStream(stream);
+        convertNestedContent(document, stream, appearanceStream, appearanceStream.getResources());
+        convertGroupColorSpace(stream);
+    }
+
+    /*
+    A transparency group blends what it paints in the color space named by its /CS, an RGB or CMYK blending space would put color back into
+    the gray the group's content was rewritten to. Returns whether the group was changed
+    Soft mask groups keep theirs, the mask's backdrop color /BC is given in that space
+     */
+    private static boolean convertGroupColorSpace(COSDictionary owner) {
+        if (!(dereference(owner.getDictionaryObject(COSName.GROUP)) instanceof COSDictionary group)
+                || !TRANSPARENCY.equals(group.getCOSName(COSName.S))) {
+            return false;
+        }
+        COSBase colorSpace = group.getDictionaryObject(COSName.CS);
+        if (colorSpace == null || COSName.DEVICEGRAY.equals(colorSpace)) {
+            return false;
+        }
+        group.setItem(COSName.CS, COSName.DEVICEGRAY);
+        // The group is usually a direct dictionary of its owner
+        markUpdated(group, owner);
+        return true;
+    }
+
+    /*
+    Rewrites the colors of a form, tiling pattern or appearance stream through the same rewriter as page content, then converts its resources
+    Every stream is visited once per document, which also ends the descent when a form draws itself through its own resources
+     */
+    private void convertNestedContent(PDDocument document, COSStream stream, PDContentStream contentStream, PDResources resources) throws IOException {
+        if (!visitedContentStreams.add(stream)) {
+            return;
+        }
+        int rewritten = rewriteInPlace(stream, contentStream);
+        report.recordNestedContent(rewritten);
+        // Resources are usually a direct dictionary of the stream
+        if (convertResources(document, resources)) {
+            markUpdated(stream);
+        }
+    }
+
+    /*
+    Forms and patterns keep their dictionary, BBox, Matrix and all, only their data is replaced. The rewritten content goes to an uncompressed buffer
+    first since the original is still being read, and is only compressed into the stream when a color operator was actually replaced
+     */
+    private int rewriteInPlace(COSStream stream, PDContentStream contentStream) throws IOException {
+        ByteArrayOutputStream rewrittenContent = new ByteArrayOutputStream();
+        int rewritten = colorRewriter.rewrite(contentStream, rewrittenContent);
+        if (rewritten > 0) {
+            stream.removeItem(COSName.DECODE_PARMS);
+            try (OutputStream out = stream.createOutputStream(COSName.FLATE_DECODE)) {
+                rewrittenContent.writeTo(out);
+            }
+            markUpdated(stream);
+        }
+        return rewritten;
     }
 }
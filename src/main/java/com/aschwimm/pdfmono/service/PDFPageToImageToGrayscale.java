@@ -1,18 +1,39 @@
 package com.aschwimm.pdfmono.service;
 
-import com.aschwimm.pdfmono.util.ColorConverter;
+import com.aschwimm.pdfmono.util.BilevelConverter;
+import com.aschwimm.pdfmono.util.BinarizationMethod;
+import com.aschwimm.pdfmono.util.ConversionStats;
+import com.aschwimm.pdfmono.util.ConversionStats.Stage;
+import com.aschwimm.pdfmono.util.HeapUsageMonitor;
+import com.aschwimm.pdfmono.util.ImageBufferPool;
 import com.aschwimm.pdfmono.util.PDFDocumentIO;
+import com.aschwimm.pdfmono.util.PDFInspector;
+import com.aschwimm.pdfmono.util.RasterGrayscaleConverter;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
-import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.RenderDestination;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.stream.IntStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 
@@ -30,6 +51,16 @@ public class PDFPageToImageToGrayscale {
     Converts pages in a document to RGB images, applies grayscale conversion, then constructs a new PDDocument from these images that's created at specified output path
      */
     public void convertToGrayscalePDF(String inputPdfPath, String outputPdfPath, float dpi) throws Exception {
+        ConversionOptions options = new ConversionOptions();
+        options.setDpi(dpi);
+        convertToGrayscalePDF(inputPdfPath, outputPdfPath, options);
+    }
+
+    /*
+    Same conversion as above, but settings such as the number of render workers are taken from ConversionOptions
+    With more than one thread pages are rendered in a pipeline and appended to the output document in page order
+     */
+    public void convertToGrayscalePDF(String inputPdfPath, String outputPdfPath, ConversionOptions options) throws Exception {
         File input = new File(inputPdfPath);
         File output = new File(outputPdfPath);
         if (!input.exists() || !input.isFile()) {
@@ -40,45 +71,39 @@ public class PDFPageToImageToGrayscale {
             throw new IOException("Output directory does not exist and could not be created: " + output.getParentFile().getAbsolutePath());
         }
 
-        try (PDDocument document = pdfDocumentIO.loadDocument(inputPdfPath); PDDocument outputDocument = new PDDocument()) {
-            PDFRenderer renderer = new PDFRenderer(document);
-            int pageCount = document.getNumberOfPages();
-            for (int i = 0; i < pageCount; i++) {
-
-                System.out.printf("\rProcessing page %d of %d...          ", (i + 1), pageCount);
-                System.out.flush();
-                    // 1. Assigned the current page rendered as an RGB image
-                    BufferedImage image = renderer.renderImageWithDPI(i, dpi, ImageType.RGB);
-                    // 2. Convert image to grayscale
-                    BufferedImage grayScaleImage = convertToGrayscaleWithGamma(image);
-                    // 3. Get current page and retrieve its dimensions
-                    PDPage originalPage = document.getPage(i);
-                    PDRectangle originalPageSize = originalPage.getMediaBox();
-                    // 4. Create new page of a size that matches original page and add it to output PDDocument document
-                    PDPage newPage = new PDPage(originalPageSize);
-                    outputDocument.addPage(newPage);
-                    // 5. Now that a page has been created and added to the document, an ImageXObject is created from the BufferedImage then linked to output document's Resource dictionary
-                    PDImageXObject pdImage = PDImageXObject.createFromByteArray(
-                            outputDocument,
-                            bufferedImageToByteArray(grayScaleImage, "JPEG"),
-                            "grayscale_page_" + (i + 1)
-                    );
-
-                    // 6. Image is added to page with a reference to the image in document's Resource dictionary
-                    try (PDPageContentStream contentStream = new PDPageContentStream(outputDocument, newPage)) {
-                        // Scale image to fit the page exactly
-                        contentStream.drawImage(pdImage, 0, 0,
-                                originalPageSize.getWidth(),
-                                originalPageSize.getHeight());
-                    }
-
-                    // Clean up memory
-                    image.flush();
-                    grayScaleImage.flush();
+        // In streaming mode every encoded page image goes into a scratch file backed stream of the output document as soon as it's produced,
+        // so heap holds one page raster per worker plus small page dictionaries instead of every page's image data
+        HeapUsageMonitor heapMonitor = HeapUsageMonitor.start();
+        ConversionStats stats = ConversionStats.start(options.getStatsFile() != null);
+        boolean streaming = options.isStreaming();
+        try (PDDocument document = pdfDocumentIO.loadDocument(inputPdfPath, streaming);
+             PDDocument outputDocument = pdfDocumentIO.createDocument(streaming)) {
+            boolean[] alreadyGray = findGrayscalePages(document, options, stats);
+            if (options.getThreads() > 1 && document.getNumberOfPages() > 1) {
+                convertPagesInParallel(inputPdfPath, document, outputDocument, alreadyGray, options, stats);
+            } else {
+                convertPagesSequentially(document, outputDocument, alreadyGray, options, stats);
             }
             System.out.println();
-            outputDocument.save(outputPdfPath);
+            int passedThrough = 0;
+            for (boolean gray : alreadyGray) {
+                passedThrough += gray ? 1 : 0;
+            }
+            if (passedThrough > 0) {
+                System.out.println(passedThrough + " of " + alreadyGray.length + " pages were already grayscale and copied without rendering.");
+            }
+            try (ConversionStats.Measurement ignored = stats.measure(Stage.SAVE, ConversionStats.DOCUMENT)) {
+                outputDocument.save(outputPdfPath);
+            }
             System.out.println("All pages processed. Output document saved.");
+            if (streaming) {
+                System.out.println("Peak heap usage: " + heapMonitor.formatPeakHeap());
+            }
+            stats.finish(document.getNumberOfPages(), output.length());
+            if (options.getStatsFile() != null) {
+                stats.writeJson(options.getStatsFile());
+                System.out.println("Conversion statistics saved to: " + options.getStatsFile());
+            }
         } catch (IOException e) {
             throw new IOException("Failed to convert PDF due to I/O error: " + e.getMessage(), e);
         } catch (Exception e) {
@@ -86,56 +111,331 @@ public class PDFPageToImageToGrayscale {
         }
     }
 
-    // Helper method to convert BufferedImage to byte array
-    private static byte[] bufferedImageToByteArray(BufferedImage image, String format) throws IOException {
-        try (java.io.ByteArrayOutputStream byteArrayOutputStream = new java.io.ByteArrayOutputStream()) {
-            javax.imageio.ImageIO.write(image, format, byteArrayOutputStream);
-            return byteArrayOutputStream.toByteArray();
+    /*
+    Pre-scan stage, classifies every page as already grayscale or needing conversion using PDFInspector's content stream walk
+    A page whose scan fails needs conversion. Pass-through only applies to grayscale output, monochrome output needs every page reduced to 1 bit
+     */
+    private boolean[] findGrayscalePages(PDDocument document, ConversionOptions options, ConversionStats stats) throws IOException {
+        int pageCount = document.getNumberOfPages();
+        boolean[] alreadyGray = new boolean[pageCount];
+        if (!options.isPassThroughGrayPages() || options.isMonochrome()) {
+            return alreadyGray;
+        }
+        PDFInspector inspector = new PDFInspector(pdfDocumentIO);
+        for (int i = 0; i < pageCount; i++) {
+            System.out.printf("\rScanning page %d of %d...          ", (i + 1), pageCount);
+            System.out.flush();
+            try (ConversionStats.Measurement ignored = stats.measure(Stage.PRESCAN, i)) {
+                alreadyGray[i] = inspector.isGrayscalePage(document.getPage(i));
+            } catch (IOException | RuntimeException e) {
+                // The renderer copes with more than the pre-scan, a page the scan can't read is rendered like any color page
+                System.err.println("\nPre-scan of page " + (i + 1) + " failed, it will be rendered: " + e.getMessage());
+                alreadyGray[i] = false;
+            }
+        }
+        return alreadyGray;
+    }
+
+    /*
+    Original single threaded loop, every page is rendered, converted and appended by one PDFRenderer
+     */
+    private void convertPagesSequentially(PDDocument document, PDDocument outputDocument, boolean[] alreadyGray, ConversionOptions options,
+                                          ConversionStats stats) throws IOException {
+        PDFRenderer renderer = new PDFRenderer(document);
+        PageImageEncoder encoder = PageImageEncoder.forOptions(options);
+        // A single thread needs at most one raster of each size and never holds on to an encode buffer
+        ImageBufferPool pool = new ImageBufferPool(1, 1);
+        int pageCount = document.getNumberOfPages();
+        for (int i = 0; i < pageCount; i++) {
+            printProgress(i, pageCount);
+            int pageIndex = i;
+            if (alreadyGray[i]) {
+                try (ConversionStats.Measurement ignored = stats.measure(Stage.APPEND, pageIndex)) {
+                    outputDocument.importPage(document.getPage(i));
+                }
+                continue;
+            }
+            // The encoder writes the compressed image straight into a stream of the output document, in tiled mode band by band
+            PDPage page = document.getPage(i);
+            Dimension size = pageRasterSize(page, options);
+            PDImageXObject image = encoder.createImage(outputDocument, size.width, size.height,
+                    bandEncoder -> renderPageBands(renderer, page, pageIndex, size, options, stats, pool, bandEncoder));
+            try (ConversionStats.Measurement ignored = stats.measure(Stage.APPEND, pageIndex)) {
+                appendPage(outputDocument, page, image);
+            }
+        }
+    }
+
+    /*
+    PDFRenderer isn't thread-safe, so every worker gets its own loaded copy of the input document and its own renderer
+    Workers also encode their page, the main thread only copies the encoded bytes into a stream of the output document
+    Rasters and encode buffers are shared by all workers through one pool, encode buffers return to it once their page is appended
+    Pages are submitted in order, skipping pages that are already gray, and at most maxPagesInFlight of them are rendered but not yet appended, the main thread waits on the oldest page,
+    appends it to the output document, then tops the pipeline back up. The output document is only ever touched by the main thread
+     */
+    private void convertPagesInParallel(String inputPdfPath, PDDocument document, PDDocument outputDocument, boolean[] alreadyGray,
+                                        ConversionOptions options, ConversionStats stats) throws Exception {
+        int pageCount = document.getNumberOfPages();
+        int threads = Math.min(options.getThreads(), pageCount);
+        int maxPagesInFlight = Math.max(options.getMaxPagesInFlight(), threads);
+        PageImageEncoder encoder = PageImageEncoder.forOptions(options);
+        ImageBufferPool pool = new ImageBufferPool(threads, maxPagesInFlight);
+
+        // Every worker is closed from this list, a worker interrupted by shutdownNow may never have made it back to the idle queue
+        List<RenderWorker> workers = new ArrayList<>(threads);
+        BlockingQueue<RenderWorker> idleWorkers = new ArrayBlockingQueue<>(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                RenderWorker worker = new RenderWorker(pdfDocumentIO.loadDocument(inputPdfPath, options.isStreaming()));
+                workers.add(worker);
+                idleWorkers.add(worker);
+            }
+            Deque<Future<PageImageEncoder.EncodedImage>> inFlight = new ArrayDeque<>();
+            int nextPage = 0;
+            for (int i = 0; i < pageCount; i++) {
+                while (nextPage < pageCount && inFlight.size() < maxPagesInFlight) {
+                    int pageIndex = nextPage++;
+                    // Already gray pages are never rendered, so they don't take up a slot in the pipeline
+                    if (alreadyGray[pageIndex]) {
+                        continue;
+                    }
+                    inFlight.addLast(executor.submit(() -> {
+                        RenderWorker worker = idleWorkers.take();
+                        try {
+                            PDPage page = worker.document().getPage(pageIndex);
+                            Dimension size = pageRasterSize(page, options);
+                            return encoder.encode(size.width, size.height,
+                                    bandEncoder -> renderPageBands(worker.renderer(), page, pageIndex, size, options, stats, pool, bandEncoder),
+                                    pool.acquireBuffer());
+                        } finally {
+                            // Never full, the queue holds every worker, and unlike put offer can't be interrupted
+                            idleWorkers.offer(worker);
+                        }
+                    }));
+                }
+                printProgress(i, pageCount);
+                if (alreadyGray[i]) {
+                    try (ConversionStats.Measurement ignored = stats.measure(Stage.APPEND, i)) {
+                        outputDocument.importPage(document.getPage(i));
+                    }
+                    continue;
+                }
+                PageImageEncoder.EncodedImage encodedImage;
+                try {
+                    encodedImage = inFlight.removeFirst().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception cause) {
+                        throw cause;
+                    }
+                    throw e;
+                }
+                // Copying the encoded bytes into the output document is part of appending on this path
+                try (ConversionStats.Measurement ignored = stats.measure(Stage.APPEND, i)) {
+                    PDImageXObject image = encoder.createImage(outputDocument, encodedImage);
+                    pool.releaseBuffer(encodedImage.data());
+                    appendPage(outputDocument, document.getPage(i), image);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            for (RenderWorker worker : workers) {
+                worker.document().close();
+            }
         }
     }
 
+    // Same page raster size renderImageWithDPI would allocate, width and height swap for pages rotated a quarter turn
+    private static Dimension pageRasterSize(PDPage page, ConversionOptions options) {
+        float scale = options.getDpi() / 72f;
+        PDRectangle cropBox = page.getCropBox();
+        boolean quarterTurn = page.getRotation() == 90 || page.getRotation() == 270;
+        float pageWidth = quarterTurn ? cropBox.getHeight() : cropBox.getWidth();
+        float pageHeight = quarterTurn ? cropBox.getWidth() : cropBox.getHeight();
+        return new Dimension(Math.max((int) Math.floor(pageWidth * scale), 1), Math.max((int) Math.floor(pageHeight * scale), 1));
+    }
+
     /*
-    Images are converted to grayscale with gamma correction to prevent colors converted to grayscale from becoming too dark
-    Conversion is done pixel by pixel in parallel
+    Renders the page and writes it to bandEncoder as one full page image, or in tiled mode as a series of horizontal bands from top to bottom
+    that the encoder appends to the same image. Rasters come from the pool and go back to it once the encoder has taken the band
      */
-    private static BufferedImage convertToGrayscaleWithGamma(BufferedImage originalImage) {
-        BufferedImage grayscaleImage = new BufferedImage(
-                originalImage.getWidth(),
-                originalImage.getHeight(),
-                BufferedImage.TYPE_BYTE_GRAY
-        );
-        // Default gamma value
-        double gamma = 2.2;
-        // Inverse gamma used to linearize the luminance by removing gamma intensity from grayscale values
-        double invGamma = 1.0 / gamma;
-
-        int width = originalImage.getWidth();
-        int height = originalImage.getHeight();
-
-        // Process rows in parallel for better performance on large images
-        IntStream.range(0, height).parallel().forEach(y -> {
-            for (int x = 0; x < width; x++) {
-                // RGB is a packed 32-bit ARGB pixel (alpha-red-green-blue)
-                int rgb = originalImage.getRGB(x, y);
-                // Shift right 16 bits placing red value in lowest 8 bits, then mask lowest 8 bits discarding alpha value
-                int red = (rgb >> 16) & 0xFF;
-                // Shift right 8 bits placing green value in lowest 8 bits, then mask lowest bits discarding alpha and red values
-                int green = (rgb >> 8) & 0xFF;
-                // Blue is already in the lowest 8 bits, masking discards alpha, red and green values
-                int blue = rgb & 0xFF;
-                // Apply standard grayscale conversion and normalize to 0-1 for normalized intensity
-                double gray = (ColorConverter.rgbToGray(red,green,blue)) / 255.0;
-                // Removes gamma encoding from the intensity by raising to the power of
-                gray = Math.pow(gray, invGamma);
-                // Convert back into 8 bit range with bounds for overflow and underflow
-                int grayValue = (int) Math.min(255, Math.max(0, gray * 255));
-                // Convert gray values back into RGB integer by shifting the gray value into each 8 bit position, alpha channel is ignored and is set to 0
-                int grayRGB = (grayValue << 16) | (grayValue << 8) | grayValue;
-                // Grayscale RGB pixel replaces colored RGB pixel in pixel array
-                grayscaleImage.setRGB(x, y, grayRGB);
-            }
-        });
-
-        return grayscaleImage;
+    private static void renderPageBands(PDFRenderer renderer, PDPage page, int pageIndex, Dimension size, ConversionOptions options,
+                                        ConversionStats stats, ImageBufferPool pool, PageImageEncoder.BandEncoder bandEncoder) throws IOException {
+        float scale = options.getDpi() / 72f;
+        int widthPx = size.width;
+        int heightPx = size.height;
+        // Without tiling the whole page is a single band
+        int bandHeight = options.getBandHeight() > 0 ? Math.min(options.getBandHeight(), heightPx) : heightPx;
+        // 1. Render as an RGB image, or straight to gray when gamma correction is disabled
+        int bandType = options.isGammaCorrection() ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_BYTE_GRAY;
+        // One converter for all bands of the page, so dithering continues across band edges
+        BilevelConverter bilevelConverter = options.isMonochrome()
+                ? pageBilevelConverter(renderer, pageIndex, scale, widthPx, heightPx, bandHeight, options, stats, pool)
+                : null;
+        for (int top = 0; top < heightPx; top += bandHeight) {
+            BufferedImage bandImage = pool.acquireImage(widthPx, Math.min(bandHeight, heightPx - top), bandType);
+            try {
+                try (ConversionStats.Measurement ignored = stats.measure(Stage.RENDER, pageIndex)) {
+                    renderBand(renderer, pageIndex, scale, bandImage, top);
+                }
+                BufferedImage outputImage = toOutputImage(bandImage, pageIndex, options, bilevelConverter, stats, pool);
+                try (ConversionStats.Measurement ignored = stats.measure(Stage.ENCODE, pageIndex)) {
+                    bandEncoder.writeBand(outputImage);
+                } finally {
+                    if (outputImage != bandImage) {
+                        pool.releaseImage(outputImage);
+                    }
+                }
+            } finally {
+                pool.releaseImage(bandImage);
+            }
+        }
+    }
+
+    /*
+    Otsu picks its level from the histogram of the image it's given, a band only sees part of the page and would get a level of its own.
+    In tiled mode the level is taken once from the whole page rendered at a lower resolution, scaled so the prepass raster holds no more
+    pixels than a band, and every band is then cut at that fixed level
+     */
+    private static BilevelConverter pageBilevelConverter(PDFRenderer renderer, int pageIndex, float scale, int widthPx, int heightPx,
+                                                         int bandHeight, ConversionOptions options, ConversionStats stats,
+                                                         ImageBufferPool pool) throws IOException {
+        if (options.getBinarizationMethod() != BinarizationMethod.OTSU || bandHeight >= heightPx) {
+            return new BilevelConverter(options.getBinarizationMethod(), options.getThreshold());
+        }
+        double prepassFactor = Math.sqrt((double) bandHeight / heightPx);
+        int prepassType = options.isGammaCorrection() ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_BYTE_GRAY;
+        BufferedImage prepassImage = pool.acquireImage(Math.max((int) (widthPx * prepassFactor), 1), Math.max((int) (heightPx * prepassFactor), 1),
+                prepassType);
+        try {
+            try (ConversionStats.Measurement ignored = stats.measure(Stage.RENDER, pageIndex)) {
+                renderBand(renderer, pageIndex, (float) (scale * prepassFactor), prepassImage, 0);
+            }
+            BufferedImage grayPrepass = toGrayImage(prepassImage, pageIndex, options, stats, pool);
+            try {
+                return new BilevelConverter(BinarizationMethod.THRESHOLD, BilevelConverter.otsuThreshold(grayPrepass));
+            } finally {
+                if (grayPrepass != prepassImage) {
+                    pool.releaseImage(grayPrepass);
+                }
+            }
+        } finally {
+            pool.releaseImage(prepassImage);
+        }
+    }
+
+    /*
+    Renders the rows of the page starting at top into bandImage, the graphics are shifted up by top and clipped to the band
+    so only content that intersects the band gets rasterized. A full page is the band starting at 0 that covers every row
+     */
+    private static void renderBand(PDFRenderer renderer, int pageIndex, float scale, BufferedImage bandImage, int top) throws IOException {
+        Graphics2D graphics = bandImage.createGraphics();
+        try {
+            // renderPageToGraphics clears the page area with the background color, white matches renderImageWithDPI
+            // The whole raster is cleared as well since a pooled image still holds the previous page
+            graphics.setBackground(Color.WHITE);
+            graphics.clearRect(0, 0, bandImage.getWidth(), bandImage.getHeight());
+            graphics.translate(0, -top);
+            graphics.clipRect(0, top, bandImage.getWidth(), bandImage.getHeight());
+            // Export is the destination renderImageWithDPI renders for, optional content is shown the same way
+            renderer.renderPageToGraphics(pageIndex, graphics, scale, scale, RenderDestination.EXPORT);
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    /*
+    Turns a rendered page or band into the image that gets encoded, RGB renders are converted to gray and monochrome output is reduced to 1 bit
+    by the page's bilevel converter. This is the part of the work that can run on any worker thread, the returned image is either the input
+    or an image from the pool
+     */
+    private static BufferedImage toOutputImage(BufferedImage image, int pageIndex, ConversionOptions options, BilevelConverter bilevelConverter,
+                                               ConversionStats stats, ImageBufferPool pool) {
+        BufferedImage grayScaleImage = toGrayImage(image, pageIndex, options, stats, pool);
+        if (bilevelConverter == null) {
+            return grayScaleImage;
+        }
+        try (ConversionStats.Measurement ignored = stats.measure(Stage.CONVERT, pageIndex)) {
+            BufferedImage bilevelImage = pool.acquireImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+            bilevelConverter.convert(grayScaleImage, bilevelImage);
+            if (grayScaleImage != image) {
+                pool.releaseImage(grayScaleImage);
+            }
+            return bilevelImage;
+        }
+    }
+
+    // RGB renders are converted to a gray image from the pool, gray renders are returned as they are
+    private static BufferedImage toGrayImage(BufferedImage image, int pageIndex, ConversionOptions options, ConversionStats stats,
+                                             ImageBufferPool pool) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        try (ConversionStats.Measurement ignored = stats.measure(Stage.CONVERT, pageIndex)) {
+            // 2. Convert image to grayscale, reading and writing the rasters directly
+            BufferedImage grayScaleImage = pool.acquireImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+            RasterGrayscaleConverter.withDefaultGamma(options.getLuminanceModel()).convert(image, grayScaleImage);
+            return grayScaleImage;
+        }
+    }
+
+    /*
+    Adds a page to the output document that matches the original page size and draws the rendered image over it
+    Must only be called from the thread that owns the output document
+     */
+    private static void appendPage(PDDocument outputDocument, PDPage originalPage, PDImageXObject pdImage) throws IOException {
+        // 3. Get current page and retrieve its dimensions
+        PDRectangle originalPageSize = originalPage.getMediaBox();
+        // 4. Create new page of a size that matches original page and add it to output PDDocument document
+        PDPage newPage = new PDPage(originalPageSize);
+        outputDocument.addPage(newPage);
+
+        // 5. Image is added to page with a reference to the image in document's Resource dictionary
+        try (PDPageContentStream contentStream = new PDPageContentStream(outputDocument, newPage)) {
+            // Scale image to fit the page exactly
+            contentStream.drawImage(pdImage, 0, 0, originalPageSize.getWidth(), originalPageSize.getHeight());
+        }
+    }
+
+    /*
+    Hybrid conversion, replaces the content of one page with its gray rendering inside the document it belongs to
+    The page is rendered without its rotation so the images line up with the crop box in the page's own coordinates, the rotation still applies
+    to the new content. The renderer should skip annotations, they stay on the page and are converted in place
+    Must only be called from the thread that owns the document
+     */
+    static void rasterizePageInPlace(PDFRenderer renderer, PDDocument document, int pageIndex, ConversionOptions options,
+                                     ImageBufferPool pool) throws IOException {
+        PDPage page = document.getPage(pageIndex);
+        PageImageEncoder encoder = PageImageEncoder.forOptions(options);
+        ConversionStats stats = ConversionStats.start(false);
+        PDImageXObject image;
+        int rotation = page.getRotation();
+        page.setRotation(0);
+        try {
+            Dimension size = pageRasterSize(page, options);
+            image = encoder.createImage(document, size.width, size.height,
+                    bandEncoder -> renderPageBands(renderer, page, pageIndex, size, options, stats, pool, bandEncoder));
+        } finally {
+            page.setRotation(rotation);
+        }
+        PDRectangle cropBox = page.getCropBox();
+        // Fonts, images and forms of the old content aren't drawn anymore, fresh resources keep them out of this page
+        page.setResources(new PDResources());
+        try (PDPageContentStream contentStream = new PDPageContentStream(document, page, PDPageContentStream.AppendMode.OVERWRITE, true)) {
+            contentStream.drawImage(image, cropBox.getLowerLeftX(), cropBox.getLowerLeftY(), cropBox.getWidth(), cropBox.getHeight());
+        }
+    }
+
+    private static void printProgress(int pageIndex, int pageCount) {
+        System.out.printf("\rProcessing page %d of %d...          ", (pageIndex + 1), pageCount);
+        System.out.flush();
+    }
+
+    // A worker's private copy of the input document and the renderer bound to it
+    private record RenderWorker(PDDocument document, PDFRenderer renderer) {
+        RenderWorker(PDDocument document) {
+            this(document, new PDFRenderer(document));
+        }
     }
 }
\ No newline at end of file
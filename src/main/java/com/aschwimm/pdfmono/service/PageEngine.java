@@ -0,0 +1,9 @@
+package com.aschwimm.pdfmono.service;
+
+/*
+Conversion that handled a page in the hybrid mode, in place keeps text and vector content, raster replaces the page's content with a gray image
+ */
+public enum PageEngine {
+    IN_PLACE,
+    RASTER
+}
@@ -0,0 +1,21 @@
+package com.aschwimm.pdfmono.service;
+
+/*
+Compression used for the page images written by the page-to-image conversion
+JPEG (DCTDecode) gives the smallest files for scanned material, Flate is lossless and keeps text edges crisp at the cost of size
+ */
+public enum PageImageCodec {
+    JPEG,
+    FLATE;
+
+    /*
+    Parses the value of the --codec command line option
+     */
+    public static PageImageCodec fromName(String name) {
+        return switch (name.toLowerCase()) {
+            case "jpeg", "jpg", "dct" -> JPEG;
+            case "flate", "zip", "lossless" -> FLATE;
+            default -> throw new IllegalArgumentException("Unknown codec '" + name + "', expected jpeg or flate.");
+        };
+    }
+}
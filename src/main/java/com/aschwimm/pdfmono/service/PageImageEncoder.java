@@ -0,0 +1,123 @@
+package com.aschwimm.pdfmono.service;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+Turns a converted page raster into an image XObject of the output document
+Encoders write the compressed samples straight into the XObject's COSStream, so there is no intermediate byte array and PDFBox never has to sniff
+or re-parse the encoded image. The rows of an image can arrive in several bands from top to bottom, tiled rendering feeds a page into one image
+this way. For the parallel pipeline the work is split: encode() runs on a worker thread and writes the filtered bytes into a caller supplied buffer,
+createImage(document, encoded) then copies them into a new stream on the thread that owns the output document
+ */
+public interface PageImageEncoder {
+
+    // Starts encoding an image of width x height into out, its rows are then written band by band from the top
+    BandEncoder start(int width, int height, OutputStream out) throws IOException;
+
+    int getBitsPerComponent();
+
+    COSName getFilter();
+
+    // Decode parameters the filter needs, null when the defaults apply
+    default COSDictionary getDecodeParameters(int width, int height) {
+        return null;
+    }
+
+    // Encodes the image and writes it directly into a new image XObject of document
+    default PDImageXObject createImage(PDDocument document, BufferedImage image) throws IOException {
+        return createImage(document, image.getWidth(), image.getHeight(), bandEncoder -> bandEncoder.writeBand(image));
+    }
+
+    // Creates an image XObject of document whose rows bandSource writes band by band, each band is encoded into the stream as it arrives
+    default PDImageXObject createImage(PDDocument document, int width, int height, BandSource bandSource) throws IOException {
+        return createImageStream(document, width, height, out -> encodeBands(width, height, bandSource, out));
+    }
+
+    // Encodes the image into buffer without touching any document, safe to call from worker threads
+    default EncodedImage encode(BufferedImage image, ByteArrayOutputStream buffer) throws IOException {
+        return encode(image.getWidth(), image.getHeight(), bandEncoder -> bandEncoder.writeBand(image), buffer);
+    }
+
+    // Same as above with the rows supplied band by band
+    default EncodedImage encode(int width, int height, BandSource bandSource, ByteArrayOutputStream buffer) throws IOException {
+        encodeBands(width, height, bandSource, buffer);
+        return new EncodedImage(width, height, buffer);
+    }
+
+    // Wraps bytes produced by encode() in a new image XObject of document
+    default PDImageXObject createImage(PDDocument document, EncodedImage encoded) throws IOException {
+        return createImageStream(document, encoded.width(), encoded.height(), out -> encoded.data().writeTo(out));
+    }
+
+    // Monochrome pages are always CCITT Group 4, gray pages use the configured codec
+    static PageImageEncoder forOptions(ConversionOptions options) {
+        if (options.isMonochrome()) {
+            return new CcittPageImageEncoder();
+        }
+        return forCodec(options.getCodec(), options.getJpegQuality());
+    }
+
+    static PageImageEncoder forCodec(PageImageCodec codec, float jpegQuality) {
+        return switch (codec) {
+            case JPEG -> new JpegPageImageEncoder(jpegQuality);
+            case FLATE -> new FlatePageImageEncoder();
+        };
+    }
+
+    private void encodeBands(int width, int height, BandSource bandSource, OutputStream out) throws IOException {
+        BandEncoder bandEncoder = start(width, height, out);
+        bandSource.writeBands(bandEncoder);
+        bandEncoder.finish();
+    }
+
+    /*
+    Creates a DeviceGray image XObject whose stream data is written, already filtered, by streamWriter
+     */
+    private PDImageXObject createImageStream(PDDocument document, int width, int height, StreamWriter streamWriter) throws IOException {
+        COSStream stream = document.getDocument().createCOSStream();
+        try (OutputStream out = stream.createRawOutputStream()) {
+            streamWriter.write(out);
+        }
+        stream.setItem(COSName.TYPE, COSName.XOBJECT);
+        stream.setItem(COSName.SUBTYPE, COSName.IMAGE);
+        stream.setInt(COSName.WIDTH, width);
+        stream.setInt(COSName.HEIGHT, height);
+        stream.setInt(COSName.BITS_PER_COMPONENT, getBitsPerComponent());
+        stream.setItem(COSName.COLORSPACE, COSName.DEVICEGRAY);
+        stream.setItem(COSName.FILTER, getFilter());
+        stream.setItem(COSName.DECODE_PARMS, getDecodeParameters(width, height));
+        return new PDImageXObject(new PDStream(stream), null);
+    }
+
+    // Encodes the rows of one image as they arrive, every band continues below the rows written before it
+    interface BandEncoder {
+        void writeBand(BufferedImage band) throws IOException;
+
+        // Completes the filtered data once every row has been written, the caller closes the stream underneath
+        void finish() throws IOException;
+    }
+
+    // Writes every row of an image to a band encoder, top to bottom
+    interface BandSource {
+        void writeBands(BandEncoder bandEncoder) throws IOException;
+    }
+
+    // Writes encoded image data to the raw (unfiltered) output of a stream
+    interface StreamWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    // Filtered image data produced off the document thread, data is the buffer passed to encode() and stays owned by the caller
+    record EncodedImage(int width, int height, ByteArrayOutputStream data) {
+    }
+}
@@ -0,0 +1,26 @@
+package com.aschwimm.pdfmono.service;
+
+/*
+How the in-place conversion writes its output
+COMPRESSED rewrites the whole file and packs objects into compressed object streams, the smallest output and PDFBox's default
+FULL rewrites the whole file with a plain cross-reference table, skipping the object stream compression
+INCREMENTAL copies the original file byte for byte and appends only the objects the conversion changed, so fonts, embedded files and
+untouched images are never decoded or recompressed and save time depends on how much changed rather than on the size of the file
+ */
+public enum SaveMode {
+    COMPRESSED,
+    FULL,
+    INCREMENTAL;
+
+    /*
+    Parses the value of the --save command line option
+     */
+    public static SaveMode fromName(String name) {
+        return switch (name.toLowerCase()) {
+            case "compressed", "object-streams" -> COMPRESSED;
+            case "full", "plain" -> FULL;
+            case "incremental" -> INCREMENTAL;
+            default -> throw new IllegalArgumentException("Unknown save mode '" + name + "', expected compressed, full or incremental.");
+        };
+    }
+}
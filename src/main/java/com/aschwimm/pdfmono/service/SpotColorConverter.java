@@ -0,0 +1,173 @@
+package com.aschwimm.pdfmono.service;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+Points the Separation and DeviceN color spaces of a document at DeviceGray
+Every Separation space shares a single Type 2 tint transform and every DeviceN space with the same colorants layout shares a single Type 0 one,
+both are evaluated by viewers with a multiply and an interpolation instead of a PostScript interpreter. One instance per document, color spaces
+already pointed at gray are remembered by identity so spaces shared between pages are only touched once
+ */
+class SpotColorConverter {
+    // Darkening of a full tint, a tint t paints the gray 1 - 0.755 t like the original "{ 0.755 mul 1 exch sub }" Type 4 function did
+    private static final float TINT_DARKENING = 0.755f;
+    // DeviceN functions sample every corner of the unit cube, 2^8 samples is plenty, spaces with more colorants keep their own transform
+    static final int MAX_DEVICEN_COLORANTS = 8;
+    private static final COSName NONE = COSName.getPDFName("None");
+
+    private final Set<COSArray> convertedColorSpaces = Collections.newSetFromMap(new IdentityHashMap<>());
+    // DeviceN functions by number of colorants, and which of them are the None colorant, packed as count << 32 | noneMask
+    private final Map<Long, COSStream> deviceNFunctions = new HashMap<>();
+    private COSDictionary separationFunction;
+    private int separationCount;
+    private int deviceNCount;
+
+    /*
+    Rewrites the Separation and DeviceN entries of a resource dictionary's ColorSpace dictionary in place, returns whether any was rewritten
+    Edited arrays and the dictionaries holding them are flagged for an incremental save
+     */
+    boolean convert(PDDocument document, PDResources resources) throws IOException {
+        if (resources == null) {
+            return false;
+        }
+        COSDictionary colorSpaces = resources.getCOSObject().getCOSDictionary(COSName.COLORSPACE);
+        if (colorSpaces == null) {
+            return false;
+        }
+        boolean converted = false;
+        for (COSName name : colorSpaces.keySet()) {
+            if (colorSpaces.getDictionaryObject(name) instanceof COSArray colorSpace && convertedColorSpaces.add(colorSpace)
+                    && convert(document, colorSpace)) {
+                colorSpace.setNeedToBeUpdated(true);
+                converted = true;
+            }
+        }
+        if (converted) {
+            colorSpaces.setNeedToBeUpdated(true);
+            resources.getCOSObject().setNeedToBeUpdated(true);
+        }
+        return converted;
+    }
+
+    int getSeparationCount() {
+        return separationCount;
+    }
+
+    int getDeviceNCount() {
+        return deviceNCount;
+    }
+
+    // [/Separation name alternate tintTransform] and [/DeviceN names alternate tintTransform attributes], both keep the alternate at index 2
+    private boolean convert(PDDocument document, COSArray colorSpace) throws IOException {
+        if (colorSpace.size() < 4) {
+            return false;
+        }
+        COSBase family = colorSpace.getObject(0);
+        if (COSName.SEPARATION.equals(family)) {
+            colorSpace.set(2, COSName.DEVICEGRAY);
+            colorSpace.set(3, separationFunction());
+            separationCount++;
+            return true;
+        } else if (COSName.DEVICEN.equals(family) && colorSpace.getObject(1) instanceof COSArray colorants
+                && colorants.size() <= MAX_DEVICEN_COLORANTS) {
+            colorSpace.set(2, COSName.DEVICEGRAY);
+            colorSpace.set(3, deviceNFunction(document, colorants));
+            deviceNCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /*
+    Type 2 function from C0 = [1] at no tint to C1 = [0.245] at full tint, exponent 1, created once and written as a single indirect object
+     */
+    private COSDictionary separationFunction() {
+        if (separationFunction == null) {
+            separationFunction = new COSDictionary();
+            separationFunction.setInt(COSName.FUNCTION_TYPE, 2);
+            separationFunction.setItem(COSName.DOMAIN, unitRanges(1));
+            separationFunction.setItem(COSName.C0, floats(1f));
+            separationFunction.setItem(COSName.C1, floats(1f - TINT_DARKENING));
+            separationFunction.setInt(COSName.N, 1);
+            separationFunction.setDirect(false);
+        }
+        return separationFunction;
+    }
+
+    /*
+    Type 0 function with two samples per colorant, each colorant darkens what the others left like ink on paper, 1 - 0.755 t per colorant
+    That product is linear in every single tint, so the function's multilinear interpolation between the corners reproduces it exactly
+    The None colorant never paints and doesn't darken anything
+     */
+    private COSStream deviceNFunction(PDDocument document, COSArray colorants) throws IOException {
+        int count = colorants.size();
+        long noneMask = 0;
+        for (int i = 0; i < count; i++) {
+            if (NONE.equals(colorants.getObject(i))) {
+                noneMask |= 1L << i;
+            }
+        }
+        long key = ((long) count << 32) | noneMask;
+        COSStream function = deviceNFunctions.get(key);
+        if (function != null) {
+            return function;
+        }
+        function = document.getDocument().createCOSStream();
+        function.setInt(COSName.FUNCTION_TYPE, 0);
+        function.setItem(COSName.DOMAIN, unitRanges(count));
+        function.setItem(COSName.RANGE, unitRanges(1));
+        COSArray size = new COSArray();
+        for (int i = 0; i < count; i++) {
+            size.add(COSInteger.TWO);
+        }
+        function.setItem(COSName.SIZE, size);
+        function.setInt(COSName.BITS_PER_SAMPLE, 16);
+        // The first input varies fastest, so bit i of a sample's index is the tint of colorant i at that corner
+        try (OutputStream out = function.createOutputStream(COSName.FLATE_DECODE)) {
+            for (int corner = 0; corner < 1 << count; corner++) {
+                float gray = 1f;
+                for (int i = 0; i < count; i++) {
+                    if ((corner & (1 << i)) != 0 && (noneMask & (1L << i)) == 0) {
+                        gray *= 1f - TINT_DARKENING;
+                    }
+                }
+                int sample = Math.round(gray * 65535f);
+                out.write(sample >> 8);
+                out.write(sample & 0xFF);
+            }
+        }
+        deviceNFunctions.put(key, function);
+        return function;
+    }
+
+    private static COSArray unitRanges(int count) {
+        COSArray ranges = new COSArray();
+        for (int i = 0; i < count; i++) {
+            ranges.add(COSInteger.ZERO);
+            ranges.add(COSInteger.ONE);
+        }
+        return ranges;
+    }
+
+    private static COSArray floats(float value) {
+        COSArray array = new COSArray();
+        array.add(new COSFloat(value));
+        return array;
+    }
+}
@@ -0,0 +1,212 @@
+package com.aschwimm.pdfmono.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/*
+Reduces TYPE_BYTE_GRAY page images to 1 bit TYPE_BYTE_BINARY images, the format CCITT Group 4 compression works on
+Pixels at or above the threshold become white. Thresholding splits the image into horizontal bands that are processed in parallel,
+Floyd-Steinberg runs from top to bottom since every row takes on the error of the row above it.
+A converter keeps the error owed to the row below its last converted row, so a page converted band by band, top to bottom, through
+one converter gets exactly the bits of converting it whole. Use a new converter for every page
+ */
+public class BilevelConverter {
+
+    // Level used by THRESHOLD when none is given, the middle of the 8 bit range
+    public static final int DEFAULT_THRESHOLD = 128;
+    // Rows handed to a single parallel task
+    private static final int ROWS_PER_BAND = 64;
+
+    private final BinarizationMethod method;
+    private final int threshold;
+    // Floyd-Steinberg error in sixteenths diffused into the row below the last converted row, padded like the rows in ditherRows
+    private int[] carriedErrors;
+
+    public BilevelConverter(BinarizationMethod method, int threshold) {
+        if (threshold < 0 || threshold > 255) {
+            throw new IllegalArgumentException("Threshold must be between 0 and 255.");
+        }
+        this.method = method;
+        this.threshold = threshold;
+    }
+
+    public BufferedImage convert(BufferedImage grayImage) {
+        // Default TYPE_BYTE_BINARY palette maps bit 0 to black and bit 1 to white
+        BufferedImage bilevelImage = new BufferedImage(grayImage.getWidth(), grayImage.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+        convert(grayImage, bilevelImage);
+        return bilevelImage;
+    }
+
+    /*
+    Writes the bilevel version of grayImage into an existing TYPE_BYTE_BINARY image of the same size, every bit of the destination is overwritten
+     */
+    public void convert(BufferedImage grayImage, BufferedImage bilevelImage) {
+        if (grayImage.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            throw new IllegalArgumentException("Bilevel conversion requires a TYPE_BYTE_GRAY image.");
+        }
+        int width = grayImage.getWidth();
+        int height = grayImage.getHeight();
+        if (bilevelImage.getType() != BufferedImage.TYPE_BYTE_BINARY || bilevelImage.getWidth() != width || bilevelImage.getHeight() != height
+                || bilevelImage.getColorModel().getPixelSize() != 1) {
+            throw new IllegalArgumentException("Destination must be a 1 bit TYPE_BYTE_BINARY image of size " + width + "x" + height);
+        }
+        WritableRaster grayRaster = grayImage.getRaster();
+        byte[] gray = ((DataBufferByte) grayRaster.getDataBuffer()).getData();
+        ComponentSampleModel graySampleModel = (ComponentSampleModel) grayRaster.getSampleModel();
+        int grayStride = graySampleModel.getScanlineStride();
+        int grayOffset = graySampleModel.getOffset(-grayRaster.getSampleModelTranslateX(), -grayRaster.getSampleModelTranslateY());
+
+        byte[] bits = ((DataBufferByte) bilevelImage.getRaster().getDataBuffer()).getData();
+        int bitStride = ((MultiPixelPackedSampleModel) bilevelImage.getRaster().getSampleModel()).getScanlineStride();
+
+        if (method == BinarizationMethod.FLOYD_STEINBERG) {
+            if (carriedErrors == null || carriedErrors.length != width + 2) {
+                carriedErrors = new int[width + 2];
+            }
+            ditherRows(gray, grayOffset, grayStride, bits, bitStride, width, height, threshold);
+            return;
+        }
+        int level = method == BinarizationMethod.OTSU
+                ? otsuThreshold(histogram(gray, grayOffset, grayStride, width, height))
+                : threshold;
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int firstRow = band * ROWS_PER_BAND;
+            int lastRow = Math.min(height, firstRow + ROWS_PER_BAND);
+            thresholdBand(gray, grayOffset, grayStride, bits, bitStride, width, firstRow, lastRow, level);
+        });
+    }
+
+    /*
+    Otsu level of a whole TYPE_BYTE_GRAY image, for pages converted in bands it's taken once from a low resolution render of the page
+    and passed to every band as a fixed THRESHOLD, so all bands of the page are cut at the same level
+     */
+    public static int otsuThreshold(BufferedImage grayImage) {
+        if (grayImage.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            throw new IllegalArgumentException("Otsu threshold requires a TYPE_BYTE_GRAY image.");
+        }
+        WritableRaster grayRaster = grayImage.getRaster();
+        byte[] gray = ((DataBufferByte) grayRaster.getDataBuffer()).getData();
+        ComponentSampleModel graySampleModel = (ComponentSampleModel) grayRaster.getSampleModel();
+        int grayOffset = graySampleModel.getOffset(-grayRaster.getSampleModelTranslateX(), -grayRaster.getSampleModelTranslateY());
+        return otsuThreshold(histogram(gray, grayOffset, graySampleModel.getScanlineStride(), grayImage.getWidth(), grayImage.getHeight()));
+    }
+
+    private static void thresholdBand(byte[] gray, int grayOffset, int grayStride, byte[] bits, int bitStride,
+                                      int width, int firstRow, int lastRow, int level) {
+        for (int y = firstRow; y < lastRow; y++) {
+            int grayIndex = grayOffset + y * grayStride;
+            int bitIndex = y * bitStride;
+            int packed = 0;
+            for (int x = 0; x < width; x++) {
+                packed = (packed << 1) | ((gray[grayIndex + x] & 0xFF) >= level ? 1 : 0);
+                if ((x & 7) == 7) {
+                    bits[bitIndex + (x >> 3)] = (byte) packed;
+                    packed = 0;
+                }
+            }
+            // Left-align the bits of a partial last byte
+            if ((width & 7) != 0) {
+                bits[bitIndex + (width >> 3)] = (byte) (packed << (8 - (width & 7)));
+            }
+        }
+    }
+
+    /*
+    Classic Floyd-Steinberg weights (7/16 right, 3/16 below left, 5/16 below, 1/16 below right) with errors kept in sixteenths
+    Two error rows padded by one entry on each side so the kernel never needs bounds checks, the first row starts from the error
+    carried over from the previous call and the error owed to the row below the last one is carried into the next call
+     */
+    private void ditherRows(byte[] gray, int grayOffset, int grayStride, byte[] bits, int bitStride, int width, int height, int level) {
+        int[] currentErrors = carriedErrors;
+        int[] nextErrors = new int[width + 2];
+        for (int y = 0; y < height; y++) {
+            int grayIndex = grayOffset + y * grayStride;
+            int bitIndex = y * bitStride;
+            // Only white pixels set their bit, so the row is cleared first in case the destination is reused
+            Arrays.fill(bits, bitIndex, bitIndex + bitStride, (byte) 0);
+            for (int x = 0; x < width; x++) {
+                int value = (gray[grayIndex + x] & 0xFF) + currentErrors[x + 1] / 16;
+                int error;
+                if (value >= level) {
+                    bits[bitIndex + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+                    error = value - 255;
+                } else {
+                    error = value;
+                }
+                currentErrors[x + 2] += error * 7;
+                nextErrors[x] += error * 3;
+                nextErrors[x + 1] += error * 5;
+                nextErrors[x + 2] += error;
+            }
+            int[] swap = currentErrors;
+            currentErrors = nextErrors;
+            nextErrors = swap;
+            Arrays.fill(nextErrors, 0);
+        }
+        carriedErrors = currentErrors;
+    }
+
+    // Histogram of gray levels, bands are counted in parallel and summed
+    private static long[] histogram(byte[] gray, int grayOffset, int grayStride, int width, int height) {
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        return IntStream.range(0, bands).parallel().mapToObj(band -> {
+            long[] counts = new long[256];
+            int lastRow = Math.min(height, (band + 1) * ROWS_PER_BAND);
+            for (int y = band * ROWS_PER_BAND; y < lastRow; y++) {
+                int grayIndex = grayOffset + y * grayStride;
+                for (int x = 0; x < width; x++) {
+                    counts[gray[grayIndex + x] & 0xFF]++;
+                }
+            }
+            return counts;
+        }).reduce(new long[256], (left, right) -> {
+            long[] sum = new long[256];
+            for (int i = 0; i < 256; i++) {
+                sum[i] = left[i] + right[i];
+            }
+            return sum;
+        });
+    }
+
+    /*
+    Otsu's method, the level that maximizes the variance between the dark and light classes of the histogram
+    Returned as the first level of the light class to match the >= comparison used when thresholding
+     */
+    static int otsuThreshold(long[] histogram) {
+        long total = 0;
+        double weightedSum = 0;
+        for (int i = 0; i < 256; i++) {
+            total += histogram[i];
+            weightedSum += (double) i * histogram[i];
+        }
+        long darkCount = 0;
+        double darkSum = 0;
+        double bestVariance = -1;
+        int bestLevel = DEFAULT_THRESHOLD;
+        for (int i = 0; i < 255; i++) {
+            darkCount += histogram[i];
+            if (darkCount == 0) {
+                continue;
+            }
+            long lightCount = total - darkCount;
+            if (lightCount == 0) {
+                break;
+            }
+            darkSum += (double) i * histogram[i];
+            double darkMean = darkSum / darkCount;
+            double lightMean = (weightedSum - darkSum) / lightCount;
+            double variance = (double) darkCount * lightCount * (darkMean - lightMean) * (darkMean - lightMean);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                bestLevel = i + 1;
+            }
+        }
+        return bestLevel;
+    }
+}
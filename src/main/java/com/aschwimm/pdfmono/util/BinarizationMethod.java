@@ -0,0 +1,24 @@
+package com.aschwimm.pdfmono.util;
+
+/*
+Ways a gray page can be reduced to black and white pixels
+THRESHOLD compares every pixel against a fixed level, OTSU picks that level per page from the page's histogram,
+and FLOYD_STEINBERG diffuses each pixel's rounding error to its neighbours so mid-tones survive as dot patterns
+ */
+public enum BinarizationMethod {
+    THRESHOLD,
+    OTSU,
+    FLOYD_STEINBERG;
+
+    /*
+    Parses the value of the --dither command line option
+     */
+    public static BinarizationMethod fromName(String name) {
+        return switch (name.toLowerCase()) {
+            case "threshold", "none" -> THRESHOLD;
+            case "otsu" -> OTSU;
+            case "floyd-steinberg", "floyd", "fs" -> FLOYD_STEINBERG;
+            default -> throw new IllegalArgumentException("Unknown dithering method '" + name + "', expected threshold, otsu or floyd-steinberg.");
+        };
+    }
+}
@@ -16,4 +16,9 @@ public class ColorConverter {
         }
         return (float) (0.299 * rgb[0] + 0.587 * rgb[1] + 0.114 * rgb[2]);
     }
+
+    // Grayscale conversion with a selectable luminance model, REC_601 gives the same result as rgbToGray(R, G, B)
+    public static float rgbToGray(int R, int G, int B, LuminanceModel model) {
+        return model.luminance(R, G, B);
+    }
 }
@@ -0,0 +1,139 @@
+package com.aschwimm.pdfmono.util;
+
+import java.util.Arrays;
+
+/*
+Names a color after the closest of the 139 CSS/X11 named colors, Grey spellings and the Aqua and Fuchsia aliases of Cyan and Magenta left out
+Closeness is the CIE76 color difference, the distance between CIELAB coordinates, so a match follows what the eye sees rather than raw RGB differences
+RGB space is split into 64 levels per channel, each of the 262,144 cells remembers the named color closest to its center the first time it's
+looked up, after that every color in the cell is named with a single array read. Safe to use from several threads, two threads filling
+the same cell store the same index
+ */
+public final class ColorMapper {
+    private static final String[] NAMES = {
+            "AliceBlue", "AntiqueWhite", "Aquamarine", "Azure", "Beige", "Bisque",
+            "Black", "BlanchedAlmond", "Blue", "BlueViolet", "Brown", "BurlyWood",
+            "CadetBlue", "Chartreuse", "Chocolate", "Coral", "CornflowerBlue", "Cornsilk",
+            "Crimson", "Cyan", "DarkBlue", "DarkCyan", "DarkGoldenRod", "DarkGray",
+            "DarkGreen", "DarkKhaki", "DarkMagenta", "DarkOliveGreen", "DarkOrange", "DarkOrchid",
+            "DarkRed", "DarkSalmon", "DarkSeaGreen", "DarkSlateBlue", "DarkSlateGray", "DarkTurquoise",
+            "DarkViolet", "DeepPink", "DeepSkyBlue", "DimGray", "DodgerBlue", "FireBrick",
+            "FloralWhite", "ForestGreen", "Gainsboro", "GhostWhite", "Gold", "GoldenRod",
+            "Gray", "Green", "GreenYellow", "HoneyDew", "HotPink", "IndianRed",
+            "Indigo", "Ivory", "Khaki", "Lavender", "LavenderBlush", "LawnGreen",
+            "LemonChiffon", "LightBlue", "LightCoral", "LightCyan", "LightGoldenRodYellow", "LightGray",
+            "LightGreen", "LightPink", "LightSalmon", "LightSeaGreen", "LightSkyBlue", "LightSlateGray",
+            "LightSteelBlue", "LightYellow", "Lime", "LimeGreen", "Linen", "Magenta",
+            "Maroon", "MediumAquaMarine", "MediumBlue", "MediumOrchid", "MediumPurple", "MediumSeaGreen",
+            "MediumSlateBlue", "MediumSpringGreen", "MediumTurquoise", "MediumVioletRed", "MidnightBlue", "MintCream",
+            "MistyRose", "Moccasin", "NavajoWhite", "Navy", "OldLace", "Olive",
+            "OliveDrab", "Orange", "OrangeRed", "Orchid", "PaleGoldenRod", "PaleGreen",
+            "PaleTurquoise", "PaleVioletRed", "PapayaWhip", "PeachPuff", "Peru", "Pink",
+            "Plum", "PowderBlue", "Purple", "RebeccaPurple", "Red", "RosyBrown",
+            "RoyalBlue", "SaddleBrown", "Salmon", "SandyBrown", "SeaGreen", "SeaShell",
+            "Sienna", "Silver", "SkyBlue", "SlateBlue", "SlateGray", "Snow",
+            "SpringGreen", "SteelBlue", "Tan", "Teal", "Thistle", "Tomato",
+            "Turquoise", "Violet", "Wheat", "White", "WhiteSmoke", "Yellow",
+            "YellowGreen"
+    };
+    // RGB of each name, packed as 0xRRGGBB
+    private static final int[] VALUES = {
+            0xF0F8FF, 0xFAEBD7, 0x7FFFD4, 0xF0FFFF, 0xF5F5DC, 0xFFE4C4, 0x000000, 0xFFEBCD,
+            0x0000FF, 0x8A2BE2, 0xA52A2A, 0xDEB887, 0x5F9EA0, 0x7FFF00, 0xD2691E, 0xFF7F50,
+            0x6495ED, 0xFFF8DC, 0xDC143C, 0x00FFFF, 0x00008B, 0x008B8B, 0xB8860B, 0xA9A9A9,
+            0x006400, 0xBDB76B, 0x8B008B, 0x556B2F, 0xFF8C00, 0x9932CC, 0x8B0000, 0xE9967A,
+            0x8FBC8F, 0x483D8B, 0x2F4F4F, 0x00CED1, 0x9400D3, 0xFF1493, 0x00BFFF, 0x696969,
+            0x1E90FF, 0xB22222, 0xFFFAF0, 0x228B22, 0xDCDCDC, 0xF8F8FF, 0xFFD700, 0xDAA520,
+            0x808080, 0x008000, 0xADFF2F, 0xF0FFF0, 0xFF69B4, 0xCD5C5C, 0x4B0082, 0xFFFFF0,
+            0xF0E68C, 0xE6E6FA, 0xFFF0F5, 0x7CFC00, 0xFFFACD, 0xADD8E6, 0xF08080, 0xE0FFFF,
+            0xFAFAD2, 0xD3D3D3, 0x90EE90, 0xFFB6C1, 0xFFA07A, 0x20B2AA, 0x87CEFA, 0x778899,
+            0xB0C4DE, 0xFFFFE0, 0x00FF00, 0x32CD32, 0xFAF0E6, 0xFF00FF, 0x800000, 0x66CDAA,
+            0x0000CD, 0xBA55D3, 0x9370DB, 0x3CB371, 0x7B68EE, 0x00FA9A, 0x48D1CC, 0xC71585,
+            0x191970, 0xF5FFFA, 0xFFE4E1, 0xFFE4B5, 0xFFDEAD, 0x000080, 0xFDF5E6, 0x808000,
+            0x6B8E23, 0xFFA500, 0xFF4500, 0xDA70D6, 0xEEE8AA, 0x98FB98, 0xAFEEEE, 0xDB7093,
+            0xFFEFD5, 0xFFDAB9, 0xCD853F, 0xFFC0CB, 0xDDA0DD, 0xB0E0E6, 0x800080, 0x663399,
+            0xFF0000, 0xBC8F8F, 0x4169E1, 0x8B4513, 0xFA8072, 0xF4A460, 0x2E8B57, 0xFFF5EE,
+            0xA0522D, 0xC0C0C0, 0x87CEEB, 0x6A5ACD, 0x708090, 0xFFFAFA, 0x00FF7F, 0x4682B4,
+            0xD2B48C, 0x008080, 0xD8BFD8, 0xFF6347, 0x40E0D0, 0xEE82EE, 0xF5DEB3, 0xFFFFFF,
+            0xF5F5F5, 0xFFFF00, 0x9ACD32
+    };
+    private static final int LEVEL_BITS = 6;
+    private static final int LEVELS = 1 << LEVEL_BITS;
+    // Palette indexes are stored as unsigned bytes, there are fewer than 255 names
+    private static final byte UNSET = (byte) 0xFF;
+    private static final byte[] CELLS = new byte[LEVELS * LEVELS * LEVELS];
+    // Linear light of the center of every level, shared by the three channels
+    private static final double[] LEVEL_CENTERS = new double[LEVELS];
+    // L, a and b of every named color
+    private static final double[] PALETTE_LAB = new double[VALUES.length * 3];
+
+    static {
+        Arrays.fill(CELLS, UNSET);
+        int levelWidth = 256 / LEVELS;
+        for (int level = 0; level < LEVELS; level++) {
+            LEVEL_CENTERS[level] = toLinear((level * levelWidth + (levelWidth - 1) / 2.0) / 255.0);
+        }
+        for (int i = 0; i < VALUES.length; i++) {
+            toLab(toLinear(((VALUES[i] >> 16) & 0xFF) / 255.0), toLinear(((VALUES[i] >> 8) & 0xFF) / 255.0),
+                    toLinear((VALUES[i] & 0xFF) / 255.0), PALETTE_LAB, i * 3);
+        }
+    }
+
+    private ColorMapper() {
+    }
+
+    /*
+    Name of the named color closest to an RGB value packed as 0xRRGGBB
+     */
+    public static String getClosestColorName(int rgb) {
+        int shift = 8 - LEVEL_BITS;
+        int red = ((rgb >> 16) & 0xFF) >> shift;
+        int green = ((rgb >> 8) & 0xFF) >> shift;
+        int blue = (rgb & 0xFF) >> shift;
+        int cell = (red << (2 * LEVEL_BITS)) | (green << LEVEL_BITS) | blue;
+        byte index = CELLS[cell];
+        if (index == UNSET) {
+            index = (byte) closestColor(red, green, blue);
+            CELLS[cell] = index;
+        }
+        return NAMES[index & 0xFF];
+    }
+
+    // Squared CIE76 distance is enough to find the minimum, the square root is never taken
+    private static int closestColor(int red, int green, int blue) {
+        double[] lab = new double[3];
+        toLab(LEVEL_CENTERS[red], LEVEL_CENTERS[green], LEVEL_CENTERS[blue], lab, 0);
+        int closest = 0;
+        double minDistance = Double.MAX_VALUE;
+        for (int i = 0; i < VALUES.length; i++) {
+            double dL = PALETTE_LAB[i * 3] - lab[0];
+            double da = PALETTE_LAB[i * 3 + 1] - lab[1];
+            double db = PALETTE_LAB[i * 3 + 2] - lab[2];
+            double distance = dL * dL + da * da + db * db;
+            if (distance < minDistance) {
+                minDistance = distance;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    // sRGB transfer curve, from a 0-1 component to linear light
+    private static double toLinear(double component) {
+        return component <= 0.04045 ? component / 12.92 : Math.pow((component + 0.055) / 1.055, 2.4);
+    }
+
+    // Linear sRGB to CIELAB through XYZ, D65 white point
+    private static void toLab(double red, double green, double blue, double[] lab, int offset) {
+        double x = labCurve((0.4124 * red + 0.3576 * green + 0.1805 * blue) / 0.95047);
+        double y = labCurve(0.2126 * red + 0.7152 * green + 0.0722 * blue);
+        double z = labCurve((0.0193 * red + 0.1192 * green + 0.9505 * blue) / 1.08883);
+        lab[offset] = 116 * y - 16;
+        lab[offset + 1] = 500 * (x - y);
+        lab[offset + 2] = 200 * (y - z);
+    }
+
+    private static double labCurve(double t) {
+        return t > 216.0 / 24389.0 ? Math.cbrt(t) : (24389.0 / 27.0 * t + 16) / 116;
+    }
+}
@@ -0,0 +1,36 @@
+package com.aschwimm.pdfmono.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+Flight recorder event committed for every stage measured by ConversionStats, the event duration is the stage's wall time
+Recorded when the JVM runs with -XX:StartFlightRecording or a recording is started through jcmd
+ */
+@Name("com.aschwimm.pdfmono.ConversionStage")
+@Label("Conversion Stage")
+@Category({"PDFMono", "Conversion"})
+@Description("One stage of converting a page, or of saving the output document")
+@StackTrace(false)
+class ConversionStageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Page")
+    @Description("1 based page number, 0 for stages that apply to the whole document")
+    int page;
+
+    @Label("CPU Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long cpuTime;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+}
@@ -0,0 +1,237 @@
+package com.aschwimm.pdfmono.util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+Records wall time, CPU time and allocated bytes for every stage of every page, using the JVM's ThreadMXBean so nothing outside the JDK is needed
+Each measured stage is also committed as a ConversionStageEvent for Java Flight Recorder
+CPU time and allocations are those of the measuring thread, work a stage hands to the common fork join pool (the parallel gray conversion bands) shows up in wall time only
+Measurements can be taken from any thread, the summary is written once the conversion is finished
+ */
+public class ConversionStats {
+
+    public enum Stage {
+        PRESCAN, RENDER, CONVERT, ENCODE, APPEND, SAVE;
+
+        String jsonName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // Page index for stages that apply to the whole document, such as saving it
+    public static final int DOCUMENT = -1;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+    // Per thread allocation counters are a HotSpot extension of ThreadMXBean
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS =
+            THREADS instanceof com.sun.management.ThreadMXBean hotspotThreads && hotspotThreads.isThreadAllocatedMemorySupported()
+                    ? hotspotThreads : null;
+    private static final Measurement NOT_MEASURED = () -> { };
+
+    private final boolean recording;
+    private final long startNanos;
+    private final Queue<Sample> samples = new ConcurrentLinkedQueue<>();
+    private long elapsedNanos;
+    private int pageCount;
+    private long outputBytes;
+
+    private ConversionStats(boolean recording) {
+        this.recording = recording;
+        this.startNanos = System.nanoTime();
+        if (CPU_TIME_SUPPORTED && !THREADS.isThreadCpuTimeEnabled()) {
+            THREADS.setThreadCpuTimeEnabled(true);
+        }
+        if (ALLOCATIONS != null && !ALLOCATIONS.isThreadAllocatedMemoryEnabled()) {
+            ALLOCATIONS.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    /*
+    Starts the clock for a conversion, samples are only kept when recording, flight recorder events are emitted either way
+    whenever a recording that enables them is running
+     */
+    public static ConversionStats start(boolean recording) {
+        return new ConversionStats(recording);
+    }
+
+    /*
+    Begins measuring a stage on the current thread, the returned measurement must be closed on the same thread
+    Meant for try-with-resources around the work of the stage
+     */
+    public Measurement measure(Stage stage, int pageIndex) {
+        ConversionStageEvent event = new ConversionStageEvent();
+        if (!recording && !event.isEnabled()) {
+            return NOT_MEASURED;
+        }
+        return new StageMeasurement(stage, pageIndex, event);
+    }
+
+    // Stops the clock, called once the output document has been saved
+    public void finish(int pageCount, long outputBytes) {
+        this.elapsedNanos = System.nanoTime() - startNanos;
+        this.pageCount = pageCount;
+        this.outputBytes = outputBytes;
+    }
+
+    /*
+    Writes the JSON summary, per stage p50/p95/max over the pages' totals for that stage, throughput, output size per page,
+    and the totals of every page
+     */
+    public void writeJson(String outputPath) throws IOException {
+        // A page can measure the same stage more than once, e.g. one render per band in tiled mode, those samples are added up
+        Map<Stage, Map<Integer, long[]>> totals = new EnumMap<>(Stage.class);
+        for (Sample sample : samples) {
+            long[] pageTotals = totals.computeIfAbsent(sample.stage(), s -> new TreeMap<>())
+                    .computeIfAbsent(sample.pageIndex(), p -> new long[3]);
+            pageTotals[0] += sample.wallNanos();
+            pageTotals[1] += sample.cpuNanos();
+            pageTotals[2] += sample.allocatedBytes();
+        }
+        double seconds = elapsedNanos / 1e9;
+
+        try (JsonWriter json = new JsonWriter(Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8))) {
+            json.beginObject()
+                    .name("pages").value(pageCount)
+                    .name("wallSeconds").value(round(seconds))
+                    .name("pagesPerSecond").value(seconds > 0 ? round(pageCount / seconds) : Double.NaN)
+                    .name("outputBytes").value(outputBytes)
+                    .name("outputBytesPerPage").value(pageCount > 0 ? outputBytes / pageCount : 0);
+
+            json.name("stages").beginObject();
+            for (Map.Entry<Stage, Map<Integer, long[]>> stage : totals.entrySet()) {
+                json.name(stage.getKey().jsonName()).beginObject()
+                        .name("count").value(stage.getValue().size());
+                writeDistribution(json, "wallMs", stage.getValue(), 0, true);
+                writeDistribution(json, "cpuMs", stage.getValue(), 1, CPU_TIME_SUPPORTED);
+                writeDistribution(json, "allocatedBytes", stage.getValue(), 2, ALLOCATIONS != null);
+                json.endObject();
+            }
+            json.endObject();
+
+            // Regroup by page so every page lists its own stages
+            Map<Integer, Map<Stage, long[]>> pages = new TreeMap<>();
+            totals.forEach((stage, byPage) -> byPage.forEach((pageIndex, pageTotals) ->
+                    pages.computeIfAbsent(pageIndex, p -> new EnumMap<>(Stage.class)).put(stage, pageTotals)));
+            json.name("perPage").beginArray();
+            for (Map.Entry<Integer, Map<Stage, long[]>> page : pages.entrySet()) {
+                if (page.getKey() == DOCUMENT) {
+                    continue;
+                }
+                json.beginObject().name("page").value(page.getKey() + 1);
+                for (Map.Entry<Stage, long[]> stage : page.getValue().entrySet()) {
+                    long[] pageTotals = stage.getValue();
+                    json.name(stage.getKey().jsonName()).beginObject()
+                            .name("wallMs").value(millis(pageTotals[0]))
+                            .name("cpuMs").value(CPU_TIME_SUPPORTED ? millis(pageTotals[1]) : Double.NaN)
+                            .name("allocatedBytes").value(ALLOCATIONS != null ? pageTotals[2] : -1)
+                            .endObject();
+                }
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject().newLine();
+        }
+    }
+
+    private static void writeDistribution(JsonWriter json, String name, Map<Integer, long[]> byPage, int field, boolean supported) throws IOException {
+        json.name(name);
+        if (!supported) {
+            json.value((String) null);
+            return;
+        }
+        long[] values = byPage.values().stream().mapToLong(pageTotals -> pageTotals[field]).sorted().toArray();
+        long[] summary = {Arrays.stream(values).sum(), percentile(values, 0.50), percentile(values, 0.95), values[values.length - 1]};
+        String[] names = {"total", "p50", "p95", "max"};
+        json.beginObject();
+        for (int i = 0; i < summary.length; i++) {
+            json.name(names[i]);
+            // Times are reported in milliseconds, allocations in bytes
+            if (field == 2) {
+                json.value(summary[i]);
+            } else {
+                json.value(millis(summary[i]));
+            }
+        }
+        json.endObject();
+    }
+
+    // Nearest rank percentile of sorted values
+    static long percentile(long[] sortedValues, double fraction) {
+        int rank = (int) Math.ceil(fraction * sortedValues.length);
+        return sortedValues[Math.max(rank, 1) - 1];
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1_000.0) / 1_000.0;
+    }
+
+    private static long currentCpuNanos() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long currentAllocatedBytes() {
+        return ALLOCATIONS != null ? ALLOCATIONS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    // A stage being measured, closing it records the sample
+    public interface Measurement extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private record Sample(Stage stage, int pageIndex, long wallNanos, long cpuNanos, long allocatedBytes) { }
+
+    private final class StageMeasurement implements Measurement {
+        private final Stage stage;
+        private final int pageIndex;
+        private final ConversionStageEvent event;
+        private final long startWall;
+        private final long startCpu;
+        private final long startAllocated;
+
+        private StageMeasurement(Stage stage, int pageIndex, ConversionStageEvent event) {
+            this.stage = stage;
+            this.pageIndex = pageIndex;
+            this.event = event;
+            event.begin();
+            this.startAllocated = currentAllocatedBytes();
+            this.startCpu = currentCpuNanos();
+            this.startWall = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            long wallNanos = System.nanoTime() - startWall;
+            long cpuNanos = currentCpuNanos() - startCpu;
+            long allocatedBytes = currentAllocatedBytes() - startAllocated;
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.jsonName();
+                event.page = pageIndex + 1;
+                event.cpuTime = cpuNanos;
+                event.allocated = allocatedBytes;
+                event.commit();
+            }
+            if (recording) {
+                samples.add(new Sample(stage, pageIndex, wallNanos, cpuNanos, allocatedBytes));
+            }
+        }
+    }
+}
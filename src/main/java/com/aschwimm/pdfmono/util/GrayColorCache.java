@@ -0,0 +1,252 @@
+package com.aschwimm.pdfmono.util;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.pdmodel.common.PDRange;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.color.PDLab;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+Remembers the RGB and gray equivalents of colors in CMYK, ICC based, Lab and other color spaces for the length of one document
+Converting those colors goes through Java's color management, print-ready files repeat the same few hundred colors tens of thousands of times
+Components are quantized to 12 bits each and packed with the color space into a single long, which keys an open addressing table of
+primitive arrays, so a cache hit allocates nothing. Safe to share between worker threads: every thread looks colors up in a table of its own,
+so lookups never wait on a lock. A color used on several workers is converted once per worker, the counters add up all tables
+ */
+public class GrayColorCache {
+    private static final int COMPONENT_BITS = 12;
+    private static final int LEVELS = (1 << COMPONENT_BITS) - 1;
+    private static final int MAX_COMPONENTS = 4;
+    // Color spaces take the 11 bits above the components, a document with more distinct spaces converts the rest without the cache
+    private static final int MAX_COLOR_SPACES = 1 << 11;
+    private static final int COLOR_SPACE_SHIFT = COMPONENT_BITS * MAX_COMPONENTS;
+    // Set on every key so that 0 can mark an empty slot
+    private static final long OCCUPIED = 1L << 63;
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Every table handed out, so the counters can be summed, a thread registers its table on its first lookup
+    private final List<Table> tables = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Table> threadTable = ThreadLocal.withInitial(() -> {
+        Table table = new Table();
+        tables.add(table);
+        return table;
+    });
+
+    /*
+    Gray value from 0 to 1 of a color given in the color space's own component ranges, e.g. the operands of a k operator
+     */
+    public float toGray(PDColorSpace colorSpace, float[] components) throws IOException {
+        Table table = threadTable.get();
+        int slot = table.lookup(colorSpace, components, false);
+        return slot >= 0 ? table.grayValues[slot] : ColorConverter.rgbToGray(colorSpace.toRGB(components));
+    }
+
+    /*
+    Same as toGray for components from 0 to 1 that still have to be scaled to the color space's ranges, e.g. the bytes of an Indexed palette divided by 255
+     */
+    public float toGrayNormalized(PDColorSpace colorSpace, float[] normalized) throws IOException {
+        Table table = threadTable.get();
+        int slot = table.lookup(colorSpace, normalized, true);
+        return slot >= 0 ? table.grayValues[slot] : ColorConverter.rgbToGray(colorSpace.toRGB(denormalize(colorSpace, normalized)));
+    }
+
+    /*
+    RGB equivalent of a color packed as 0xRRGGBB
+     */
+    public int toRGB(PDColorSpace colorSpace, float[] components) throws IOException {
+        Table table = threadTable.get();
+        int slot = table.lookup(colorSpace, components, false);
+        return slot >= 0 ? table.rgbValues[slot] : packRGB(colorSpace.toRGB(components));
+    }
+
+    // Counters are exact once the threads that used the cache are done with it, e.g. after a worker pool has been shut down
+    public long getHits() {
+        long hits = 0;
+        for (Table table : tables) {
+            hits += table.hits;
+        }
+        return hits;
+    }
+
+    public long getMisses() {
+        long misses = 0;
+        for (Table table : tables) {
+            misses += table.misses;
+        }
+        return misses;
+    }
+
+    // Colors held over all tables, a color converted on two threads counts twice
+    public int size() {
+        int size = 0;
+        for (Table table : tables) {
+            size += table.size;
+        }
+        return size;
+    }
+
+    /*
+    One thread's colors, only ever touched by the thread that owns it
+     */
+    private static class Table {
+        // Ranges of the components of every color space seen so far, by the identity of its PDF object
+        private final Map<COSBase, ColorSpaceEntry> colorSpaces = new IdentityHashMap<>();
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private int[] rgbValues = new int[INITIAL_CAPACITY];
+        private float[] grayValues = new float[INITIAL_CAPACITY];
+        // Plain fields, the counters read them after the owning thread is done, which the caller's join or shutdown orders
+        private int size;
+        private long hits;
+        private long misses;
+
+        /*
+        Slot holding the converted color, converting and inserting it on a miss. Returns -1 when the color can't be keyed,
+        either because it has too many components or the document has too many color spaces
+         */
+        private int lookup(PDColorSpace colorSpace, float[] components, boolean normalized) throws IOException {
+            if (components.length > MAX_COMPONENTS) {
+                return -1;
+            }
+            ColorSpaceEntry entry = colorSpaces.get(colorSpace.getCOSObject());
+            if (entry == null) {
+                if (colorSpaces.size() >= MAX_COLOR_SPACES) {
+                    return -1;
+                }
+                entry = new ColorSpaceEntry(colorSpaces.size(), componentRanges(colorSpace));
+                colorSpaces.put(colorSpace.getCOSObject(), entry);
+            }
+            if (components.length != entry.ranges().length / 2) {
+                return -1;
+            }
+            long key = OCCUPIED | ((long) entry.id() << COLOR_SPACE_SHIFT);
+            for (int i = 0; i < components.length; i++) {
+                float min = entry.ranges()[2 * i];
+                float max = entry.ranges()[2 * i + 1];
+                float unit = normalized ? components[i] : (max > min ? (components[i] - min) / (max - min) : 0f);
+                long level = Math.round(Math.max(0f, Math.min(1f, unit)) * LEVELS);
+                key |= level << (COMPONENT_BITS * i);
+            }
+
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    hits++;
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            // Converts the quantized color rather than the one asked for, so a key always maps to the same value whichever color filled it
+            misses++;
+            float[] quantized = new float[components.length];
+            for (int i = 0; i < quantized.length; i++) {
+                float min = entry.ranges()[2 * i];
+                float max = entry.ranges()[2 * i + 1];
+                long level = (key >>> (COMPONENT_BITS * i)) & LEVELS;
+                quantized[i] = min + level * (max - min) / LEVELS;
+            }
+            float[] rgb = colorSpace.toRGB(quantized);
+            keys[slot] = key;
+            rgbValues[slot] = packRGB(rgb);
+            grayValues[slot] = Math.max(0f, Math.min(1f, ColorConverter.rgbToGray(rgb)));
+            size++;
+            if (size * 2 > keys.length) {
+                grow();
+                return find(key);
+            }
+            return slot;
+        }
+
+        private int find(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // Doubles the table once it's half full, which keeps probe sequences short
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldRgb = rgbValues;
+            float[] oldGray = grayValues;
+            keys = new long[oldKeys.length * 2];
+            rgbValues = new int[keys.length];
+            grayValues = new float[keys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) {
+                    continue;
+                }
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                rgbValues[slot] = oldRgb[i];
+                grayValues[slot] = oldGray[i];
+            }
+        }
+    }
+
+    // Fibonacci hashing, spreads keys that differ only in their low component bits over the whole table
+    private static int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    private static float[] denormalize(PDColorSpace colorSpace, float[] normalized) {
+        float[] ranges = componentRanges(colorSpace);
+        float[] components = new float[normalized.length];
+        for (int i = 0; i < normalized.length && 2 * i + 1 < ranges.length; i++) {
+            components[i] = ranges[2 * i] + normalized[i] * (ranges[2 * i + 1] - ranges[2 * i]);
+        }
+        return components;
+    }
+
+    /*
+    Minimum and maximum of every component, Lab's L runs from 0 to 100 and its a and b ranges are set by the color space,
+    ICC based spaces can give their own ranges, every other space uses 0 to 1
+     */
+    private static float[] componentRanges(PDColorSpace colorSpace) {
+        int count = colorSpace.getNumberOfComponents();
+        float[] ranges = new float[count * 2];
+        for (int i = 0; i < count; i++) {
+            ranges[2 * i + 1] = 1f;
+        }
+        if (colorSpace instanceof PDLab lab && count == 3) {
+            ranges[1] = 100f;
+            setRange(ranges, 1, lab.getARange());
+            setRange(ranges, 2, lab.getBRange());
+        } else if (colorSpace instanceof PDICCBased iccBased) {
+            for (int i = 0; i < count; i++) {
+                setRange(ranges, i, iccBased.getRangeForComponent(i));
+            }
+        }
+        return ranges;
+    }
+
+    private static void setRange(float[] ranges, int component, PDRange range) {
+        if (range != null) {
+            ranges[2 * component] = range.getMin();
+            ranges[2 * component + 1] = range.getMax();
+        }
+    }
+
+    private static int packRGB(float[] rgb) {
+        int red = Math.round(Math.max(0f, Math.min(1f, rgb[0])) * 255f);
+        int green = Math.round(Math.max(0f, Math.min(1f, rgb[1])) * 255f);
+        int blue = Math.round(Math.max(0f, Math.min(1f, rgb[2])) * 255f);
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    private record ColorSpaceEntry(int id, float[] ranges) {
+    }
+}
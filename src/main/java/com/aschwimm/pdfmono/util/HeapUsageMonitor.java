@@ -0,0 +1,37 @@
+package com.aschwimm.pdfmono.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+/*
+Tracks the peak heap usage of a run using the JVM's memory pool statistics
+The peak of each heap pool is reset when monitoring starts and the pool peaks are summed at the end, since pools peak at different moments
+the sum is an upper bound on what the heap actually held at any one time
+ */
+public class HeapUsageMonitor {
+    private final List<MemoryPoolMXBean> heapPools;
+
+    private HeapUsageMonitor() {
+        heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isValid())
+                .toList();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    public static HeapUsageMonitor start() {
+        return new HeapUsageMonitor();
+    }
+
+    public long getPeakHeapBytes() {
+        return heapPools.stream()
+                .mapToLong(pool -> pool.getPeakUsage() != null ? pool.getPeakUsage().getUsed() : 0)
+                .sum();
+    }
+
+    // Peak heap in megabytes for progress output
+    public String formatPeakHeap() {
+        return String.format("%.1f MB", getPeakHeapBytes() / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,69 @@
+package com.aschwimm.pdfmono.util;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Keeps the rasters and encode buffers of finished pages for the next page instead of leaving them to the garbage collector
+Images are keyed by width, height and type, so on documents whose pages share a size, rendering, gray conversion and encoding
+reach a steady state that allocates almost nothing per page. Safe to share between worker threads
+Pooled images come back with whatever the previous page left in them, callers overwrite every pixel
+ */
+public class ImageBufferPool {
+    // Distinct image sizes kept at once, a document with many page sizes drops its idle rasters instead of pinning one set per size
+    private static final int MAX_IMAGE_SIZES = 8;
+
+    private final int maxIdlePerSize;
+    private final Map<ImageKey, BlockingQueue<BufferedImage>> idleImages = new ConcurrentHashMap<>();
+    private final BlockingQueue<ByteArrayOutputStream> idleBuffers;
+
+    /*
+    maxIdlePerSize is how many images of one size are kept, one per worker thread covers the pipeline
+    maxIdleBuffers is how many encode buffers are kept, they are held from encoding on a worker until the page is appended
+     */
+    public ImageBufferPool(int maxIdlePerSize, int maxIdleBuffers) {
+        if (maxIdlePerSize < 1 || maxIdleBuffers < 1) {
+            throw new IllegalArgumentException("Pool sizes must be at least 1.");
+        }
+        this.maxIdlePerSize = maxIdlePerSize;
+        this.idleBuffers = new ArrayBlockingQueue<>(maxIdleBuffers);
+    }
+
+    // Returns an idle image of the given size and type, or a new one when none is idle
+    public BufferedImage acquireImage(int width, int height, int imageType) {
+        BlockingQueue<BufferedImage> idle = idleImages.get(new ImageKey(width, height, imageType));
+        BufferedImage image = idle != null ? idle.poll() : null;
+        return image != null ? image : new BufferedImage(width, height, imageType);
+    }
+
+    // Hands an image back for reuse, images beyond the per size limit are left to the garbage collector
+    public void releaseImage(BufferedImage image) {
+        ImageKey key = new ImageKey(image.getWidth(), image.getHeight(), image.getType());
+        BlockingQueue<BufferedImage> idle = idleImages.get(key);
+        if (idle == null) {
+            if (idleImages.size() >= MAX_IMAGE_SIZES) {
+                idleImages.clear();
+            }
+            idle = idleImages.computeIfAbsent(key, k -> new ArrayBlockingQueue<>(maxIdlePerSize));
+        }
+        idle.offer(image);
+    }
+
+    // Returns an empty encode buffer, its capacity is whatever the largest page encoded into it so far needed
+    public ByteArrayOutputStream acquireBuffer() {
+        ByteArrayOutputStream buffer = idleBuffers.poll();
+        return buffer != null ? buffer : new ByteArrayOutputStream(256 * 1024);
+    }
+
+    public void releaseBuffer(ByteArrayOutputStream buffer) {
+        buffer.reset();
+        idleBuffers.offer(buffer);
+    }
+
+    private record ImageKey(int width, int height, int imageType) {
+    }
+}
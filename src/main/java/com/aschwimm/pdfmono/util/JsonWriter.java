@@ -0,0 +1,147 @@
+package com.aschwimm.pdfmono.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+Minimal streaming JSON writer for the reports PDFMono produces, values are written as they're added so nothing is buffered per document
+Output is compact, newLine() ends a top level value so the same writer can produce JSON Lines
+ */
+public class JsonWriter implements Closeable, Flushable {
+    private final Writer out;
+    // Nothing has been written yet at the current nesting level, so the next element needs no separating comma
+    private boolean firstElement = true;
+    // A member name was just written and its value follows without a comma
+    private boolean afterName = false;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        firstElement = true;
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        out.write('}');
+        firstElement = false;
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        firstElement = true;
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        out.write(']');
+        firstElement = false;
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (!firstElement) {
+            out.write(',');
+        }
+        firstElement = false;
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            out.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    // Written with float precision, so 0.6f comes out as 0.6 rather than as its double expansion, NaN and infinities as null
+    public JsonWriter value(float value) throws IOException {
+        beforeValue();
+        out.write(Float.isFinite(value) ? Float.toString(value) : "null");
+        return this;
+    }
+
+    // NaN and infinities have no JSON representation and are written as null
+    public JsonWriter value(double value) throws IOException {
+        beforeValue();
+        out.write(Double.isFinite(value) ? Double.toString(value) : "null");
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    // Ends the current top level value, the next one starts on its own line
+    public JsonWriter newLine() throws IOException {
+        out.write('\n');
+        firstElement = true;
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!firstElement) {
+            out.write(',');
+        }
+        firstElement = false;
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.write("\\u00");
+                        out.write(Character.forDigit(c >> 4, 16));
+                        out.write(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        out.write(c);
+                    }
+                }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,35 @@
+package com.aschwimm.pdfmono.util;
+
+/*
+Converts whole rows of packed RGB pixels to luminance values in the 0-255 range
+A SIMD implementation built on jdk.incubator.vector is used when the JVM was started with --add-modules jdk.incubator.vector,
+otherwise a scalar loop produces the same values
+ */
+public interface LuminanceKernel {
+
+    void luminanceRow(int[] packedRgb, float[] luminance, int length);
+
+    LuminanceModel getModel();
+
+    // Whether rows are processed in SIMD lanes
+    boolean isVectorized();
+
+    static LuminanceKernel forModel(LuminanceModel model) {
+        if (VectorSupport.AVAILABLE) {
+            try {
+                return new VectorLuminanceKernel(model);
+            } catch (LinkageError e) {
+                // The module was present but its classes couldn't be linked, the scalar kernel gives identical results
+            }
+        }
+        return new ScalarLuminanceKernel(model);
+    }
+
+    // Looked up once, incubator modules are only resolved when requested on the command line
+    final class VectorSupport {
+        static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+        private VectorSupport() {
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.aschwimm.pdfmono.util;
 
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
 import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
 import org.apache.pdfbox.pdmodel.PDDocument;
 
@@ -14,12 +15,35 @@ public class PDFDocumentIO {
 
     // Update how PDF files are loaded for PDFBox 3.0.5
     public  PDDocument loadDocument(String inputFile) throws IOException {
+        return loadDocument(inputFile, false);
+    }
+
+    /*
+    With useScratchFile set, streams PDFBox creates or decodes for the document are cached in a temporary file instead of main memory,
+    so heap use stays flat no matter how large the document is
+     */
+    public PDDocument loadDocument(String inputFile, boolean useScratchFile) throws IOException {
 
         try{
             File file = new File(inputFile);
-            return Loader.loadPDF(new RandomAccessReadBufferedFile(file));
+            RandomAccessReadBufferedFile source = new RandomAccessReadBufferedFile(file);
+            if (useScratchFile) {
+                return Loader.loadPDF(source, "", null, null, IOUtils.createTempFileOnlyStreamCache());
+            }
+            return Loader.loadPDF(source);
         } catch(IOException e) {
             System.err.println("Error loading PDF: " + e.getMessage());
             throw e;
         }
-    }}
+    }
+
+    /*
+    Creates an empty document for output, backed by a scratch file when useScratchFile is set so that page images spill to disk as they're written
+     */
+    public PDDocument createDocument(boolean useScratchFile) {
+        if (useScratchFile) {
+            return new PDDocument(IOUtils.createTempFileOnlyStreamCache());
+        }
+        return new PDDocument();
+    }
+}
@@ -1,36 +1,76 @@
 package com.aschwimm.pdfmono.util;
 
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.contentstream.PDContentStream;
 import org.apache.pdfbox.contentstream.operator.Operator;
 import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
 import org.apache.pdfbox.pdfparser.PDFStreamParser;
 import org.apache.pdfbox.pdmodel.*;
 import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDCalGray;
 import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
 import org.apache.pdfbox.cos.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class PDFInspector {
+    // Draw count of XObjects that aren't drawn by a page's content stream directly
+    private static final int NOT_COUNTED = -1;
+
     private final PDFDocumentIO pdfDocumentIO;
+    // Replaced for every inspected document, repeated CMYK colors are only converted once
+    private GrayColorCache colorCache = new GrayColorCache();
+    // Contents of every form analyzed so far by the form's object key, shared by all workers of the current document
+    private Map<COSObjectKey, List<XObjectAnalysis>> formAnalyses = new ConcurrentHashMap<>();
+    // Page number each form was first written on, only used by the thread writing the report
+    private Map<COSObjectKey, Integer> writtenForms = new HashMap<>();
+    // Set by measurePages for the document being measured: whether pages are checked for color, and who else gets their operators
+    private boolean measuring;
+    private PageContentListener.Factory pageListeners;
 
     // Constructor injection of document loader dependency
     public PDFInspector(PDFDocumentIO pdfDocumentIO) {
         this.pdfDocumentIO = pdfDocumentIO;
     }
     /*
-    Unused: Set of draw operators that can appear in the content stream
+    Set of draw operators that can appear in the content stream, counted for the cost estimate
      */
     private static final Set<String> VECTOR_OPERATORS = Set.of(
             "m", "l", "re", "c", "v", "y", "h",
             "S", "s", "f", "F", "f*", "B", "B*", "b", "b*"
     );
     /*
+    Operators that end a path, every one of them is a path the renderer has to fill, stroke or clip with
+     */
+    private static final Set<String> PATH_END_OPERATORS = Set.of(
+            "S", "s", "f", "F", "f*", "B", "B*", "b", "b*", "n"
+    );
+    /*
+    Operators that select a color or a color space, all of them are rewritten or checked by the in-place conversion
+     */
+    private static final Set<String> COLOR_OPERATORS = Set.of(
+            "g", "G", "rg", "RG", "k", "K", "cs", "CS", "sc", "SC", "scn", "SCN"
+    );
+    /*
     Map of color space operators that appear in content stream as keys with their associated colorspace names
      */
     private static final Map<String, String> colorOperatorToColorSpace = Map.ofEntries(
@@ -74,114 +114,506 @@ public class PDFInspector {
 
 
     /*
-    Handles core logic, PDDocument is loaded and its pages iterated over, resources and contents of each page and written to output file in loop
+    Handles core logic, PDDocument is loaded and its pages analyzed one at a time, each page's analysis is written to the output file before the next page is analyzed
      */
     public void inspect(String inputPath, String outputLogPath) {
-        outputLogPath = outputLogPath + ".md";
+        inspect(inputPath, outputLogPath, 1);
+    }
+
+    /*
+    Same as inspect with the pages analyzed by a pool of threads workers. Workers return a PageAnalysis per page and only the calling thread writes them,
+    in page order, so the report is the same whatever the thread count
+     */
+    public void inspect(String inputPath, String outputLogPath, int threads) {
+        inspect(inputPath, outputLogPath, threads, ReportFormat.MARKDOWN);
+    }
+
+    /*
+    Same as inspect, with the report written in the given format to outputLogPath plus the format's extension
+    Every page is written as soon as it's analyzed and dropped afterwards, so memory doesn't grow with the number of pages
+     */
+    public void inspect(String inputPath, String outputLogPath, int threads, ReportFormat format) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1.");
+        }
+        outputLogPath = outputLogPath + format.getExtension();
+        colorCache = new GrayColorCache();
+        formAnalyses = new ConcurrentHashMap<>();
+        writtenForms = new HashMap<>();
+        measuring = false;
+        pageListeners = null;
         try (PDDocument document = pdfDocumentIO.loadDocument(inputPath);
              BufferedWriter writer = new BufferedWriter(new FileWriter(outputLogPath))) {
 
-            writer.write("# PDF Inspection Report\n\n");
             int pageCount = document.getNumberOfPages();
-            for (int i = 0; i < pageCount; i++) {
-                System.out.printf("\rInspecting page %d of %d...          ", (i + 1), pageCount);
-                System.out.flush();
-                PDPage page = document.getPage(i);
-                writer.write("## Page " + (i + 1) + "\n");
-
-
-                PDResources resources = page.getResources();
-
-
-
-                inspectResources(resources, writer, 1);
-                inspectContents(page, writer, 1);
+            ReportWriter report;
+            if (format == ReportFormat.JSONL) {
+                JsonWriter json = new JsonWriter(writer);
+                json.beginObject()
+                        .name("type").value("document")
+                        .name("source").value(inputPath)
+                        .name("pages").value(pageCount)
+                        .endObject().newLine();
+                report = page -> writePageRecords(json, page);
+            } else {
+                writer.write("# PDF Inspection Report\n\n");
+                report = page -> writePage(writer, page);
             }
+            analyzePages(inputPath, document, threads, report);
             System.out.println();
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
     /*
-    Recursively traverse page resources, identifying images and forms and writing them to file
+    Cheap per-page features the conversion cost estimate works from, gathered by the same single parse and resource walk as the report
+    Pages are analyzed on threads workers like inspect does, but nothing is written
      */
-    private void inspectResources(PDResources resources, BufferedWriter writer, int indentLevel) throws IOException {
-        if (resources == null) return;
+    public List<PageFeatures> measurePages(String inputPath, int threads) throws IOException {
+        return measurePages(inputPath, threads, null);
+    }
 
+    /*
+    Same as measurePages, with every page's operators also handed to a listener from listeners during that same parse, on the thread
+    analyzing the page, so checks of the page content don't parse it again. listeners may be null
+     */
+    public List<PageFeatures> measurePages(String inputPath, int threads, PageContentListener.Factory listeners) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1.");
+        }
+        colorCache = new GrayColorCache();
+        formAnalyses = new ConcurrentHashMap<>();
+        measuring = true;
+        pageListeners = listeners;
+        List<PageFeatures> features = new ArrayList<>();
+        try (PDDocument document = pdfDocumentIO.loadDocument(inputPath)) {
+            analyzePages(inputPath, document, threads, page -> features.add(toFeatures(page)));
+            System.out.println();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while measuring pages of " + inputPath);
+        }
+        return features;
+    }
+
+    // Hands every page's analysis to report in page order, analyzing them on the calling thread or on a pool of workers
+    private void analyzePages(String inputPath, PDDocument document, int threads, ReportWriter report) throws IOException, InterruptedException {
+        int pageCount = document.getNumberOfPages();
+        if (threads > 1 && pageCount > 1) {
+            inspectPagesInParallel(inputPath, pageCount, Math.min(threads, pageCount), report);
+        } else {
+            for (int i = 0; i < pageCount; i++) {
+                printProgress(i, pageCount);
+                report.writePage(analyzePage(document.getPage(i), i));
+            }
+        }
+    }
+    /*
+    PDFBox documents aren't thread-safe, so every worker analyzes pages of its own loaded copy of the input document
+    Pages are submitted in order and at most two per worker are analyzed but not yet written, the calling thread waits on the oldest page,
+    writes it, then tops the pipeline back up
+     */
+    private void inspectPagesInParallel(String inputPath, int pageCount, int threads, ReportWriter report) throws IOException, InterruptedException {
+        int maxPagesInFlight = threads * 2;
+        // Every worker is closed from this list, a worker interrupted by shutdownNow may never have made it back to the idle queue
+        List<PDDocument> workers = new ArrayList<>(threads);
+        BlockingQueue<PDDocument> idleWorkers = new ArrayBlockingQueue<>(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                PDDocument worker = pdfDocumentIO.loadDocument(inputPath);
+                workers.add(worker);
+                idleWorkers.add(worker);
+            }
+            Deque<Future<PageAnalysis>> inFlight = new ArrayDeque<>();
+            int nextPage = 0;
+            for (int i = 0; i < pageCount; i++) {
+                while (nextPage < pageCount && inFlight.size() < maxPagesInFlight) {
+                    int pageIndex = nextPage++;
+                    inFlight.addLast(executor.submit(() -> {
+                        PDDocument worker = idleWorkers.take();
+                        try {
+                            return analyzePage(worker.getPage(pageIndex), pageIndex);
+                        } finally {
+                            // Never full, the queue holds every worker, and unlike put offer can't be interrupted
+                            idleWorkers.offer(worker);
+                        }
+                    }));
+                }
+                printProgress(i, pageCount);
+                PageAnalysis analysis;
+                try {
+                    analysis = inFlight.removeFirst().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException cause) {
+                        throw cause;
+                    }
+                    if (e.getCause() instanceof RuntimeException cause) {
+                        throw cause;
+                    }
+                    throw new IOException(e.getCause());
+                }
+                report.writePage(analysis);
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            for (PDDocument worker : workers) {
+                worker.close();
+            }
+        }
+    }
+
+    private static void printProgress(int pageIndex, int pageCount) {
+        System.out.printf("\rInspecting page %d of %d...          ", (pageIndex + 1), pageCount);
+        System.out.flush();
+    }
+    /*
+    Analyzes a page without writing anything, so it can run on any thread. The content stream is parsed a single time, that parse finds the tagged
+    vector graphics and counts how often each XObject is drawn, which the resource analysis reports next to the XObject
+    When measuring, the same parse also checks the page for color and feeds the page's listener
+     */
+    private PageAnalysis analyzePage(PDPage page, int pageIndex) throws IOException {
+        List<VectorGraphicInfo> vectorGraphics = new ArrayList<>();
+        Map<COSName, Integer> drawCounts = new HashMap<>();
+        ContentCounts counts = new ContentCounts(measuring);
+        PageContentListener listener = pageListeners != null ? pageListeners.forPage(page, pageIndex) : null;
+        analyzeContents(page, vectorGraphics, drawCounts, counts, listener);
+        if (listener != null) {
+            listener.endPage();
+        }
+        if (counts.gray) {
+            try {
+                counts.gray = hasOnlyGrayAppearances(page, counts.grayCheckedForms);
+            } catch (IOException | RuntimeException e) {
+                counts.gray = false;
+            }
+        }
+        FormPath formPath = new FormPath();
+        PDRectangle cropBox = page.getCropBox();
+        return new PageAnalysis(pageIndex, cropBox.getWidth(), cropBox.getHeight(),
+                analyzeResources(page.getResources(), drawCounts, formPath), vectorGraphics, counts);
+    }
+    /*
+    Recursively traverse page resources, identifying images and forms. Draw counts only come from the page's own content stream,
+    XObjects inside forms are listed without one. formPath holds the forms being analyzed around the current resources
+     */
+    private List<XObjectAnalysis> analyzeResources(PDResources resources, Map<COSName, Integer> drawCounts, FormPath formPath) throws IOException {
+        if (resources == null) return List.of();
+
+        List<XObjectAnalysis> xObjects = new ArrayList<>();
         for (COSName name : resources.getXObjectNames()) {
             PDXObject xObject = resources.getXObject(name);
+            int drawCount = drawCounts != null ? drawCounts.getOrDefault(name, 0) : NOT_COUNTED;
 
             if (xObject instanceof PDImageXObject image) {
-                logImageInfo(writer, name.getName(), image, indentLevel);
+                List<String> filters = new ArrayList<>();
+                for (COSName filter : image.getStream().getFilters()) {
+                    filters.add(filter.getName());
+                }
+                xObjects.add(new ImageAnalysis(name.getName(), image.getWidth(), image.getHeight(), image.getColorSpace().getName(),
+                        image.getBitsPerComponent(), image.isStencil(), List.copyOf(filters), image.getSuffix(), drawCount));
             } else if (xObject instanceof PDFormXObject form) {
-                writer.write(indent(indentLevel) + "- Form XObject: " + name.getName() + "\n");
-                inspectResources(form.getResources(), writer, indentLevel + 1);
+                xObjects.add(new FormAnalysis(name.getName(), form.getCOSObject().getKey(), analyzeForm(form, formPath), drawCount));
+            }
+        }
+        return xObjects;
+    }
+    /*
+    Contents of a form, analyzed once per document however many pages and forms list it. Object keys are the same in every worker's copy
+    of the document, so a form analyzed by one worker is reused by all of them. Returns null for a form that lists itself, directly or through
+    the forms it lists, instead of recursing forever
+    An analysis is only kept for reuse when no form inside it was cut short for listing a form around this one. When A lists B and B lists A,
+    B analyzed inside A shows A without contents, while B analyzed on its own lists A in full
+     */
+    private List<XObjectAnalysis> analyzeForm(PDFormXObject form, FormPath formPath) throws IOException {
+        COSStream stream = form.getCOSObject();
+        COSObjectKey key = stream.getKey();
+        List<XObjectAnalysis> children = key != null ? formAnalyses.get(key) : null;
+        if (children != null) {
+            return children;
+        }
+        Integer cycleDepth = formPath.depths.get(stream);
+        if (cycleDepth != null) {
+            formPath.cutDepth = Math.min(formPath.cutDepth, cycleDepth);
+            return null;
+        }
+        int depth = formPath.depths.size();
+        int outerCutDepth = formPath.cutDepth;
+        formPath.depths.put(stream, depth);
+        formPath.cutDepth = Integer.MAX_VALUE;
+        boolean complete;
+        try {
+            children = List.copyOf(analyzeResources(form.getResources(), null, formPath));
+        } finally {
+            formPath.depths.remove(stream);
+            // Cuts at this form or below it don't make it incomplete, the forms around it still see them
+            complete = formPath.cutDepth >= depth;
+            formPath.cutDepth = Math.min(outerCutDepth, formPath.cutDepth);
+        }
+        if (!complete) {
+            return children;
+        }
+        // Two workers can reach a new form at the same time, whichever finishes first provides the analysis everybody reports
+        if (key != null) {
+            List<XObjectAnalysis> existing = formAnalyses.putIfAbsent(key, children);
+            if (existing != null) {
+                return existing;
             }
         }
+        return children;
     }
     /*
-    Traverses list of tokens in page's content stream and identifies tokens that are associated with colorspaces and drawing operators
-    to identify graphics drawn in page's content stream
+    Streams the tokens of the page's content stream and identifies tokens that are associated with colorspaces and drawing operators
+    to identify graphics drawn in page's content stream, operands are only kept until their operator is reached
      */
-    private void inspectContents(PDPage page, BufferedWriter writer, int indentLevel) throws IOException {
+    private void analyzeContents(PDPage page, List<VectorGraphicInfo> vectorGraphics, Map<COSName, Integer> drawCounts,
+                                 ContentCounts counts, PageContentListener listener) throws IOException {
         PDFStreamParser parser = new PDFStreamParser(page);
-        List<Object> tokens = parser.parse();
-        VectorGraphicInfo vectorGraphicObj = new VectorGraphicInfo();
-        boolean insideFigure = false;
-        for(int i = 0; i < tokens.size(); i++) {
-            Object token = tokens.get(i);
-            if(!insideFigure && token instanceof COSName name && name.getName().equals("Figure")) {
-                insideFigure = true;
-
-                i++;
-                // Found the start of a Figure tag
+        PDResources resources = page.getResources();
+        List<Object> operands = new ArrayList<>();
+        VectorGraphicInfo vectorGraphicObj = null;
+        Object token;
+        while ((token = parser.parseNextToken()) != null) {
+            if (!(token instanceof Operator operator)) {
+                if (vectorGraphicObj == null && token instanceof COSName name && name.getName().equals("Figure")) {
+                    // Found the start of a Figure tag
+                    vectorGraphicObj = new VectorGraphicInfo();
+                }
+                operands.add(token);
+                continue;
             }
-            else if(insideFigure && token instanceof Operator operator) {
-                String name = operator.getName();
-                if(ALL_PAINT_OPERATORS.containsKey(name)) {
-                    vectorGraphicObj.setPaintOperator(ALL_PAINT_OPERATORS.get(operator.getName()));
+            String name = operator.getName();
+            counts.count(name, operands, resources);
+            if (counts.gray) {
+                counts.gray = isGrayOperatorOrColor(operator, operands, resources, counts.grayCheckedForms);
+            }
+            if (listener != null) {
+                listener.operator(operator, operands);
+            }
+            if (name.equals("Do")) {
+                if (!operands.isEmpty() && operands.get(operands.size() - 1) instanceof COSName xObjectName) {
+                    drawCounts.merge(xObjectName, 1, Integer::sum);
                 }
-                else if(colorOperatorToColorSpace.containsKey(name)) {
+            }
+            else if (vectorGraphicObj != null) {
+                if (ALL_PAINT_OPERATORS.containsKey(name)) {
+                    vectorGraphicObj.setPaintOperator(ALL_PAINT_OPERATORS.get(name));
+                }
+                else if (colorOperatorToColorSpace.containsKey(name)) {
                     vectorGraphicObj.setColorSpace(colorOperatorToColorSpace.get(name));
-                    if(name.equals("k") && tokens.get(i - 4) != null) {
-                        try {
-                            float c = ((COSNumber) tokens.get(i - 4)).floatValue();
+                    if (name.equals("k") && operands.size() >= 4) {
+                        int first = operands.size() - 4;
+                        if (operands.get(first) instanceof COSNumber c && operands.get(first + 1) instanceof COSNumber m
+                                && operands.get(first + 2) instanceof COSNumber y && operands.get(first + 3) instanceof COSNumber kVal) {
+                            vectorGraphicObj.setCMYKValues(List.of(c.floatValue(), m.floatValue(), y.floatValue(), kVal.floatValue()));
+                        } else {
+                            System.err.println("One of the CMYK operands is not a number: " + operands);
+                        }
+                    }
+                }
+                else if (name.equals("EMC")) {
+                    // Found the end of a Figure tag, colors are named here so the writer only has to format them
+                    for (List<Float> cmyk : vectorGraphicObj.getCMYKValues()) {
+                        int rgb = colorCache.toRGB(PDDeviceCMYK.INSTANCE, new float[]{cmyk.get(0), cmyk.get(1), cmyk.get(2), cmyk.get(3)});
+                        vectorGraphicObj.setApproximateColor(cmyk, new ApproximateColor(ColorMapper.getClosestColorName(rgb), rgb));
+                    }
+                    vectorGraphics.add(vectorGraphicObj);
+                    vectorGraphicObj = null;
+                }
+            }
+            operands.clear();
+        }
+    }
+    /*
+    Pre-scan used by the page-to-image conversion, a page is already grayscale when nothing on it, including forms it draws and annotation
+    appearances, can produce a color. Walks the content stream the same way inspectContents does but stops at the first color found
+     */
+    public boolean isGrayscalePage(PDPage page) throws IOException {
+        Set<COSBase> visitedForms = Collections.newSetFromMap(new IdentityHashMap<>());
+        return hasOnlyGrayContent(page, page.getResources(), visitedForms) && hasOnlyGrayAppearances(page, visitedForms);
+    }
 
-                            float m = ((COSNumber) tokens.get(i - 3)).floatValue();
+    private boolean hasOnlyGrayAppearances(PDPage page, Set<COSBase> visitedForms) throws IOException {
+        for (PDAnnotation annotation : page.getAnnotations()) {
+            PDAppearanceStream appearance = annotation.getNormalAppearanceStream();
+            if (appearance != null && !hasOnlyGrayContent(appearance, appearance.getResources(), visitedForms)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /*
+    Checks every color setting and painting operator of a content stream, operands are collected until their operator is reached
+    RGB and CMYK colors still count as gray when they have no chroma, e.g. "0.5 0.5 0.5 rg" or "0 0 0 1 k"
+     */
+    private boolean hasOnlyGrayContent(PDContentStream contentStream, PDResources resources, Set<COSBase> visitedForms) throws IOException {
+        PDFStreamParser parser = new PDFStreamParser(contentStream);
+        List<Object> operands = new ArrayList<>();
+        Object token;
+        while ((token = parser.parseNextToken()) != null) {
+            if (!(token instanceof Operator operator)) {
+                operands.add(token);
+                continue;
+            }
+            if (!isGrayOperator(operator, operands, resources, visitedForms)) {
+                return false;
+            }
+            operands.clear();
+        }
+        return true;
+    }
 
-                            float y = ((COSNumber) tokens.get(i - 2)).floatValue();
+    // The gray check of measurePages, what can't be checked counts as color so a broken resource doesn't stop the measurement
+    private boolean isGrayOperatorOrColor(Operator operator, List<Object> operands, PDResources resources, Set<COSBase> visitedForms) {
+        try {
+            return isGrayOperator(operator, operands, resources, visitedForms);
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
 
-                            float kVal = ((COSNumber) tokens.get(i - 1)).floatValue();
+    private boolean isGrayOperator(Operator operator, List<Object> operands, PDResources resources, Set<COSBase> visitedForms) throws IOException {
+        return switch (operator.getName()) {
+            case "rg", "RG" -> operands.size() >= 3 && numbersAreEqual(operands.get(operands.size() - 3), operands.get(operands.size() - 2), operands.get(operands.size() - 1));
+            case "k", "K" -> operands.size() >= 4 && numbersAreZero(operands.get(operands.size() - 4), operands.get(operands.size() - 3), operands.get(operands.size() - 2));
+            case "cs", "CS" -> !operands.isEmpty() && operands.get(operands.size() - 1) instanceof COSName name && isGrayColorSpace(name, resources);
+            // Shadings are almost always color ramps, checking their functions isn't worth it for a pre-scan
+            case "sh" -> false;
+            case "BI" -> isGrayInlineImage(operator.getImageParameters(), resources);
+            case "Do" -> !operands.isEmpty() && operands.get(operands.size() - 1) instanceof COSName name && isGrayXObject(name, resources, visitedForms);
+            default -> true;
+        };
+    }
 
+    private boolean isGrayXObject(COSName name, PDResources resources, Set<COSBase> visitedForms) throws IOException {
+        if (resources == null) {
+            return false;
+        }
+        PDXObject xObject = resources.getXObject(name);
+        if (xObject instanceof PDImageXObject image) {
+            // Stencil masks are painted with the current fill color, which has been checked already
+            return image.isStencil() || isGrayColorSpace(image.getColorSpace());
+        }
+        if (xObject instanceof PDFormXObject form) {
+            // A form drawn more than once, or one that draws itself, only has to be checked the first time
+            if (!visitedForms.add(form.getCOSObject())) {
+                return true;
+            }
+            PDResources formResources = form.getResources() != null ? form.getResources() : resources;
+            return hasOnlyGrayContent(form, formResources, visitedForms);
+        }
+        return false;
+    }
 
-                            List<Float> CMYKValues = List.of(c, m, y, kVal);
+    private boolean isGrayInlineImage(COSDictionary parameters, PDResources resources) throws IOException {
+        if (parameters == null) {
+            return false;
+        }
+        if (parameters.getBoolean(COSName.IM, false) || parameters.getBoolean(COSName.IMAGE_MASK, false)) {
+            return true;
+        }
+        COSBase colorSpace = parameters.getDictionaryObject(COSName.CS, COSName.COLORSPACE);
+        // Abbreviated names are only allowed in inline images, and aren't resources
+        if (colorSpace instanceof COSName name) {
+            String value = name.getName();
+            if (value.equals("G")) {
+                return true;
+            }
+            return !value.equals("RGB") && !value.equals("CMYK") && !value.equals("I") && isGrayColorSpace(name, resources);
+        }
+        return false;
+    }
 
-                            vectorGraphicObj.setCMYKValues(CMYKValues);
-                        } catch (ClassCastException e) {
-                            System.err.println("One of the CMYK tokens is not a COSNumber at index " + i + ": " + e.getMessage());
-                        }
-                    }
-                }
-                else if(name.equals("EMC")) {
-                    insideFigure = false;
-                    // Found the end of a Figure tag
-                    logVectorPathInfo(writer, vectorGraphicObj, indentLevel);
-                }
+    // A name missing from the resources would make PDFBox throw, the page counts as color instead
+    private boolean isGrayColorSpace(COSName name, PDResources resources) throws IOException {
+        if (COSName.DEVICEGRAY.equals(name)) {
+            return true;
+        }
+        if (resources == null || COSName.PATTERN.equals(name) || COSName.DEVICERGB.equals(name) || COSName.DEVICECMYK.equals(name)
+                || !resources.hasColorSpace(name)) {
+            return false;
+        }
+        return isGrayColorSpace(resources.getColorSpace(name));
+    }
+
+    // Spot colors (Separation) are treated as color even though they have a single component
+    private static boolean isGrayColorSpace(PDColorSpace colorSpace) {
+        return colorSpace instanceof PDDeviceGray || colorSpace instanceof PDCalGray
+                || colorSpace instanceof PDICCBased && colorSpace.getNumberOfComponents() == 1;
+    }
+
+    private static boolean numbersAreEqual(Object first, Object second, Object third) {
+        return first instanceof COSNumber a && second instanceof COSNumber b && third instanceof COSNumber c
+                && a.floatValue() == b.floatValue() && b.floatValue() == c.floatValue();
+    }
+
+    private static boolean numbersAreZero(Object cyan, Object magenta, Object yellow) {
+        return cyan instanceof COSNumber c && magenta instanceof COSNumber m && yellow instanceof COSNumber y
+                && c.floatValue() == 0f && m.floatValue() == 0f && y.floatValue() == 0f;
+    }
+    /*
+    Writes the analysis of one page to the output file, XObjects first and then the vector graphics in the order they're drawn
+     */
+    private void writePage(BufferedWriter writer, PageAnalysis page) throws IOException {
+        writer.write("## Page " + (page.pageIndex() + 1) + "\n");
+        writeXObjects(writer, page.xObjects(), page.pageIndex() + 1, 1);
+        for (VectorGraphicInfo vectorGraphicInfo : page.vectorGraphics()) {
+            logVectorPathInfo(writer, vectorGraphicInfo, 1);
+        }
+    }
 
+    /*
+    A form's contents are only written the first time the form is listed, later occurrences point back to the page where it was written
+     */
+    private void writeXObjects(BufferedWriter writer, List<XObjectAnalysis> xObjects, int pageNumber, int indentLevel) throws IOException {
+        for (XObjectAnalysis xObject : xObjects) {
+            if (xObject instanceof ImageAnalysis image) {
+                logImageInfo(writer, image, indentLevel);
+            } else if (xObject instanceof FormAnalysis form) {
+                Integer firstPage = form.key() != null ? writtenForms.putIfAbsent(form.key(), pageNumber) : null;
+                writer.write(indent(indentLevel) + "- Form XObject: " + form.name() + describeForm(form, firstPage, pageNumber) + "\n");
+                logDrawCount(writer, form.drawCount(), indentLevel + 1);
+                if (firstPage == null && form.children() != null) {
+                    writeXObjects(writer, form.children(), pageNumber, indentLevel + 1);
+                }
             }
         }
     }
+
+    // Object key of the form and where its contents are, when they aren't written right below it
+    private static String describeForm(FormAnalysis form, Integer firstPage, int pageNumber) {
+        List<String> notes = new ArrayList<>();
+        if (form.key() != null) {
+            notes.add("object " + form.key().getNumber() + " " + form.key().getGeneration());
+        }
+        if (firstPage != null) {
+            notes.add(firstPage == pageNumber ? "listed above" : "listed on page " + firstPage);
+        } else if (form.children() == null) {
+            notes.add("lists itself");
+        }
+        return notes.isEmpty() ? "" : " (" + String.join(", ", notes) + ")";
+    }
     /*
-    Retrieves the information about an image found on a page, then formats the information to be written to output file
+    Formats the information about an image found on a page to be written to output file
      */
-    private void logImageInfo(BufferedWriter writer, String name, PDImageXObject image, int indentLevel) throws IOException {
-        writer.write(indent(indentLevel) + "- Image XObject: " + name + "\n");
-        writer.write(indent(indentLevel + 1) + "* Width: " + image.getWidth() + "\n");
-        writer.write(indent(indentLevel + 1) + "* Height: " + image.getHeight() + "\n");
-        writer.write(indent(indentLevel + 1) + "* ColorSpace: " + image.getColorSpace().getName() + "\n");
-        writer.write(indent(indentLevel + 1) + "* BitsPerComponent: " + image.getBitsPerComponent() + "\n");
-        writer.write(indent(indentLevel + 1) + "* IsStencil: " + image.isStencil() + "\n");
-        writer.write(indent(indentLevel + 1) + "* Suffix: " + image.getSuffix() + "\n");
+    private void logImageInfo(BufferedWriter writer, ImageAnalysis image, int indentLevel) throws IOException {
+        writer.write(indent(indentLevel) + "- Image XObject: " + image.name() + "\n");
+        writer.write(indent(indentLevel + 1) + "* Width: " + image.width() + "\n");
+        writer.write(indent(indentLevel + 1) + "* Height: " + image.height() + "\n");
+        writer.write(indent(indentLevel + 1) + "* ColorSpace: " + image.colorSpace() + "\n");
+        writer.write(indent(indentLevel + 1) + "* BitsPerComponent: " + image.bitsPerComponent() + "\n");
+        writer.write(indent(indentLevel + 1) + "* IsStencil: " + image.stencil() + "\n");
+        writer.write(indent(indentLevel + 1) + "* Suffix: " + image.suffix() + "\n");
+        logDrawCount(writer, image.drawCount(), indentLevel + 1);
+    }
+
+    private void logDrawCount(BufferedWriter writer, int drawCount, int indentLevel) throws IOException {
+        if (drawCount != NOT_COUNTED) {
+            writer.write(indent(indentLevel) + "* Drawn: " + drawCount + (drawCount == 1 ? " time" : " times") + "\n");
+        }
     }
     /*
     Makes uses of a VectorGraphicInfo object to retrieve properties of a graphic drawn in page's content stream, then formats that information to be written to output file
@@ -192,22 +624,243 @@ public class PDFInspector {
         Set<List<Float>> CMYKValues = vectorGraphicInfo.getCMYKValues();
         writer.write(indent(indentLevel + 2) + "* Colors: \n");
         for (List<Float> cmyk : CMYKValues) {
-            String closestColor = ColorMapper.getClosestColorName(cmyk);
             String joined = cmyk.stream()
                     .map(v -> String.format("%.2f", v))
                     .collect(Collectors.joining(", "));
             writer.write(indent(indentLevel + 3) + "- (" + joined + ")\n");
-            writer.write(indent(indentLevel + 4) + "- Approximate Color: " + closestColor + "\n");
+            ApproximateColor color = vectorGraphicInfo.getApproximateColor(cmyk);
+            writer.write(indent(indentLevel + 4) + "- Approximate Color: " + color.name()
+                    + " (RGB: " + color.red() + ", " + color.green() + ", " + color.blue() + ")\n");
         }
 
         writer.write(indent(indentLevel + 1) + "* Paint Operator: " + vectorGraphicInfo.getPaintOperator() + "\n");
     }
+    /*
+    JSON Lines records of one page, the page record comes first and its images, forms and vector graphics follow in the order of the Markdown report
+    XObjects inside forms list the names of the forms around them in "forms", outermost first
+     */
+    private void writePageRecords(JsonWriter json, PageAnalysis page) throws IOException {
+        int pageNumber = page.pageIndex() + 1;
+        json.beginObject()
+                .name("type").value("page")
+                .name("page").value(pageNumber)
+                .name("width").value(page.width())
+                .name("height").value(page.height())
+                .name("xObjects").value(page.xObjects().size())
+                .name("vectorGraphics").value(page.vectorGraphics().size())
+                .name("operators").value(page.counts().operators)
+                .name("paths").value(page.counts().paths)
+                .name("colorOperators").value(page.counts().colorOperators);
+        writeStrings(json.name("colorSpaces"), List.copyOf(page.counts().colorSpaces));
+        json.endObject().newLine();
+        writeXObjectRecords(json, page.xObjects(), pageNumber, new ArrayList<>());
+        for (VectorGraphicInfo vectorGraphicInfo : page.vectorGraphics()) {
+            json.beginObject()
+                    .name("type").value("vectorGraphic")
+                    .name("page").value(pageNumber)
+                    .name("colorSpace").value(vectorGraphicInfo.getColorSpace())
+                    .name("paintOperator").value(vectorGraphicInfo.getPaintOperator())
+                    .name("colors").beginArray();
+            for (List<Float> cmyk : vectorGraphicInfo.getCMYKValues()) {
+                ApproximateColor color = vectorGraphicInfo.getApproximateColor(cmyk);
+                json.beginObject().name("cmyk").beginArray();
+                for (float component : cmyk) {
+                    json.value(component);
+                }
+                json.endArray()
+                        .name("approximateColor").value(color.name())
+                        .name("rgb").beginArray().value(color.red()).value(color.green()).value(color.blue()).endArray()
+                        .endObject();
+            }
+            json.endArray().endObject().newLine();
+        }
+    }
+
+    // Same traversal as writeXObjects, a form's contents only get records the first time the form is listed
+    private void writeXObjectRecords(JsonWriter json, List<XObjectAnalysis> xObjects, int pageNumber, List<String> forms) throws IOException {
+        for (XObjectAnalysis xObject : xObjects) {
+            json.beginObject()
+                    .name("type").value(xObject instanceof ImageAnalysis ? "image" : "form")
+                    .name("page").value(pageNumber);
+            if (xObject instanceof ImageAnalysis image) {
+                json.name("name").value(image.name());
+                writeStrings(json.name("forms"), forms);
+                json.name("width").value(image.width())
+                        .name("height").value(image.height())
+                        .name("colorSpace").value(image.colorSpace())
+                        .name("bitsPerComponent").value(image.bitsPerComponent())
+                        .name("stencil").value(image.stencil());
+                writeStrings(json.name("filters"), image.filters());
+                json.name("suffix").value(image.suffix());
+                writeDrawCountMember(json, image.drawCount());
+                json.endObject().newLine();
+            } else if (xObject instanceof FormAnalysis form) {
+                Integer firstPage = form.key() != null ? writtenForms.putIfAbsent(form.key(), pageNumber) : null;
+                json.name("name").value(form.name());
+                writeStrings(json.name("forms"), forms);
+                json.name("object").value(form.key() != null ? form.key().getNumber() + " " + form.key().getGeneration() : null);
+                writeDrawCountMember(json, form.drawCount());
+                if (firstPage != null) {
+                    json.name("listedOnPage").value(firstPage);
+                } else if (form.children() == null) {
+                    json.name("listsItself").value(true);
+                }
+                json.endObject().newLine();
+                if (firstPage == null && form.children() != null) {
+                    forms.add(form.name());
+                    writeXObjectRecords(json, form.children(), pageNumber, forms);
+                    forms.remove(forms.size() - 1);
+                }
+            }
+        }
+    }
+
+    private static void writeDrawCountMember(JsonWriter json, int drawCount) throws IOException {
+        if (drawCount != NOT_COUNTED) {
+            json.name("drawn").value(drawCount);
+        }
+    }
+
+    private static void writeStrings(JsonWriter json, List<String> values) throws IOException {
+        json.beginArray();
+        for (String value : values) {
+            json.value(value);
+        }
+        json.endArray();
+    }
     // Indents strings of page information to file, makes it easier to set indent level and quickly identify level indentation in logImageInfo and logVectorPathInfo
     private String indent(int level) {
         return "  ".repeat(level);
     }
 
 
+    /*
+    Everything the report says about one page, built by whichever thread analyzed the page and only read by the writer afterwards
+     */
+    private record PageAnalysis(int pageIndex, float width, float height, List<XObjectAnalysis> xObjects, List<VectorGraphicInfo> vectorGraphics,
+                                ContentCounts counts) {
+    }
+
+    /*
+    Operators of a page's content stream, the paths they paint and the color spaces they pick, filled in while the content is parsed
+    Device spaces are named after the operators that imply them, cs and CS operands after the family of the space they select, read from the
+    resource dictionary without building the color space so ICC profiles are never parsed
+     */
+    private static final class ContentCounts {
+        private int operators;
+        private int pathOperators;
+        private int paths;
+        private int colorOperators;
+        private final Set<String> colorSpaces = new TreeSet<>();
+        // Whether nothing checked so far can produce a color, always false for pages that aren't checked
+        private boolean gray;
+        private final Set<COSBase> grayCheckedForms = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        ContentCounts(boolean checkGray) {
+            this.gray = checkGray;
+        }
+
+        void count(String operator, List<Object> operands, PDResources resources) {
+            operators++;
+            if (VECTOR_OPERATORS.contains(operator)) {
+                pathOperators++;
+            }
+            if (PATH_END_OPERATORS.contains(operator)) {
+                paths++;
+            }
+            if (!COLOR_OPERATORS.contains(operator)) {
+                return;
+            }
+            colorOperators++;
+            switch (operator) {
+                case "g", "G" -> colorSpaces.add("DeviceGray");
+                case "rg", "RG" -> colorSpaces.add("DeviceRGB");
+                case "k", "K" -> colorSpaces.add("DeviceCMYK");
+                case "cs", "CS" -> {
+                    if (!operands.isEmpty() && operands.get(operands.size() - 1) instanceof COSName name) {
+                        colorSpaces.add(colorSpaceFamily(name, resources));
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    // A named color space's entry is either the family name itself or an array starting with it, anything else is reported under its resource name
+    private static String colorSpaceFamily(COSName name, PDResources resources) {
+        COSDictionary colorSpaces = resources != null ? resources.getCOSObject().getCOSDictionary(COSName.COLORSPACE) : null;
+        COSBase colorSpace = colorSpaces != null ? colorSpaces.getDictionaryObject(name) : null;
+        if (colorSpace instanceof COSArray array && array.size() > 0 && array.getObject(0) instanceof COSName family) {
+            return family.getName();
+        }
+        return colorSpace instanceof COSName family ? family.getName() : name.getName();
+    }
+
+    /*
+    Features of one page for the cost estimate. Images count once for every time the page draws them and once for every drawn form listing them,
+    images listed but never drawn by the page are left out
+     */
+    private static PageFeatures toFeatures(PageAnalysis page) {
+        long[] images = new long[3];
+        Set<String> colorSpaces = new TreeSet<>(page.counts().colorSpaces);
+        addImages(page.xObjects(), 1, images, colorSpaces);
+        return new PageFeatures(page.pageIndex(), page.width(), page.height(), page.counts().operators, page.counts().pathOperators,
+                page.counts().paths, page.counts().colorOperators, (int) images[0], images[1], images[2], Set.copyOf(colorSpaces), page.counts().gray);
+    }
+
+    // images holds the number of images drawn, their pixels and the pixels of those that aren't gray
+    private static void addImages(List<XObjectAnalysis> xObjects, int draws, long[] images, Set<String> colorSpaces) {
+        for (XObjectAnalysis xObject : xObjects) {
+            if (xObject instanceof ImageAnalysis image) {
+                int imageDraws = image.drawCount() == NOT_COUNTED ? draws : image.drawCount();
+                if (imageDraws == 0) {
+                    continue;
+                }
+                long pixels = (long) image.width() * image.height() * imageDraws;
+                images[0] += imageDraws;
+                images[1] += pixels;
+                if (!image.stencil() && !image.colorSpace().equals("DeviceGray") && !image.colorSpace().equals("CalGray")) {
+                    images[2] += pixels;
+                }
+                if (!image.stencil()) {
+                    colorSpaces.add(image.colorSpace());
+                }
+            } else if (xObject instanceof FormAnalysis form && form.children() != null) {
+                int formDraws = form.drawCount() == NOT_COUNTED ? draws : form.drawCount();
+                if (formDraws > 0) {
+                    addImages(form.children(), formDraws, images, colorSpaces);
+                }
+            }
+        }
+    }
+
+    /*
+    Forms being analyzed around the current resources by their depth, the page's own forms are at depth 0, and the shallowest depth the
+    cycle guard stopped at since the innermost of them started
+     */
+    private static final class FormPath {
+        private final Map<COSBase, Integer> depths = new IdentityHashMap<>();
+        private int cutDepth = Integer.MAX_VALUE;
+    }
+
+    // Receives the page analyses in page order, one implementation per report format
+    private interface ReportWriter {
+        void writePage(PageAnalysis page) throws IOException;
+    }
+
+    // An image or form XObject found in a resource dictionary, drawCount is NOT_COUNTED for XObjects found inside forms
+    private sealed interface XObjectAnalysis permits ImageAnalysis, FormAnalysis {
+    }
+
+    private record ImageAnalysis(String name, int width, int height, String colorSpace, int bitsPerComponent, boolean stencil,
+                                 List<String> filters, String suffix, int drawCount) implements XObjectAnalysis {
+    }
+
+    // key is null for forms that weren't read from a file, children is null where the form lists itself
+    private record FormAnalysis(String name, COSObjectKey key, List<XObjectAnalysis> children, int drawCount) implements XObjectAnalysis {
+    }
+
     /*
     Helper class that represents a graphic drawn in a page's content stream
     Since these graphics don't exist as objects inside the PDF, they have to be constructed by parsing colorspace, paint, draw etc. operators that comprise them
@@ -216,13 +869,15 @@ public class PDFInspector {
     private static class VectorGraphicInfo {
         private String colorSpace, paintOperator;
         private Set<List<Float>> CMYKValues;
+        // Closest named color of every CMYK value, filled in once the graphic is complete
+        private final Map<List<Float>, ApproximateColor> approximateColors = new HashMap<>();
         ArrayList<Float> RGBValues;
         ArrayList<Float> GrayValues;
 
         VectorGraphicInfo() {
             colorSpace = "Unknown";
             paintOperator = "Unknown";
-            CMYKValues = new HashSet<>();
+            CMYKValues = new LinkedHashSet<>();
         }
 
         VectorGraphicInfo(String colorSpace, String paintOperator) {
@@ -250,6 +905,14 @@ public class PDFInspector {
             return CMYKValues;
         }
 
+        public void setApproximateColor(List<Float> cmyk, ApproximateColor color) {
+            approximateColors.put(cmyk, color);
+        }
+
+        public ApproximateColor getApproximateColor(List<Float> cmyk) {
+            return approximateColors.get(cmyk);
+        }
+
         public void setRGBValues(ArrayList<Float> RGBValues) {
             this.RGBValues = new ArrayList<>(RGBValues);
         }
@@ -257,58 +920,18 @@ public class PDFInspector {
             this.GrayValues = new ArrayList<>(GrayValues);
         }
     }
-    /*
-    Associates colors in a CMYK colorspace with a color approximation like black, red, green, etc. and also returns the RGB equivalent
-    Output is written to file alongside the path drawn graphic in  content stream
-     */
-    private static class ColorMapper {
-
-        private static final Map<String, int[]> NAMED_COLORS = Map.ofEntries(
-                Map.entry("Black", new int[]{0, 0, 0}),
-                Map.entry("White", new int[]{255, 255, 255}),
-                Map.entry("Red", new int[]{255, 0, 0}),
-                Map.entry("Green", new int[]{0, 255, 0}),
-                Map.entry("Blue", new int[]{0, 0, 255}),
-                Map.entry("Cyan", new int[]{0, 255, 255}),
-                Map.entry("Magenta", new int[]{255, 0, 255}),
-                Map.entry("Yellow", new int[]{255, 255, 0}),
-                Map.entry("Gray", new int[]{128, 128, 128}),
-                Map.entry("Orange", new int[]{255, 165, 0})
-                // Temporarily disabled to prevent false "brown" positives
-//                Map.entry("Dark Brown", new int[]{101, 67, 33})
-
-
-        );
-        /*
-        Converts CMYK operands to RGB, then finds closest color in class's NAMED_COLORS field to RGB in Euclidean distance
-         */
-        public static String getClosestColorName(List<Float> cmyk) {
-            float c = cmyk.get(0);
-            float m = cmyk.get(1);
-            float y = cmyk.get(2);
-            float k = cmyk.get(3);
-            int r = (int)(255 * (1 - c) * (1 - k));
-            int g = (int)(255 * (1 - m) * (1 - k));
-            int b = (int)(255 * (1 - y) * (1 - k));
-
-            String closestColor = null;
-            double minDistance = Double.MAX_VALUE;
-
-            for (Map.Entry<String, int[]> entry : NAMED_COLORS.entrySet()) {
-                int[] rgb = entry.getValue();
-                double distance = Math.sqrt(
-                        Math.pow(rgb[0] - r, 2) +
-                                Math.pow(rgb[1] - g, 2) +
-                                Math.pow(rgb[2] - b, 2)
-                );
-
-                if (distance < minDistance) {
-                    minDistance = distance;
-                    closestColor = entry.getKey();
-                }
-            }
+    // Name of the closest named color and the RGB equivalent of a CMYK value, packed as 0xRRGGBB
+    private record ApproximateColor(String name, int rgb) {
+        int red() {
+            return (rgb >> 16) & 0xFF;
+        }
+
+        int green() {
+            return (rgb >> 8) & 0xFF;
+        }
 
-            return closestColor + String.format(" (RGB: %d, %d, %d)", r, g, b);
+        int blue() {
+            return rgb & 0xFF;
         }
     }
 
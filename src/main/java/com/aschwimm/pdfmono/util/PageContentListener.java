@@ -0,0 +1,23 @@
+package com.aschwimm.pdfmono.util;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+Receives the operators of a page's content stream from PDFInspector's parse of the page, so a check that needs the same operators doesn't
+parse the page again. operands are the ones of the operator, the list is reused for the next operator once operator returns
+ */
+public interface PageContentListener {
+    void operator(Operator operator, List<Object> operands) throws IOException;
+
+    // Called after the last operator of the page
+    void endPage() throws IOException;
+
+    // Creates the listener of one page, called on whichever thread analyzes the page
+    interface Factory {
+        PageContentListener forPage(PDPage page, int pageIndex) throws IOException;
+    }
+}
@@ -0,0 +1,15 @@
+package com.aschwimm.pdfmono.util;
+
+import java.util.Set;
+
+/*
+Cheap features of one page measured by PDFInspector, what the conversion cost estimate is computed from
+Width and height are the crop box in points. Operator and path counts cover the page's own content stream, forms it draws aren't parsed.
+Image counts and pixels include every time an image is drawn, colorImagePixels leaves out gray images and stencil masks.
+Color spaces are family names, e.g. DeviceRGB, ICCBased or Separation. gray is the pre-scan of PDFInspector.isGrayscalePage, taken during
+the same parse
+ */
+public record PageFeatures(int pageIndex, float width, float height, int operators, int pathOperators, int paths, int colorOperators,
+                           int images, long imagePixels, long colorImagePixels, Set<String> colorSpaces,
+                           boolean gray) {
+}
@@ -0,0 +1,204 @@
+package com.aschwimm.pdfmono.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/*
+Converts rendered RGB pages to TYPE_BYTE_GRAY images by working on the rasters' backing arrays instead of calling getRGB/setRGB per pixel
+Output is bit-for-bit identical to the original per pixel loop, which computed Rec.601 luminance in float, applied Math.pow(gray, 1 / gamma)
+in double precision and stored the result through BufferedImage.setRGB. All of that is folded into lookup tables built once per gamma value
+Luminance for a whole row is computed by a LuminanceKernel, which uses SIMD lanes when the Vector API is available
+ */
+public class RasterGrayscaleConverter {
+
+    // Default gamma value
+    public static final double DEFAULT_GAMMA = 2.2;
+    // Rows handed to a single parallel task, large enough that task overhead doesn't dominate on narrow pages
+    private static final int ROWS_PER_BAND = 32;
+
+    private static final Map<LuminanceModel, RasterGrayscaleConverter> DEFAULT_GAMMA_CONVERTERS = new ConcurrentHashMap<>();
+
+    private final LuminanceKernel kernel;
+
+    /*
+    thresholds[v] is the smallest float luminance that produces gamma corrected level v, thresholds[256] is a sentinel that is never reached
+    levelAtFloor[i] is the level produced by luminance i, so a lookup starts there and moves up across at most a few thresholds
+     */
+    private final float[] thresholds = new float[257];
+    private final int[] levelAtFloor = new int[257];
+    // Byte the TYPE_BYTE_GRAY color model stores when setRGB is called with gray level v in every channel
+    private final byte[] levelToGrayByte = new byte[256];
+
+    public RasterGrayscaleConverter(double gamma) {
+        this(LuminanceModel.REC_601, gamma);
+    }
+
+    public RasterGrayscaleConverter(LuminanceModel model, double gamma) {
+        this.kernel = LuminanceKernel.forModel(model);
+        if (gamma <= 0) {
+            throw new IllegalArgumentException("Gamma must be a positive number.");
+        }
+        // Inverse gamma used to linearize the luminance by removing gamma intensity from grayscale values
+        double invGamma = 1.0 / gamma;
+        for (int i = 0; i < levelAtFloor.length; i++) {
+            levelAtFloor[i] = gammaLevel(i, invGamma);
+        }
+        thresholds[0] = 0f;
+        thresholds[256] = Float.POSITIVE_INFINITY;
+        for (int level = 1; level < 256; level++) {
+            thresholds[level] = smallestLuminanceForLevel(level, invGamma);
+        }
+        // setRGB converts sRGB into the linear gray color space of TYPE_BYTE_GRAY, asking the color model once per level keeps that conversion exact
+        BufferedImage probe = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        for (int level = 0; level < 256; level++) {
+            probe.setRGB(0, 0, (level << 16) | (level << 8) | level);
+            levelToGrayByte[level] = ((DataBufferByte) probe.getRaster().getDataBuffer()).getData()[0];
+        }
+    }
+
+    public static RasterGrayscaleConverter withDefaultGamma() {
+        return withDefaultGamma(LuminanceModel.REC_601);
+    }
+
+    // Converters are immutable once built, so one per luminance model is shared by every page and worker
+    public static RasterGrayscaleConverter withDefaultGamma(LuminanceModel model) {
+        return DEFAULT_GAMMA_CONVERTERS.computeIfAbsent(model, m -> new RasterGrayscaleConverter(m, DEFAULT_GAMMA));
+    }
+
+    public LuminanceModel getLuminanceModel() {
+        return kernel.getModel();
+    }
+
+    /*
+    Allocates a TYPE_BYTE_GRAY image the size of the source and fills it with the gamma corrected luminance of every pixel
+     */
+    public BufferedImage convert(BufferedImage source) {
+        BufferedImage grayscaleImage = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        convert(source, grayscaleImage);
+        return grayscaleImage;
+    }
+
+    /*
+    Writes the gray version of source into an existing TYPE_BYTE_GRAY image of the same size, rows are processed in parallel bands
+     */
+    public void convert(BufferedImage source, BufferedImage destination) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (destination.getType() != BufferedImage.TYPE_BYTE_GRAY || destination.getWidth() != width || destination.getHeight() != height) {
+            throw new IllegalArgumentException("Destination must be a TYPE_BYTE_GRAY image of size " + width + "x" + height);
+        }
+        WritableRaster grayRaster = destination.getRaster();
+        byte[] gray = ((DataBufferByte) grayRaster.getDataBuffer()).getData();
+        ComponentSampleModel graySampleModel = (ComponentSampleModel) grayRaster.getSampleModel();
+        int grayStride = graySampleModel.getScanlineStride();
+        int grayOffset = graySampleModel.getOffset(-grayRaster.getSampleModelTranslateX(), -grayRaster.getSampleModelTranslateY());
+
+        RowReader reader = rowReaderFor(source);
+        int bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int[] row = new int[width];
+            float[] luminance = new float[width];
+            int lastRow = Math.min(height, (band + 1) * ROWS_PER_BAND);
+            for (int y = band * ROWS_PER_BAND; y < lastRow; y++) {
+                reader.readRow(y, row);
+                convertRow(row, luminance, gray, grayOffset + y * grayStride, width);
+            }
+        });
+    }
+
+    /*
+    Converts one row of packed RGB pixels, alpha is ignored, into gray bytes starting at grayIndex
+    luminance is scratch space of at least width entries
+     */
+    private void convertRow(int[] packedRgb, float[] luminance, byte[] gray, int grayIndex, int width) {
+        kernel.luminanceRow(packedRgb, luminance, width);
+        for (int x = 0; x < width; x++) {
+            gray[grayIndex + x] = levelToGrayByte[levelFor(luminance[x])];
+        }
+    }
+
+    /*
+    Maps a luminance in the 0-255 range to its gamma corrected level, equivalent to
+    (int) Math.min(255, Math.max(0, Math.pow(luminance / 255.0, invGamma) * 255)) without calling Math.pow
+     */
+    int levelFor(float luminance) {
+        int level = levelAtFloor[(int) luminance];
+        while (luminance >= thresholds[level + 1]) {
+            level++;
+        }
+        return level;
+    }
+
+    private static int gammaLevel(float luminance, double invGamma) {
+        // Apply standard grayscale conversion and normalize to 0-1 for normalized intensity
+        double gray = luminance / 255.0;
+        // Removes gamma encoding from the intensity by raising to the power of
+        gray = Math.pow(gray, invGamma);
+        // Convert back into 8 bit range with bounds for overflow and underflow
+        return (int) Math.min(255, Math.max(0, gray * 255));
+    }
+
+    /*
+    Math.pow is semi-monotonic, so the level only ever increases with luminance and a binary search over the bit patterns of
+    non-negative floats (which sort the same way as the floats themselves) finds the exact boundary
+     */
+    private static float smallestLuminanceForLevel(int level, double invGamma) {
+        int low = 0;
+        int high = Float.floatToIntBits(256f);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (gammaLevel(Float.intBitsToFloat(mid), invGamma) >= level) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return Float.intBitsToFloat(low);
+    }
+
+    /*
+    Reads rows straight out of the DataBuffer for the layouts PDFRenderer produces, anything else goes through the row based getRGB
+     */
+    private static RowReader rowReaderFor(BufferedImage source) {
+        WritableRaster raster = source.getRaster();
+        int width = source.getWidth();
+        boolean untranslated = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+        int type = source.getType();
+        if (untranslated && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel) {
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            int[] pixels = buffer.getData();
+            int stride = sampleModel.getScanlineStride();
+            int offset = buffer.getOffset();
+            return (y, row) -> System.arraycopy(pixels, offset + y * stride, row, 0, width);
+        }
+        if (untranslated && type == BufferedImage.TYPE_3BYTE_BGR
+                && raster.getSampleModel() instanceof ComponentSampleModel sampleModel) {
+            byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int stride = sampleModel.getScanlineStride();
+            int pixelStride = sampleModel.getPixelStride();
+            int[] bandOffsets = sampleModel.getBandOffsets();
+            return (y, row) -> {
+                int index = y * stride;
+                for (int x = 0; x < width; x++, index += pixelStride) {
+                    row[x] = ((pixels[index + bandOffsets[0]] & 0xFF) << 16)
+                            | ((pixels[index + bandOffsets[1]] & 0xFF) << 8)
+                            | (pixels[index + bandOffsets[2]] & 0xFF);
+                }
+            };
+        }
+        return (y, row) -> source.getRGB(0, y, width, 1, row, 0, width);
+    }
+
+    // Fills row with the packed RGB pixels of source row y
+    private interface RowReader {
+        void readRow(int y, int[] row);
+    }
+}
@@ -0,0 +1,33 @@
+package com.aschwimm.pdfmono.util;
+
+/*
+Output format of the inspection report
+MARKDOWN is the nested, human readable report written to <output>.md
+JSONL writes one JSON object per line to <output>.jsonl, a document record followed by a record for every page and then one for every
+image, form and vector graphic of that page, each written as soon as its page is analyzed
+ */
+public enum ReportFormat {
+    MARKDOWN(".md"),
+    JSONL(".jsonl");
+
+    private final String extension;
+
+    ReportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /*
+    Parses the value of the --format command line option
+     */
+    public static ReportFormat fromName(String name) {
+        return switch (name.toLowerCase()) {
+            case "markdown", "md" -> MARKDOWN;
+            case "jsonl", "json-lines" -> JSONL;
+            default -> throw new IllegalArgumentException("Unknown report format '" + name + "', expected markdown or jsonl.");
+        };
+    }
+}
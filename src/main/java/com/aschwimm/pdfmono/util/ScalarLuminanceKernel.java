@@ -0,0 +1,29 @@
+package com.aschwimm.pdfmono.util;
+
+/*
+One pixel at a time fallback used when the Vector API module isn't available
+ */
+class ScalarLuminanceKernel implements LuminanceKernel {
+    private final LuminanceModel model;
+
+    ScalarLuminanceKernel(LuminanceModel model) {
+        this.model = model;
+    }
+
+    @Override
+    public void luminanceRow(int[] packedRgb, float[] luminance, int length) {
+        for (int x = 0; x < length; x++) {
+            luminance[x] = model.luminance(packedRgb[x]);
+        }
+    }
+
+    @Override
+    public LuminanceModel getModel() {
+        return model;
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return false;
+    }
+}
@@ -0,0 +1,75 @@
+package com.aschwimm.pdfmono.util;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+SIMD luminance kernel, unpacks a vector's worth of packed RGB pixels into red, green and blue lanes and applies the model's weights
+Multiplies and adds are kept separate and in the same order as LuminanceModel.luminance so results match the scalar kernel exactly
+Only referenced through LuminanceKernel.forModel after checking that jdk.incubator.vector is present
+ */
+class VectorLuminanceKernel implements LuminanceKernel {
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    // Same shape as the int species so one vector of pixels converts to one vector of floats
+    private static final VectorSpecies<Float> FLOAT_SPECIES = VectorSpecies.of(float.class, INT_SPECIES.vectorShape());
+
+    private final LuminanceModel model;
+    private final float redWeight;
+    private final float greenWeight;
+    private final float blueWeight;
+
+    VectorLuminanceKernel(LuminanceModel model) {
+        this.model = model;
+        this.redWeight = model.getRedWeight();
+        this.greenWeight = model.getGreenWeight();
+        this.blueWeight = model.getBlueWeight();
+    }
+
+    @Override
+    public void luminanceRow(int[] packedRgb, float[] luminance, int length) {
+        int lanes = INT_SPECIES.length();
+        int bound = INT_SPECIES.loopBound(length);
+        int x = 0;
+        if (model.isLinearLight()) {
+            // Channels are linearized by gathering from the model's table, the channel values themselves are the gather indices
+            float[] linearChannel = LuminanceModel.linearChannelTable();
+            int[] redIndex = new int[lanes];
+            int[] greenIndex = new int[lanes];
+            int[] blueIndex = new int[lanes];
+            for (; x < bound; x += lanes) {
+                IntVector pixels = IntVector.fromArray(INT_SPECIES, packedRgb, x);
+                pixels.lanewise(VectorOperators.LSHR, 16).and(0xFF).intoArray(redIndex, 0);
+                pixels.lanewise(VectorOperators.LSHR, 8).and(0xFF).intoArray(greenIndex, 0);
+                pixels.and(0xFF).intoArray(blueIndex, 0);
+                FloatVector red = FloatVector.fromArray(FLOAT_SPECIES, linearChannel, 0, redIndex, 0);
+                FloatVector green = FloatVector.fromArray(FLOAT_SPECIES, linearChannel, 0, greenIndex, 0);
+                FloatVector blue = FloatVector.fromArray(FLOAT_SPECIES, linearChannel, 0, blueIndex, 0);
+                red.mul(redWeight).add(green.mul(greenWeight)).add(blue.mul(blueWeight)).intoArray(luminance, x);
+            }
+        } else {
+            for (; x < bound; x += lanes) {
+                IntVector pixels = IntVector.fromArray(INT_SPECIES, packedRgb, x);
+                FloatVector red = (FloatVector) pixels.lanewise(VectorOperators.LSHR, 16).and(0xFF).convert(VectorOperators.I2F, 0);
+                FloatVector green = (FloatVector) pixels.lanewise(VectorOperators.LSHR, 8).and(0xFF).convert(VectorOperators.I2F, 0);
+                FloatVector blue = (FloatVector) pixels.and(0xFF).convert(VectorOperators.I2F, 0);
+                red.mul(redWeight).add(green.mul(greenWeight)).add(blue.mul(blueWeight)).intoArray(luminance, x);
+            }
+        }
+        // Remaining pixels that don't fill a whole vector
+        for (; x < length; x++) {
+            luminance[x] = model.luminance(packedRgb[x]);
+        }
+    }
+
+    @Override
+    public LuminanceModel getModel() {
+        return model;
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+}
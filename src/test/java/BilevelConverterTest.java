@@ -0,0 +1,115 @@
+import com.aschwimm.pdfmono.util.BilevelConverter;
+import com.aschwimm.pdfmono.util.BinarizationMethod;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class BilevelConverterTest {
+
+    @Test
+    void shouldSplitPixelsAtFixedThreshold() {
+        // Arrange
+        BufferedImage grayImage = grayImage(13, 130, (x, y) -> x * 20);
+
+        // Act
+        BufferedImage bilevelImage = new BilevelConverter(BinarizationMethod.THRESHOLD, 128).convert(grayImage);
+
+        // Assert
+        assertThat(bilevelImage.getType()).isEqualTo(BufferedImage.TYPE_BYTE_BINARY);
+        for (int y = 0; y < 130; y++) {
+            for (int x = 0; x < 13; x++) {
+                assertThat(bilevelImage.getRaster().getSample(x, y, 0)).isEqualTo(x * 20 >= 128 ? 1 : 0);
+            }
+        }
+    }
+
+    @Test
+    void shouldPickOtsuThresholdBetweenTwoTones() {
+        // Arrange, stripes at 10 and 30 would all be black with the fixed threshold of 128
+        BufferedImage grayImage = grayImage(100, 100, (x, y) -> (x / 10) % 2 == 0 ? 10 : 30);
+
+        // Act
+        BufferedImage bilevelImage = new BilevelConverter(BinarizationMethod.OTSU, 128).convert(grayImage);
+
+        // Assert
+        for (int x = 0; x < 100; x++) {
+            assertThat(bilevelImage.getRaster().getSample(x, 50, 0)).isEqualTo((x / 10) % 2 == 0 ? 0 : 1);
+        }
+    }
+
+    @Test
+    void shouldPreserveAverageToneWhenDithering() {
+        // Arrange
+        BufferedImage grayImage = grayImage(200, 200, (x, y) -> 64);
+
+        // Act
+        BufferedImage bilevelImage = new BilevelConverter(BinarizationMethod.FLOYD_STEINBERG, 128).convert(grayImage);
+
+        // Assert, a quarter of the pixels should come out white give or take edge effects
+        int white = 0;
+        for (int y = 0; y < 200; y++) {
+            for (int x = 0; x < 200; x++) {
+                white += bilevelImage.getRaster().getSample(x, y, 0);
+            }
+        }
+        assertThat(white / (200.0 * 200.0)).isCloseTo(0.25, within(0.02));
+    }
+
+    @Test
+    void shouldOverwriteEveryBitOfReusedDestination() {
+        // Arrange, the destination starts out all white as if left over from a previous page
+        BufferedImage grayImage = grayImage(37, 70, (x, y) -> (x * 7 + y * 3) % 256);
+        BufferedImage expected = new BilevelConverter(BinarizationMethod.FLOYD_STEINBERG, 128).convert(grayImage);
+        BufferedImage reused = new BufferedImage(37, 70, BufferedImage.TYPE_BYTE_BINARY);
+        Arrays.fill(((DataBufferByte) reused.getRaster().getDataBuffer()).getData(), (byte) 0xFF);
+
+        // Act
+        new BilevelConverter(BinarizationMethod.FLOYD_STEINBERG, 128).convert(grayImage, reused);
+
+        // Assert
+        assertThat(((DataBufferByte) reused.getRaster().getDataBuffer()).getData())
+                .isEqualTo(((DataBufferByte) expected.getRaster().getDataBuffer()).getData());
+    }
+
+    @Test
+    void shouldDitherBandsOfOnePageLikeTheWholePage() {
+        // Arrange
+        Shade shade = (x, y) -> (x * 5 + y * 2) % 256;
+        BufferedImage expected = new BilevelConverter(BinarizationMethod.FLOYD_STEINBERG, 128).convert(grayImage(53, 90, shade));
+        BilevelConverter pageConverter = new BilevelConverter(BinarizationMethod.FLOYD_STEINBERG, 128);
+        BufferedImage banded = new BufferedImage(53, 90, BufferedImage.TYPE_BYTE_BINARY);
+
+        // Act, three bands of uneven height converted top to bottom through the same converter
+        int top = 0;
+        for (int bandHeight : new int[]{17, 40, 33}) {
+            int bandTop = top;
+            BufferedImage band = pageConverter.convert(grayImage(53, bandHeight, (x, y) -> shade.at(x, y + bandTop)));
+            banded.getRaster().setRect(0, top, band.getRaster());
+            top += bandHeight;
+        }
+
+        // Assert
+        assertThat(((DataBufferByte) banded.getRaster().getDataBuffer()).getData())
+                .isEqualTo(((DataBufferByte) expected.getRaster().getDataBuffer()).getData());
+    }
+
+    private interface Shade {
+        int at(int x, int y);
+    }
+
+    private static BufferedImage grayImage(int width, int height, Shade shade) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setSample(x, y, 0, Math.min(255, shade.at(x, y)));
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,33 @@
+import com.aschwimm.pdfmono.util.ColorMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ColorMapperTest {
+
+    @Test
+    void shouldNameNamedColorsAfterThemselves() {
+        // Act & Assert
+        assertThat(ColorMapper.getClosestColorName(0x000000)).isEqualTo("Black");
+        assertThat(ColorMapper.getClosestColorName(0xFFFFFF)).isEqualTo("White");
+        assertThat(ColorMapper.getClosestColorName(0xFF0000)).isEqualTo("Red");
+        assertThat(ColorMapper.getClosestColorName(0x008000)).isEqualTo("Green");
+        assertThat(ColorMapper.getClosestColorName(0x00FF00)).isEqualTo("Lime");
+        assertThat(ColorMapper.getClosestColorName(0xFFA500)).isEqualTo("Orange");
+        assertThat(ColorMapper.getClosestColorName(0x8B4513)).isEqualTo("SaddleBrown");
+        assertThat(ColorMapper.getClosestColorName(0x663399)).isEqualTo("RebeccaPurple");
+    }
+
+    @Test
+    void shouldNameNearbyColorsAfterClosestNamedColor() {
+        // Act
+        String first = ColorMapper.getClosestColorName(0xFA0505);
+        String second = ColorMapper.getClosestColorName(0xFA0505);
+
+        // Assert, the second lookup reads the cell the first one filled
+        assertThat(first).isEqualTo("Red");
+        assertThat(second).isSameAs(first);
+        assertThat(ColorMapper.getClosestColorName(0x7F7F7F)).isEqualTo("Gray");
+        assertThat(ColorMapper.getClosestColorName(0x0A0A0A)).isEqualTo("Black");
+    }
+}
@@ -0,0 +1,53 @@
+import com.aschwimm.pdfmono.service.ContentStreamColorRewriter;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ContentStreamColorRewriterTest {
+
+    @Test
+    void shouldReplaceRgbOperatorsWithGrayOperators() throws IOException {
+        // Arrange
+        byte[] content = "1 0 0 rg 0 0 1 RG 0 0 10 10 re f".getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        int rewritten = new ContentStreamColorRewriter().rewrite(content, out);
+
+        // Assert
+        List<Object> tokens = new PDFStreamParser(out.toByteArray()).parse();
+        assertThat(rewritten).isEqualTo(2);
+        assertThat(tokens).hasSize(10);
+        assertThat(((COSNumber) tokens.get(0)).floatValue()).isCloseTo(0.299f, within(1e-4f));
+        assertThat(((Operator) tokens.get(1)).getName()).isEqualTo("g");
+        assertThat(((COSNumber) tokens.get(2)).floatValue()).isCloseTo(0.114f, within(1e-4f));
+        assertThat(((Operator) tokens.get(3)).getName()).isEqualTo("G");
+        assertThat(((Operator) tokens.get(8)).getName()).isEqualTo("re");
+    }
+
+    @Test
+    void shouldKeepOtherOperatorsAndNearWhiteCmykUnchanged() throws IOException {
+        // Arrange
+        byte[] content = "0 0 0 0 k BT /F1 12 Tf (Hello) Tj ET".getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        int rewritten = new ContentStreamColorRewriter().rewrite(content, out);
+
+        // Assert
+        List<Object> tokens = new PDFStreamParser(out.toByteArray()).parse();
+        assertThat(rewritten).isZero();
+        assertThat(tokens).hasSize(12);
+        assertThat(((Operator) tokens.get(4)).getName()).isEqualTo("k");
+        assertThat(((Operator) tokens.get(8)).getName()).isEqualTo("Tf");
+        assertThat(((Operator) tokens.get(11)).getName()).isEqualTo("ET");
+    }
+}
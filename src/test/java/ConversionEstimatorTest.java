@@ -0,0 +1,49 @@
+import com.aschwimm.pdfmono.service.ConversionEstimate;
+import com.aschwimm.pdfmono.service.ConversionEstimator;
+import com.aschwimm.pdfmono.service.ConversionOptions;
+import com.aschwimm.pdfmono.service.PageEngine;
+import com.aschwimm.pdfmono.util.PDFDocumentIO;
+import com.aschwimm.pdfmono.util.PageFeatures;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ConversionEstimatorTest {
+
+    @Test
+    void shouldEstimateEveryEngineFromPageFeatures(@TempDir Path tempDir) throws IOException {
+        // Arrange, two pages filling a red rectangle, the second one drawn with a luminosity blend mode
+        Path inputPath = tempDir.resolve("estimate_input.pdf");
+        Path outputPath = tempDir.resolve("estimate.json");
+        TestDocuments.saveHybridDocument(inputPath);
+        ConversionOptions options = new ConversionOptions();
+        options.setDpi(72f);
+
+        // Act
+        ConversionEstimate estimate = new ConversionEstimator(new PDFDocumentIO()).estimate(inputPath.toString(), options);
+        estimate.writeJson(outputPath.toString());
+
+        // Assert
+        assertThat(estimate.getPages()).hasSize(2);
+        PageFeatures features = estimate.getPages().get(0).features();
+        assertThat(features.width()).isEqualTo(612f);
+        assertThat(features.paths()).isEqualTo(1);
+        assertThat(features.colorOperators()).isEqualTo(1);
+        assertThat(features.colorSpaces()).containsExactly("DeviceRGB");
+        assertThat(features.gray()).isFalse();
+        assertThat(estimate.getPages().get(0).hybridEngine()).isEqualTo(PageEngine.IN_PLACE);
+        assertThat(estimate.getPages().get(1).hybridEngine()).isEqualTo(PageEngine.RASTER);
+        assertThat(estimate.getPages().get(1).rasterReason()).isEqualTo("blend mode Luminosity");
+        assertThat(estimate.getUnsupportedPages()).isEqualTo(1);
+        assertThat(estimate.getRenderedPages()).isEqualTo(2);
+        // A 612 x 792 point page at 72 DPI is 484,704 pixels, a JPEG at quality 0.75 takes 0.1425 bytes of each
+        assertThat(estimate.getPages().get(0).raster().outputBytes()).isEqualTo(Math.round(484_704 * 0.1425));
+        assertThat(estimate.getHybrid().millis()).isLessThan(estimate.getRaster().millis());
+        assertThat(Files.readString(outputPath)).contains("\"recommendedEngine\":\"hybrid\"").contains("\"rasterReason\":\"blend mode Luminosity\"");
+    }
+}
@@ -0,0 +1,85 @@
+import com.aschwimm.pdfmono.util.ColorConverter;
+import com.aschwimm.pdfmono.util.GrayColorCache;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class GrayColorCacheTest {
+
+    @Test
+    void shouldConvertRepeatedColorOnlyOnce() throws IOException {
+        // Arrange
+        GrayColorCache cache = new GrayColorCache();
+        float[] cmyk = {0.1f, 0.6f, 0.3f, 0.2f};
+
+        // Act
+        float first = cache.toGray(PDDeviceCMYK.INSTANCE, cmyk);
+        float second = cache.toGray(PDDeviceCMYK.INSTANCE, cmyk.clone());
+        // Differs from cmyk by far less than one quantization step
+        float nearby = cache.toGray(PDDeviceCMYK.INSTANCE, new float[]{0.10001f, 0.6f, 0.3f, 0.2f});
+
+        // Assert
+        assertThat(second).isEqualTo(first);
+        assertThat(nearby).isEqualTo(first);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldMatchDirectConversionAcrossTableGrowth() throws IOException {
+        // Arrange
+        GrayColorCache cache = new GrayColorCache();
+
+        // Act & Assert
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 1000; i++) {
+                float[] rgb = {(i % 10) / 10f, ((i / 10) % 10) / 10f, (i / 100) / 10f};
+                assertThat(cache.toGray(PDDeviceRGB.INSTANCE, rgb))
+                        .isCloseTo(ColorConverter.rgbToGray(rgb), within(1e-3f));
+            }
+        }
+        assertThat(cache.size()).isEqualTo(1000);
+        assertThat(cache.getHits()).isEqualTo(1000);
+        assertThat(cache.toRGB(PDDeviceRGB.INSTANCE, new float[]{1f, 0.5f, 0f})).isEqualTo(0xFF8000);
+    }
+
+    @Test
+    void shouldGiveEveryThreadItsOwnTable() throws Exception {
+        // Arrange
+        GrayColorCache cache = new GrayColorCache();
+        float[] cmyk = {0.1f, 0.6f, 0.3f, 0.2f};
+        float expected = cache.toGray(PDDeviceCMYK.INSTANCE, cmyk);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        // Act, four threads each look the same color up 100 times
+        List<Future<Float>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            results.add(executor.submit(() -> {
+                float gray = 0f;
+                for (int i = 0; i < 100; i++) {
+                    gray = cache.toGray(PDDeviceCMYK.INSTANCE, cmyk);
+                }
+                return gray;
+            }));
+        }
+        for (Future<Float> result : results) {
+            assertThat(result.get()).isEqualTo(expected);
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+        // Assert, each worker converts the color once and reuses it after that
+        assertThat(cache.getMisses()).isEqualTo(5);
+        assertThat(cache.getHits()).isEqualTo(4 * 99);
+    }
+}
@@ -0,0 +1,43 @@
+import com.aschwimm.pdfmono.util.ImageBufferPool;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ImageBufferPoolTest {
+
+    @Test
+    void shouldReuseReleasedImageOfSameSizeAndType() {
+        // Arrange
+        ImageBufferPool pool = new ImageBufferPool(2, 2);
+        BufferedImage first = pool.acquireImage(100, 50, BufferedImage.TYPE_INT_RGB);
+        pool.releaseImage(first);
+
+        // Act
+        BufferedImage sameSize = pool.acquireImage(100, 50, BufferedImage.TYPE_INT_RGB);
+        BufferedImage otherType = pool.acquireImage(100, 50, BufferedImage.TYPE_BYTE_GRAY);
+
+        // Assert
+        assertThat(sameSize).isSameAs(first);
+        assertThat(otherType).isNotSameAs(first);
+        assertThat(otherType.getType()).isEqualTo(BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    @Test
+    void shouldHandBackEmptiedEncodeBuffers() {
+        // Arrange
+        ImageBufferPool pool = new ImageBufferPool(1, 1);
+        ByteArrayOutputStream buffer = pool.acquireBuffer();
+        buffer.write(42);
+        pool.releaseBuffer(buffer);
+
+        // Act
+        ByteArrayOutputStream reused = pool.acquireBuffer();
+
+        // Assert
+        assertThat(reused).isSameAs(buffer);
+        assertThat(reused.size()).isZero();
+    }
+}
@@ -0,0 +1,70 @@
+import com.aschwimm.pdfmono.util.JsonWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class JsonWriterTest {
+
+    @Test
+    void shouldSeparateNestedMembersWithCommas() throws IOException {
+        // Arrange
+        StringWriter out = new StringWriter();
+        JsonWriter json = new JsonWriter(out);
+
+        // Act
+        json.beginObject()
+                .name("pages").value(3)
+                .name("stages").beginObject()
+                .name("render").beginArray().value(1.5).value(2.5).endArray()
+                .name("save").beginObject().endObject()
+                .endObject()
+                .name("streaming").value(false)
+                .endObject();
+
+        // Assert
+        assertThat(out.toString()).isEqualTo("{\"pages\":3,\"stages\":{\"render\":[1.5,2.5],\"save\":{}},\"streaming\":false}");
+    }
+
+    @Test
+    void shouldEscapeStringsAndWriteNonFiniteNumbersAsNull() throws IOException {
+        // Arrange
+        StringWriter out = new StringWriter();
+        JsonWriter json = new JsonWriter(out);
+
+        // Act
+        json.beginArray().value("say \"hi\"\\\n\u0001").value(Double.NaN).value((String) null).endArray();
+
+        // Assert
+        assertThat(out.toString()).isEqualTo("[\"say \\\"hi\\\"\\\\\\n\\u0001\",null,null]");
+    }
+
+    @Test
+    void shouldStartEachTopLevelValueOnItsOwnLine() throws IOException {
+        // Arrange
+        StringWriter out = new StringWriter();
+        JsonWriter json = new JsonWriter(out);
+
+        // Act
+        json.beginObject().name("page").value(1).endObject().newLine();
+        json.beginObject().name("page").value(2).endObject().newLine();
+
+        // Assert
+        assertThat(out.toString()).isEqualTo("{\"page\":1}\n{\"page\":2}\n");
+    }
+
+    @Test
+    void shouldWriteFloatsWithFloatPrecision() throws IOException {
+        // Arrange
+        StringWriter out = new StringWriter();
+        JsonWriter json = new JsonWriter(out);
+
+        // Act
+        json.beginArray().value(0.6f).value(Float.NaN).value(3).endArray();
+
+        // Assert
+        assertThat(out.toString()).isEqualTo("[0.6,null,3]");
+    }
+}
@@ -0,0 +1,48 @@
+import com.aschwimm.pdfmono.util.ColorConverter;
+import com.aschwimm.pdfmono.util.LuminanceKernel;
+import com.aschwimm.pdfmono.util.LuminanceModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class LuminanceKernelTest {
+
+    @ParameterizedTest
+    @EnumSource(LuminanceModel.class)
+    void shouldMatchScalarLuminanceForEveryPixel(LuminanceModel model) {
+        // Arrange
+        LuminanceKernel kernel = LuminanceKernel.forModel(model);
+        // Odd length so the scalar tail after the last full vector is exercised
+        int[] pixels = new Random(7).ints(10_001, 0, 0x1000000).toArray();
+        float[] luminance = new float[pixels.length];
+
+        // Act
+        kernel.luminanceRow(pixels, luminance, pixels.length);
+
+        // Assert
+        for (int i = 0; i < pixels.length; i++) {
+            assertThat(luminance[i]).isEqualTo(model.luminance(pixels[i]));
+        }
+    }
+
+    @Test
+    void shouldKeepRec601IdenticalToColorConverter() {
+        // Assert
+        for (int level = 0; level < 256; level++) {
+            assertThat(LuminanceModel.REC_601.luminance(level, 255 - level, level / 2))
+                    .isEqualTo(ColorConverter.rgbToGray(level, 255 - level, level / 2));
+        }
+    }
+
+    @Test
+    void shouldParseLuminanceModelNames() {
+        // Assert
+        assertThat(LuminanceModel.fromName("709")).isEqualTo(LuminanceModel.REC_709);
+        assertThat(LuminanceModel.fromName("linear")).isEqualTo(LuminanceModel.LINEAR_LIGHT);
+        assertThatThrownBy(() -> LuminanceModel.fromName("2020")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
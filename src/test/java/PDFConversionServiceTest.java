@@ -1,14 +1,43 @@
+import com.aschwimm.pdfmono.service.ConversionOptions;
 import com.aschwimm.pdfmono.service.PDFConversionService;
+import com.aschwimm.pdfmono.service.PageEngine;
+import com.aschwimm.pdfmono.service.SaveMode;
 import static org.assertj.core.api.Assertions.*;
 
 import com.aschwimm.pdfmono.util.PDFDocumentIO;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 public class PDFConversionServiceTest {
     private PDFConversionService pdfConversionService;
@@ -49,6 +78,414 @@ public class PDFConversionServiceTest {
         assertThat(Files.exists(Paths.get(outputPath))).isTrue();
     }
 
+    @Test
+    void shouldConvertImageSharedByEveryPageOnlyOnce(@TempDir Path tempDir) throws IOException {
+        // Arrange, three pages drawing the same image XObject
+        Path inputPath = tempDir.resolve("shared_image_input.pdf");
+        Path outputPath = tempDir.resolve("shared_image_output.pdf");
+        try (PDDocument document = new PDDocument()) {
+            BufferedImage logo = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+            logo.setRGB(5, 5, 0xFF0000);
+            PDImageXObject sharedImage = LosslessFactory.createFromImage(document, logo);
+            for (int i = 0; i < 3; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    contentStream.drawImage(sharedImage, 10, 10);
+                }
+            }
+            document.save(inputPath.toFile());
+        }
+
+        // Act
+        boolean result = pdfConversionService.convertToBlackAndWhite(inputPath.toString(), outputPath.toString());
+
+        // Assert
+        assertThat(result).isTrue();
+        assertThat(pdfConversionService.getReport().getImageCacheMisses()).isEqualTo(1);
+        assertThat(pdfConversionService.getReport().getImageCacheHits()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldKeepJpegImagesJpegCompressedWhenConvertingToGray(@TempDir Path tempDir) throws IOException {
+        // Arrange
+        Path inputPath = tempDir.resolve("jpeg_image_input.pdf");
+        Path outputPath = tempDir.resolve("jpeg_image_output.pdf");
+        try (PDDocument document = new PDDocument()) {
+            BufferedImage photo = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < 32; y++) {
+                for (int x = 0; x < 32; x++) {
+                    photo.setRGB(x, y, (x * 8) << 16 | (y * 8) << 8 | 0x40);
+                }
+            }
+            PDPage page = new PDPage();
+            document.addPage(page);
+            try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                contentStream.drawImage(JPEGFactory.createFromImage(document, photo), 10, 10);
+            }
+            document.save(inputPath.toFile());
+        }
+
+        // Act
+        boolean result = pdfConversionService.convertToBlackAndWhite(inputPath.toString(), outputPath.toString());
+
+        // Assert
+        assertThat(result).isTrue();
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            PDResources resources = converted.getPage(0).getResources();
+            PDImageXObject image = (PDImageXObject) resources.getXObject(resources.getXObjectNames().iterator().next());
+            assertThat(image.getColorSpace()).isInstanceOf(PDDeviceGray.class);
+            assertThat(image.getStream().getFilters()).containsExactly(COSName.DCT_DECODE);
+        }
+    }
+
+    @Test
+    void shouldRewritePageColorsInOrderWithSeveralThreads(@TempDir Path tempDir) throws IOException {
+        // Arrange, each page fills a rectangle in a different shade of red
+        Path inputPath = tempDir.resolve("multi_page_input.pdf");
+        Path outputPath = tempDir.resolve("multi_page_output.pdf");
+        int pageCount = 6;
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pageCount; i++) {
+                TestDocuments.addRectanglePage(document, i / 10f, 0f, 0f);
+            }
+            document.save(inputPath.toFile());
+        }
+
+        // Act
+        boolean result = pdfConversionService.convertToBlackAndWhite(inputPath.toString(), outputPath.toString(), 3);
+
+        // Assert
+        assertThat(result).isTrue();
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            for (int i = 0; i < pageCount; i++) {
+                List<Object> tokens = new PDFStreamParser(converted.getPage(i)).parse();
+                assertThat(((Operator) tokens.get(1)).getName()).isEqualTo("g");
+                assertThat(((COSNumber) tokens.get(0)).floatValue()).isCloseTo(0.299f * i / 10f, within(1e-4f));
+            }
+        }
+    }
+
+    @Test
+    void shouldShareOneTintTransformBetweenSpotColorSpaces(@TempDir Path tempDir) throws IOException {
+        // Arrange, two pages with their own Separation space and one with a DeviceN space
+        Path inputPath = tempDir.resolve("spot_color_input.pdf");
+        Path outputPath = tempDir.resolve("spot_color_output.pdf");
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < 2; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                COSArray separation = new COSArray();
+                separation.add(COSName.SEPARATION);
+                separation.add(COSName.getPDFName("Spot" + i));
+                separation.add(COSName.DEVICECMYK);
+                separation.add(exponentialFunction(4));
+                COSDictionary colorSpaces = new COSDictionary();
+                colorSpaces.setItem(COSName.getPDFName("CS0"), separation);
+                if (i == 1) {
+                    COSArray colorants = new COSArray();
+                    colorants.add(COSName.getPDFName("Cyan"));
+                    colorants.add(COSName.getPDFName("Spot"));
+                    COSArray deviceN = new COSArray();
+                    deviceN.add(COSName.DEVICEN);
+                    deviceN.add(colorants);
+                    deviceN.add(COSName.DEVICECMYK);
+                    deviceN.add(exponentialFunction(4));
+                    colorSpaces.setItem(COSName.getPDFName("CS1"), deviceN);
+                }
+                PDResources resources = new PDResources();
+                resources.getCOSObject().setItem(COSName.COLORSPACE, colorSpaces);
+                page.setResources(resources);
+            }
+            document.save(inputPath.toFile());
+        }
+
+        // Act
+        boolean result = pdfConversionService.convertToBlackAndWhite(inputPath.toString(), outputPath.toString());
+
+        // Assert
+        assertThat(result).isTrue();
+        assertThat(pdfConversionService.getReport().getSeparationColorSpaces()).isEqualTo(2);
+        assertThat(pdfConversionService.getReport().getDeviceNColorSpaces()).isEqualTo(1);
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            COSArray first = colorSpace(converted.getPage(0), "CS0");
+            COSArray second = colorSpace(converted.getPage(1), "CS0");
+            COSArray deviceN = colorSpace(converted.getPage(1), "CS1");
+            assertThat(first.getObject(2)).isEqualTo(COSName.DEVICEGRAY);
+            assertThat(first.getObject(3)).isSameAs(second.getObject(3));
+            assertThat(((COSDictionary) first.getObject(3)).getInt(COSName.FUNCTION_TYPE)).isEqualTo(2);
+            assertThat(deviceN.getObject(2)).isEqualTo(COSName.DEVICEGRAY);
+            assertThat(((COSDictionary) deviceN.getObject(3)).getInt(COSName.FUNCTION_TYPE)).isZero();
+        }
+    }
+
+    // Type 2 function from no color to full black in a space with outputs components
+    private static COSDictionary exponentialFunction(int outputs) {
+        COSArray c0 = new COSArray();
+        COSArray c1 = new COSArray();
+        for (int i = 0; i < outputs; i++) {
+            c0.add(COSInteger.ZERO);
+            c1.add(COSInteger.ONE);
+        }
+        COSArray domain = new COSArray();
+        domain.add(COSInteger.ZERO);
+        domain.add(COSInteger.ONE);
+        COSDictionary function = new COSDictionary();
+        function.setInt(COSName.FUNCTION_TYPE, 2);
+        function.setItem(COSName.DOMAIN, domain);
+        function.setItem(COSName.C0, c0);
+        function.setItem(COSName.C1, c1);
+        function.setInt(COSName.N, 1);
+        return function;
+    }
+
+    private static COSArray numbers(float... values) {
+        COSArray array = new COSArray();
+        for (float value : values) {
+            array.add(new COSFloat(value));
+        }
+        return array;
+    }
+
+    private static COSArray colorSpace(PDPage page, String name) {
+        COSDictionary colorSpaces = page.getResources().getCOSObject().getCOSDictionary(COSName.COLORSPACE);
+        return (COSArray) colorSpaces.getDictionaryObject(COSName.getPDFName(name));
+    }
+
+    @Test
+    void shouldAppendOnlyChangesToOriginalWhenSavingIncrementally(@TempDir Path tempDir) throws IOException {
+        // Arrange
+        Path inputPath = tempDir.resolve("incremental_input.pdf");
+        Path outputPath = tempDir.resolve("incremental_output.pdf");
+        try (PDDocument document = new PDDocument()) {
+            TestDocuments.addRedRectanglePage(document);
+            document.save(inputPath.toFile());
+        }
+
+        // Act
+        boolean result = pdfConversionService.convertToBlackAndWhite(inputPath.toString(), outputPath.toString(), 1, SaveMode.INCREMENTAL);
+
+        // Assert
+        assertThat(result).isTrue();
+        byte[] original = Files.readAllBytes(inputPath);
+        byte[] saved = Files.readAllBytes(outputPath);
+        assertThat(saved.length).isGreaterThan(original.length);
+        assertThat(Arrays.copyOf(saved, original.length)).isEqualTo(original);
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            List<Object> tokens = new PDFStreamParser(converted.getPage(0)).parse();
+            assertThat(((Operator) tokens.get(1)).getName()).isEqualTo("g");
+        }
+    }
+
+    @Test
+    void shouldRefuseIncrementalSaveOverTheInputFile(@TempDir Path tempDir) throws IOException {
+        // Arrange
+        Path inputPath = tempDir.resolve("incremental_same_file.pdf");
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            document.save(inputPath.toFile());
+        }
+
+        // Act
+        boolean result = pdfConversionService.convertToBlackAndWhite(inputPath.toString(), inputPath.toString(), 1, SaveMode.INCREMENTAL);
+
+        // Assert
+        assertThat(result).isFalse();
+    }
+
+    @Test
+    void shouldKeepContentStreamOfPagesWithoutColorOperators(@TempDir Path tempDir) throws IOException {
+        // Arrange, a gray text page followed by a page with a red rectangle
+        Path inputPath = tempDir.resolve("unchanged_content_input.pdf");
+        Path outputPath = tempDir.resolve("unchanged_content_output.pdf");
+        byte[] grayContent;
+        try (PDDocument document = new PDDocument()) {
+            PDPage grayPage = TestDocuments.addGrayRectanglePage(document, 0.5f);
+            TestDocuments.addRedRectanglePage(document);
+            document.save(inputPath.toFile());
+            grayContent = grayPage.getContents().readAllBytes();
+        }
+
+        // Act
+        boolean result = pdfConversionService.convertToBlackAndWhite(inputPath.toString(), outputPath.toString());
+
+        // Assert
+        assertThat(result).isTrue();
+        assertThat(pdfConversionService.getReport().getPagesUnchanged()).isEqualTo(1);
+        assertThat(pdfConversionService.getReport().getPagesRewritten()).isEqualTo(1);
+        assertThat(pdfConversionService.getReport().getColorOperatorsRewritten()).isEqualTo(1);
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            assertThat(converted.getPage(0).getContents().readAllBytes()).isEqualTo(grayContent);
+        }
+    }
+
+    @Test
+    void shouldRewriteSharedSelfReferencingFormOnlyOnce(@TempDir Path tempDir) throws IOException {
+        // Arrange, a red form drawn by two pages whose resources also hold the form itself
+        Path inputPath = tempDir.resolve("nested_form_input.pdf");
+        Path outputPath = tempDir.resolve("nested_form_output.pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDFormXObject form = new PDFormXObject(document);
+            form.setBBox(new PDRectangle(100, 100));
+            PDResources formResources = new PDResources();
+            formResources.put(COSName.getPDFName("Self"), form);
+            form.setResources(formResources);
+            try (OutputStream out = form.getContentStream().createOutputStream()) {
+                out.write("1 0 0 rg 0 0 100 100 re f".getBytes(StandardCharsets.US_ASCII));
+            }
+            for (int i = 0; i < 2; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    contentStream.drawForm(form);
+                }
+            }
+            document.save(inputPath.toFile());
+        }
+
+        // Act
+        boolean result = pdfConversionService.convertToBlackAndWhite(inputPath.toString(), outputPath.toString());
+
+        // Assert
+        assertThat(result).isTrue();
+        assertThat(pdfConversionService.getReport().getNestedStreamsRewritten()).isEqualTo(1);
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            PDResources resources = converted.getPage(1).getResources();
+            PDFormXObject form = (PDFormXObject) resources.getXObject(resources.getXObjectNames().iterator().next());
+            List<Object> tokens = new PDFStreamParser(form).parse();
+            assertThat(((COSNumber) tokens.get(0)).floatValue()).isCloseTo(0.299f, within(1e-4f));
+            assertThat(((Operator) tokens.get(1)).getName()).isEqualTo("g");
+            assertThat(form.getBBox().getWidth()).isEqualTo(100f);
+        }
+    }
+
+    @Test
+    void shouldRewriteType3GlyphsAndSoftMaskGroups(@TempDir Path tempDir) throws IOException {
+        // Arrange, a colored d0 glyph of a Type3 font and a luminosity soft mask whose group paints red
+        Path inputPath = tempDir.resolve("type3_soft_mask_input.pdf");
+        Path outputPath = tempDir.resolve("type3_soft_mask_output.pdf");
+        try (PDDocument document = new PDDocument()) {
+            COSStream glyph = document.getDocument().createCOSStream();
+            try (OutputStream out = glyph.createOutputStream()) {
+                out.write("1000 0 d0 1 0 0 rg 0 0 750 750 re f".getBytes(StandardCharsets.US_ASCII));
+            }
+            COSDictionary charProcs = new COSDictionary();
+            charProcs.setItem(COSName.getPDFName("a"), glyph);
+            COSArray differences = new COSArray();
+            differences.add(COSInteger.get(97));
+            differences.add(COSName.getPDFName("a"));
+            COSDictionary encoding = new COSDictionary();
+            encoding.setItem(COSName.DIFFERENCES, differences);
+            COSDictionary type3Font = new COSDictionary();
+            type3Font.setItem(COSName.TYPE, COSName.FONT);
+            type3Font.setItem(COSName.SUBTYPE, COSName.TYPE3);
+            type3Font.setItem(COSName.FONT_BBOX, new PDRectangle(1000, 1000).getCOSArray());
+            type3Font.setItem(COSName.FONT_MATRIX, numbers(0.001f, 0f, 0f, 0.001f, 0f, 0f));
+            type3Font.setItem(COSName.CHAR_PROCS, charProcs);
+            type3Font.setItem(COSName.ENCODING, encoding);
+            type3Font.setInt(COSName.FIRST_CHAR, 97);
+            type3Font.setInt(COSName.LAST_CHAR, 97);
+            type3Font.setItem(COSName.WIDTHS, numbers(1000f));
+
+            PDFormXObject maskGroup = new PDFormXObject(document);
+            maskGroup.setBBox(new PDRectangle(100, 100));
+            try (OutputStream out = maskGroup.getContentStream().createOutputStream()) {
+                out.write("1 0 0 rg 0 0 100 100 re f".getBytes(StandardCharsets.US_ASCII));
+            }
+            COSDictionary softMask = new COSDictionary();
+            softMask.setItem(COSName.S, COSName.getPDFName("Luminosity"));
+            softMask.setItem(COSName.G, maskGroup);
+            COSDictionary graphicsState = new COSDictionary();
+            graphicsState.setItem(COSName.SMASK, softMask);
+
+            PDResources resources = new PDResources();
+            COSDictionary fonts = new COSDictionary();
+            fonts.setItem(COSName.getPDFName("F1"), type3Font);
+            resources.getCOSObject().setItem(COSName.FONT, fonts);
+            COSDictionary graphicsStates = new COSDictionary();
+            graphicsStates.setItem(COSName.getPDFName("GS1"), graphicsState);
+            resources.getCOSObject().setItem(COSName.EXT_G_STATE, graphicsStates);
+            PDPage page = new PDPage();
+            page.setResources(resources);
+            PDStream contents = new PDStream(document);
+            try (OutputStream out = contents.createOutputStream()) {
+                out.write("/GS1 gs BT /F1 12 Tf (a) Tj ET".getBytes(StandardCharsets.US_ASCII));
+            }
+            page.setContents(contents);
+            document.addPage(page);
+            document.save(inputPath.toFile());
+        }
+
+        // Act
+        boolean result = pdfConversionService.convertToBlackAndWhite(inputPath.toString(), outputPath.toString());
+
+        // Assert
+        assertThat(result).isTrue();
+        assertThat(pdfConversionService.getReport().getNestedStreamsRewritten()).isEqualTo(2);
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            COSDictionary resources = converted.getPage(0).getResources().getCOSObject();
+            COSDictionary font = (COSDictionary) resources.getCOSDictionary(COSName.FONT).getDictionaryObject(COSName.getPDFName("F1"));
+            COSStream glyph = (COSStream) font.getCOSDictionary(COSName.CHAR_PROCS).getDictionaryObject(COSName.getPDFName("a"));
+            COSDictionary graphicsState = (COSDictionary) resources.getCOSDictionary(COSName.EXT_G_STATE).getDictionaryObject(COSName.getPDFName("GS1"));
+            COSStream maskGroup = (COSStream) graphicsState.getCOSDictionary(COSName.SMASK).getDictionaryObject(COSName.G);
+            for (COSStream stream : List.of(glyph, maskGroup)) {
+                String content = new String(stream.createInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+                assertThat(content).contains(" g").doesNotContain("rg");
+            }
+        }
+    }
+
+    @Test
+    void shouldRenderOnlyPagesInPlaceConversionCannotHandle(@TempDir Path tempDir) throws IOException {
+        // Arrange, two red pages, the second one drawn with a luminosity blend mode
+        Path inputPath = tempDir.resolve("hybrid_input.pdf");
+        Path outputPath = tempDir.resolve("hybrid_output.pdf");
+        TestDocuments.saveHybridDocument(inputPath);
+        ConversionOptions options = new ConversionOptions();
+        options.setDpi(36f);
+
+        // Act
+        boolean result = pdfConversionService.convertHybrid(inputPath.toString(), outputPath.toString(), options);
+
+        // Assert
+        assertThat(result).isTrue();
+        assertThat(pdfConversionService.getReport().getPageEngines()).containsExactly(PageEngine.IN_PLACE, PageEngine.RASTER);
+        assertThat(pdfConversionService.getReport().getRasterReason(1)).isEqualTo("blend mode Luminosity");
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            List<Object> tokens = new PDFStreamParser(converted.getPage(0)).parse();
+            assertThat(((Operator) tokens.get(1)).getName()).isEqualTo("g");
+            PDResources resources = converted.getPage(1).getResources();
+            PDImageXObject image = (PDImageXObject) resources.getXObject(resources.getXObjectNames().iterator().next());
+            assertThat(image.getColorSpace()).isInstanceOf(PDDeviceGray.class);
+        }
+    }
+
+    @Test
+    void shouldKeepTransparencyGroupPagesInPlaceWithGrayBlendingSpace(@TempDir Path tempDir) throws IOException {
+        // Arrange, a red page that is a transparency group blending in RGB
+        Path inputPath = tempDir.resolve("group_input.pdf");
+        Path outputPath = tempDir.resolve("group_output.pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = TestDocuments.addRedRectanglePage(document);
+            COSDictionary group = new COSDictionary();
+            group.setItem(COSName.S, COSName.getPDFName("Transparency"));
+            group.setItem(COSName.CS, COSName.DEVICERGB);
+            page.getCOSObject().setItem(COSName.GROUP, group);
+            document.save(inputPath.toFile());
+        }
+
+        // Act
+        boolean result = pdfConversionService.convertHybrid(inputPath.toString(), outputPath.toString(), new ConversionOptions());
+
+        // Assert
+        assertThat(result).isTrue();
+        assertThat(pdfConversionService.getReport().getPageEngines()).containsExactly(PageEngine.IN_PLACE);
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            COSDictionary convertedGroup = converted.getPage(0).getCOSObject().getCOSDictionary(COSName.GROUP);
+            assertThat(convertedGroup.getDictionaryObject(COSName.CS)).isEqualTo(COSName.DEVICEGRAY);
+        }
+    }
+
     @Test
     void shouldReturnGrayscaleImageFromColorInput() {
         // Arrange
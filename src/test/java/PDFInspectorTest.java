@@ -1,10 +1,25 @@
+import com.aschwimm.pdfmono.util.PDFDocumentIO;
 import com.aschwimm.pdfmono.util.PDFInspector;
+import com.aschwimm.pdfmono.util.PageFeatures;
+import com.aschwimm.pdfmono.util.ReportFormat;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.nio.file.*;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -16,7 +31,7 @@ public class PDFInspectorTest {
 
     @BeforeEach
     public void setUp() {
-        pdfInspector = new PDFInspector();
+        pdfInspector = new PDFInspector(new PDFDocumentIO());
         inputPath = Paths.get("src/test/resources/input/inspector_sample.pdf");
         outputLogPath = Paths.get("src/test/resources/output/inspector_report.md");
     }
@@ -57,4 +72,161 @@ public class PDFInspectorTest {
         // Assert
         assertThat(thrown).isInstanceOf(IOException.class);
     }
+
+    @Test
+    void shouldWriteSameReportInPageOrderWithSeveralThreads(@TempDir Path tempDir) throws IOException {
+        // Arrange, every page draws a shared image once and a tagged vector graphic in a different shade of cyan
+        Path samplePath = tempDir.resolve("multi_page_sample.pdf");
+        int pageCount = 7;
+        try (PDDocument document = new PDDocument()) {
+            PDImageXObject sharedImage = LosslessFactory.createFromImage(document, new BufferedImage(8, 4, BufferedImage.TYPE_INT_RGB));
+            for (int i = 0; i < pageCount; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    contentStream.drawImage(sharedImage, 10, 10);
+                    contentStream.beginMarkedContent(COSName.getPDFName("Figure"));
+                    contentStream.setNonStrokingColor(i / 10f, 0f, 0f, 0f);
+                    contentStream.addRect(50, 50, 100, 100);
+                    contentStream.fill();
+                    contentStream.endMarkedContent();
+                }
+            }
+            document.save(samplePath.toFile());
+        }
+
+        // Act
+        pdfInspector.inspect(samplePath.toString(), tempDir.resolve("sequential").toString());
+        pdfInspector.inspect(samplePath.toString(), tempDir.resolve("parallel").toString(), 3);
+
+        // Assert
+        String sequential = Files.readString(tempDir.resolve("sequential.md"));
+        String parallel = Files.readString(tempDir.resolve("parallel.md"));
+        assertThat(parallel).isEqualTo(sequential);
+        for (int i = 1; i < pageCount; i++) {
+            assertThat(parallel.indexOf("## Page " + i + "\n")).isLessThan(parallel.indexOf("## Page " + (i + 1) + "\n"));
+        }
+        assertThat(parallel).contains("* Drawn: 1 time").contains("(0.60, 0.00, 0.00, 0.00)").contains("Paint Operator: Filled vector path (nonzero rule)");
+    }
+
+    @Test
+    void shouldListSharedSelfReferencingFormContentsOnlyOnce(@TempDir Path tempDir) throws IOException {
+        // Arrange, four pages drawing a form whose resources hold an image and the form itself
+        Path samplePath = tempDir.resolve("shared_form_sample.pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDFormXObject form = new PDFormXObject(document);
+            form.setBBox(new PDRectangle(100, 100));
+            PDResources formResources = new PDResources();
+            formResources.put(COSName.getPDFName("Logo"), LosslessFactory.createFromImage(document, new BufferedImage(8, 4, BufferedImage.TYPE_INT_RGB)));
+            formResources.put(COSName.getPDFName("Self"), form);
+            form.setResources(formResources);
+            for (int i = 0; i < 4; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    contentStream.drawForm(form);
+                }
+            }
+            document.save(samplePath.toFile());
+        }
+
+        // Act
+        pdfInspector.inspect(samplePath.toString(), tempDir.resolve("shared_form").toString(), 2);
+
+        // Assert
+        String report = Files.readString(tempDir.resolve("shared_form.md"));
+        assertThat(report.split("- Image XObject: Logo", -1)).hasSize(2);
+        assertThat(report.split("listed on page 1\\)", -1)).hasSize(4);
+        assertThat(report).contains("listed above)");
+    }
+
+    @Test
+    void shouldReuseOnlyFormAnalysesNotCutShortByACycle(@TempDir Path tempDir) throws IOException {
+        // Arrange, form A lists an image and form B, B lists A. Page 1 draws A, page 2 draws B
+        Path samplePath = tempDir.resolve("form_cycle_sample.pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDFormXObject formA = new PDFormXObject(document);
+            PDFormXObject formB = new PDFormXObject(document);
+            formA.setBBox(new PDRectangle(100, 100));
+            formB.setBBox(new PDRectangle(100, 100));
+            PDResources resourcesA = new PDResources();
+            resourcesA.put(COSName.getPDFName("Logo"), LosslessFactory.createFromImage(document, new BufferedImage(8, 4, BufferedImage.TYPE_INT_RGB)));
+            resourcesA.put(COSName.getPDFName("B"), formB);
+            formA.setResources(resourcesA);
+            PDResources resourcesB = new PDResources();
+            resourcesB.put(COSName.getPDFName("A"), formA);
+            formB.setResources(resourcesB);
+            for (PDFormXObject form : List.of(formA, formB)) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    contentStream.drawForm(form);
+                }
+            }
+            document.save(samplePath.toFile());
+        }
+
+        // Act
+        List<PageFeatures> features = pdfInspector.measurePages(samplePath.toString(), 1);
+
+        // Assert, B analyzed inside A on page 1 has A cut short, page 2 still reaches the image through A
+        assertThat(features.get(0).imagePixels()).isEqualTo(32);
+        assertThat(features.get(1).imagePixels()).isEqualTo(32);
+    }
+
+    @Test
+    void shouldTreatAbbreviatedRgbInlineImageAsColor(@TempDir Path tempDir) throws IOException {
+        // Arrange, a page drawing a red inline image whose color space is the abbreviation RGB, which isn't a resource name
+        Path samplePath = tempDir.resolve("inline_rgb_sample.pdf");
+        try (PDDocument document = new PDDocument()) {
+            TestDocuments.addInlineImagePage(document, "RGB", new byte[]{(byte) 255, 0, 0});
+            document.save(samplePath.toFile());
+        }
+
+        // Act
+        boolean gray;
+        try (PDDocument document = new PDFDocumentIO().loadDocument(samplePath.toString())) {
+            gray = pdfInspector.isGrayscalePage(document.getPage(0));
+        }
+        List<PageFeatures> features = pdfInspector.measurePages(samplePath.toString(), 1);
+
+        // Assert
+        assertThat(gray).isFalse();
+        assertThat(features.get(0).gray()).isFalse();
+    }
+
+    @Test
+    void shouldWriteTypedJsonLinesRecords(@TempDir Path tempDir) throws IOException {
+        // Arrange, a page drawing an image and a tagged vector graphic
+        Path samplePath = tempDir.resolve("jsonl_sample.pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                contentStream.drawImage(LosslessFactory.createFromImage(document, new BufferedImage(8, 4, BufferedImage.TYPE_INT_RGB)), 10, 10);
+                contentStream.beginMarkedContent(COSName.getPDFName("Figure"));
+                contentStream.setNonStrokingColor(0.2f, 0f, 0f, 0f);
+                contentStream.addRect(50, 50, 100, 100);
+                contentStream.fill();
+                contentStream.endMarkedContent();
+            }
+            document.save(samplePath.toFile());
+        }
+
+        // Act
+        pdfInspector.inspect(samplePath.toString(), tempDir.resolve("records").toString(), 1, ReportFormat.JSONL);
+
+        // Assert
+        List<String> records = Files.readAllLines(tempDir.resolve("records.jsonl"));
+        assertThat(records).hasSize(4);
+        assertThat(records.get(0)).startsWith("{\"type\":\"document\"").contains("\"pages\":1");
+        assertThat(records.get(1)).startsWith("{\"type\":\"page\",\"page\":1,\"width\":612.0,\"height\":792.0");
+        assertThat(records.get(2)).startsWith("{\"type\":\"image\"")
+                .contains("\"width\":8,\"height\":4,\"colorSpace\":\"DeviceRGB\",\"bitsPerComponent\":8")
+                .contains("\"filters\":[\"FlateDecode\"]")
+                .contains("\"drawn\":1");
+        assertThat(records.get(3)).startsWith("{\"type\":\"vectorGraphic\"")
+                .contains("\"cmyk\":[0.2,0.0,0.0,0.0]")
+                .contains("\"paintOperator\":\"Filled vector path (nonzero rule)\"");
+    }
 }
@@ -0,0 +1,97 @@
+import com.aschwimm.pdfmono.service.ConversionOptions;
+import com.aschwimm.pdfmono.service.PDFPageToImageToGrayscale;
+import com.aschwimm.pdfmono.util.PDFDocumentIO;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class PDFPageToImageToGrayscaleTest {
+
+    private PDFPageToImageToGrayscale converter;
+    private PDFDocumentIO docLoader;
+
+    @BeforeEach
+    void setUp() {
+        docLoader = new PDFDocumentIO();
+        converter = new PDFPageToImageToGrayscale(docLoader);
+    }
+
+    @Test
+    void shouldCopyGrayPagesAndRenderPagesWithAbbreviatedRgbInlineImages(@TempDir Path tempDir) throws Exception {
+        // Arrange, a gray page and a page drawing a red inline image whose color space is the abbreviation RGB
+        Path inputPath = tempDir.resolve("pass_through_input.pdf");
+        Path outputPath = tempDir.resolve("pass_through_output.pdf");
+        try (PDDocument document = new PDDocument()) {
+            TestDocuments.addGrayRectanglePage(document, 0.5f);
+            TestDocuments.addInlineImagePage(document, "RGB", new byte[]{(byte) 255, 0, 0});
+            document.save(inputPath.toFile());
+        }
+        ConversionOptions options = new ConversionOptions();
+        options.setDpi(36f);
+
+        // Act
+        converter.convertToGrayscalePDF(inputPath.toString(), outputPath.toString(), options);
+
+        // Assert
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            assertThat(converted.getNumberOfPages()).isEqualTo(2);
+            // The gray page keeps its vector content and draws no image
+            String grayContent = new String(converted.getPage(0).getContents().readAllBytes(), StandardCharsets.US_ASCII);
+            assertThat(grayContent).contains("0.5 g");
+            assertThat(converted.getPage(0).getResources().getXObjectNames()).isEmpty();
+            PDResources resources = converted.getPage(1).getResources();
+            PDImageXObject image = (PDImageXObject) resources.getXObject(resources.getXObjectNames().iterator().next());
+            assertThat(image.getColorSpace()).isInstanceOf(PDDeviceGray.class);
+        }
+    }
+
+    @Test
+    void shouldAppendPagesInOrderWhenRenderingWithSeveralThreads(@TempDir Path tempDir) throws Exception {
+        // Arrange, red pages each a different width so their order shows in the output, and a gray page in the middle that is copied
+        Path inputPath = tempDir.resolve("parallel_input.pdf");
+        Path outputPath = tempDir.resolve("parallel_output.pdf");
+        int pageCount = 7;
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pageCount; i++) {
+                PDPage page = i == 3 ? TestDocuments.addGrayRectanglePage(document, 0.5f) : TestDocuments.addRedRectanglePage(document);
+                page.setMediaBox(new PDRectangle(200 + 20 * i, 200));
+            }
+            document.save(inputPath.toFile());
+        }
+        ConversionOptions options = new ConversionOptions();
+        options.setDpi(72f);
+        options.setThreads(3);
+        options.setMaxPagesInFlight(3);
+
+        // Act
+        converter.convertToGrayscalePDF(inputPath.toString(), outputPath.toString(), options);
+
+        // Assert
+        try (PDDocument converted = docLoader.loadDocument(outputPath.toString())) {
+            assertThat(converted.getNumberOfPages()).isEqualTo(pageCount);
+            for (int i = 0; i < pageCount; i++) {
+                PDPage page = converted.getPage(i);
+                assertThat(page.getMediaBox().getWidth()).isEqualTo(200f + 20 * i);
+                if (i == 3) {
+                    assertThat(page.getResources().getXObjectNames()).isEmpty();
+                    continue;
+                }
+                PDResources resources = page.getResources();
+                PDImageXObject image = (PDImageXObject) resources.getXObject(resources.getXObjectNames().iterator().next());
+                // At 72 DPI a page is rendered at one pixel per point
+                assertThat(image.getWidth()).isEqualTo(200 + 20 * i);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import com.aschwimm.pdfmono.service.ConversionOptions;
+import com.aschwimm.pdfmono.service.PageImageCodec;
+import com.aschwimm.pdfmono.service.PageImageEncoder;
+import static org.assertj.core.api.Assertions.*;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class PageImageEncoderTest {
+
+    @Test
+    void shouldDecodeGroupFourPageImageToTheSamePixels() throws IOException {
+        // Arrange, random specks, long runs wider than the largest make-up code and a width that isn't a multiple of 8
+        BufferedImage bilevelImage = new BufferedImage(2701, 40, BufferedImage.TYPE_BYTE_BINARY);
+        WritableRaster raster = bilevelImage.getRaster();
+        Random random = new Random(7);
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 2701; x++) {
+                boolean black = y % 10 == 0 ? x > 20 && x < 2690 : random.nextInt(100) < 10;
+                raster.setSample(x, y, 0, black ? 0 : 1);
+            }
+        }
+        ConversionOptions options = new ConversionOptions();
+        options.setMonochrome(true);
+        PageImageEncoder encoder = PageImageEncoder.forOptions(options);
+
+        try (PDDocument document = new PDDocument()) {
+            // Act
+            PDImageXObject pdImage = encoder.createImage(document, encoder.encode(bilevelImage, new ByteArrayOutputStream()));
+            BufferedImage decoded = pdImage.getImage();
+
+            // Assert
+            assertThat(pdImage.getBitsPerComponent()).isEqualTo(1);
+            int[] expected = new int[2701 * 40];
+            int[] actual = new int[2701 * 40];
+            for (int y = 0; y < 40; y++) {
+                for (int x = 0; x < 2701; x++) {
+                    expected[y * 2701 + x] = raster.getSample(x, y, 0) == 1 ? 0xFFFFFF : 0x000000;
+                    actual[y * 2701 + x] = decoded.getRGB(x, y) & 0xFFFFFF;
+                }
+            }
+            assertThat(actual).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void shouldEncodeBandsIntoOneImageLikeTheWholePage() throws IOException {
+        // Arrange
+        BufferedImage grayImage = new BufferedImage(120, 90, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = grayImage.getRaster();
+        for (int y = 0; y < 90; y++) {
+            for (int x = 0; x < 120; x++) {
+                raster.setSample(x, y, 0, (x * 3 + y * 5) % 256);
+            }
+        }
+        PageImageEncoder encoder = PageImageEncoder.forCodec(PageImageCodec.FLATE, 0.8f);
+
+        try (PDDocument document = new PDDocument()) {
+            // Act, three bands of uneven height
+            PDImageXObject pdImage = encoder.createImage(document, 120, 90, bandEncoder -> {
+                bandEncoder.writeBand(grayImage.getSubimage(0, 0, 120, 25));
+                bandEncoder.writeBand(grayImage.getSubimage(0, 25, 120, 50));
+                bandEncoder.writeBand(grayImage.getSubimage(0, 75, 120, 15));
+            });
+            BufferedImage decoded = pdImage.getImage();
+
+            // Assert
+            assertThat(pdImage.getHeight()).isEqualTo(90);
+            for (int y = 0; y < 90; y += 7) {
+                for (int x = 0; x < 120; x += 7) {
+                    assertThat(decoded.getRaster().getSample(x, y, 0)).as("pixel %d,%d", x, y).isEqualTo(raster.getSample(x, y, 0));
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldWriteJpegBandsIntoOneDecodableImage() throws IOException {
+        // Arrange, a smooth gradient so JPEG loses little
+        BufferedImage grayImage = new BufferedImage(160, 120, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = grayImage.getRaster();
+        for (int y = 0; y < 120; y++) {
+            for (int x = 0; x < 160; x++) {
+                raster.setSample(x, y, 0, x + y / 2);
+            }
+        }
+        PageImageEncoder encoder = PageImageEncoder.forCodec(PageImageCodec.JPEG, 0.9f);
+
+        try (PDDocument document = new PDDocument()) {
+            // Act
+            PDImageXObject pdImage = encoder.createImage(document, 160, 120, bandEncoder -> {
+                bandEncoder.writeBand(grayImage.getSubimage(0, 0, 160, 70));
+                bandEncoder.writeBand(grayImage.getSubimage(0, 70, 160, 50));
+            });
+            BufferedImage decoded = pdImage.getImage();
+
+            // Assert
+            assertThat(pdImage.getWidth()).isEqualTo(160);
+            assertThat(pdImage.getHeight()).isEqualTo(120);
+            for (int y = 0; y < 120; y += 11) {
+                for (int x = 0; x < 160; x += 11) {
+                    assertThat(decoded.getRaster().getSample(x, y, 0)).as("pixel %d,%d", x, y).isCloseTo(raster.getSample(x, y, 0), within(8));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import com.aschwimm.pdfmono.util.ColorConverter;
+import com.aschwimm.pdfmono.util.RasterGrayscaleConverter;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class RasterGrayscaleConverterTest {
+
+    @Test
+    void shouldMatchPerPixelGammaConversionExactly() {
+        // Arrange
+        BufferedImage rgbImage = randomImage(BufferedImage.TYPE_INT_RGB, 512, 384);
+
+        // Act
+        BufferedImage grayImage = RasterGrayscaleConverter.withDefaultGamma().convert(rgbImage);
+
+        // Assert
+        assertThat(grayBytes(grayImage)).isEqualTo(grayBytes(referenceConversion(rgbImage)));
+    }
+
+    @Test
+    void shouldMatchPerPixelGammaConversionForByteBackedImages() {
+        // Arrange
+        BufferedImage bgrImage = randomImage(BufferedImage.TYPE_3BYTE_BGR, 300, 200);
+
+        // Act
+        BufferedImage grayImage = RasterGrayscaleConverter.withDefaultGamma().convert(bgrImage);
+
+        // Assert
+        assertThat(grayBytes(grayImage)).isEqualTo(grayBytes(referenceConversion(bgrImage)));
+    }
+
+    @Test
+    void shouldRejectDestinationOfWrongSize() {
+        // Arrange
+        BufferedImage rgbImage = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        BufferedImage grayImage = new BufferedImage(5, 10, BufferedImage.TYPE_BYTE_GRAY);
+
+        // Act
+        Throwable thrown = catchThrowable(() -> RasterGrayscaleConverter.withDefaultGamma().convert(rgbImage, grayImage));
+
+        // Assert
+        assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // The original getRGB/Math.pow/setRGB loop the raster converter replaced
+    private static BufferedImage referenceConversion(BufferedImage originalImage) {
+        BufferedImage grayscaleImage = new BufferedImage(originalImage.getWidth(), originalImage.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        double invGamma = 1.0 / 2.2;
+        for (int y = 0; y < originalImage.getHeight(); y++) {
+            for (int x = 0; x < originalImage.getWidth(); x++) {
+                int rgb = originalImage.getRGB(x, y);
+                double gray = ColorConverter.rgbToGray((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF) / 255.0;
+                gray = Math.pow(gray, invGamma);
+                int grayValue = (int) Math.min(255, Math.max(0, gray * 255));
+                grayscaleImage.setRGB(x, y, (grayValue << 16) | (grayValue << 8) | grayValue);
+            }
+        }
+        return grayscaleImage;
+    }
+
+    // First row holds every gray level so the low end of the gamma curve, where it is steepest, is always covered
+    private static BufferedImage randomImage(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int level = x & 0xFF;
+                image.setRGB(x, y, y == 0 ? (level << 16) | (level << 8) | level : random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] grayBytes(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,86 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.blend.BlendMode;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/*
+Documents the tests build on the fly. Rectangle pages fill a 100 point square at (10, 10) with a single color operator
+ */
+final class TestDocuments {
+
+    private TestDocuments() {
+    }
+
+    static PDPage addRedRectanglePage(PDDocument document) throws IOException {
+        return addRectanglePage(document, 1f, 0f, 0f, null);
+    }
+
+    static PDPage addRectanglePage(PDDocument document, float red, float green, float blue) throws IOException {
+        return addRectanglePage(document, red, green, blue, null);
+    }
+
+    static PDPage addGrayRectanglePage(PDDocument document, float gray) throws IOException {
+        PDPage page = new PDPage();
+        document.addPage(page);
+        try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+            contentStream.setNonStrokingColor(gray);
+            contentStream.addRect(10, 10, 100, 100);
+            contentStream.fill();
+        }
+        return page;
+    }
+
+    /*
+    A page drawing a one pixel, 8 bit inline image scaled to 100 points, colorSpace is written as given, e.g. the abbreviation RGB
+    samples holds one byte per component
+     */
+    static PDPage addInlineImagePage(PDDocument document, String colorSpace, byte[] samples) throws IOException {
+        PDPage page = new PDPage();
+        document.addPage(page);
+        PDStream contents = new PDStream(document);
+        try (OutputStream out = contents.createOutputStream()) {
+            out.write(("q 100 0 0 100 10 10 cm\nBI /W 1 /H 1 /CS /" + colorSpace + " /BPC 8 ID ").getBytes(StandardCharsets.US_ASCII));
+            out.write(samples);
+            out.write("\nEI Q\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        page.setContents(contents);
+        return page;
+    }
+
+    /*
+    Two red rectangle pages, the second one drawn with a luminosity blend mode. The hybrid conversion converts the first page in place
+    and renders the second, which in-place conversion can't turn gray
+     */
+    static void saveHybridDocument(Path path) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            addRedRectanglePage(document);
+            PDExtendedGraphicsState graphicsState = new PDExtendedGraphicsState();
+            graphicsState.setBlendMode(BlendMode.LUMINOSITY);
+            addRectanglePage(document, 1f, 0f, 0f, graphicsState);
+            document.save(path.toFile());
+        }
+    }
+
+    // graphicsState is set before the rectangle is filled, when there is one
+    private static PDPage addRectanglePage(PDDocument document, float red, float green, float blue, PDExtendedGraphicsState graphicsState)
+            throws IOException {
+        PDPage page = new PDPage();
+        document.addPage(page);
+        try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+            if (graphicsState != null) {
+                contentStream.setGraphicsStateParameters(graphicsState);
+            }
+            contentStream.setNonStrokingColor(red, green, blue);
+            contentStream.addRect(10, 10, 100, 100);
+            contentStream.fill();
+        }
+        return page;
+    }
+}